@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.jnvmf;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompletionQueueEntryBenchmark {
+
+  /*
+   * Per I/O decoding of a response capsule as done by the queue pair on
+   * receive: CID, SQ head, status field and status code lookup.
+   */
+
+  /* raw status word: SUCCESS or LBA out of range (generic command status) */
+  @Param({"0x0000", "0x0100"})
+  public String status;
+
+  @Param({"false", "true"})
+  public boolean unsafeAccess;
+
+  private NativeBuffer buffer;
+  private NvmCompletionQueueEntry completionQueueEntry;
+  private int rawStatusCodeType;
+
+  @Setup
+  public void setup() {
+    ByteBuffer byteBuffer = ByteBuffer.allocateDirect(CompletionQueueEntry.SIZE);
+    buffer = unsafeAccess ? new UnsafeNativeBuffer(byteBuffer) : new NativeByteBuffer(byteBuffer);
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putShort(12, (short) 42);
+    /* status code is in bits 8:1 of the status field */
+    buffer.putShort(14, (short) (Integer.decode(status) << 1));
+    completionQueueEntry = new NvmResponseCapsule().getCompletionQueueEntry();
+  }
+
+  @Benchmark
+  public StatusCode.Value decode() {
+    completionQueueEntry.update(buffer);
+    return completionQueueEntry.getStatusCode();
+  }
+
+  @Benchmark
+  public boolean decodeSuccess() {
+    completionQueueEntry.update(buffer);
+    return completionQueueEntry.isSuccess();
+  }
+
+  @Benchmark
+  public short commandIdentifier() {
+    return CompletionQueueEntry.getCommandIdentifier(buffer);
+  }
+
+  @Benchmark
+  public StatusCodeType.Value statusCodeTypeValueOf() {
+    rawStatusCodeType ^= 1;
+    return StatusCodeType.getInstance().valueOf(rawStatusCodeType);
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.jnvmf;
+
+import java.io.IOException;
+
+/* Registers nothing, keys are zero. Allows to use memory pools without RDMA hardware. */
+final class NoRegistrar implements PdMemoryPool.Registrar, PdMemoryPool.Registration {
+
+  static final NoRegistrar INSTANCE = new NoRegistrar();
+
+  private NoRegistrar() {
+  }
+
+  @Override
+  public PdMemoryPool.Registration register(NativeBuffer buffer) throws IOException {
+    return this;
+  }
+
+  @Override
+  public int getLocalKey() {
+    return 0;
+  }
+
+  @Override
+  public int getRemoteKey() {
+    return 0;
+  }
+
+  @Override
+  public void deregister() {
+  }
+}
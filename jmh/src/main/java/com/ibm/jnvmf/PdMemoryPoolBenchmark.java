@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.jnvmf;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PdMemoryPoolBenchmark {
+
+  /*
+   * Allocate and free of pool elements on plain direct buffers. Memory
+   * registration is replaced by a registrar that does nothing.
+   */
+
+  @State(Scope.Benchmark)
+  public static class Pool {
+
+    @Param({"4096"})
+    public int elementSize;
+
+    @Param({"256"})
+    public int numElements;
+
+    PdMemoryPool pool;
+
+    @Setup
+    public void setup() throws IOException {
+      pool = new PdMemoryPool(new OffHeapMemoryAllocator(), NoRegistrar.INSTANCE,
+          elementSize, numElements, 1, ByteOrder.LITTLE_ENDIAN);
+      /* allocate the region up front */
+      pool.prewarm(1);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+      pool.free();
+    }
+  }
+
+  @Benchmark
+  public KeyedNativeBuffer allocateFree(Pool pool) throws IOException {
+    KeyedNativeBuffer buffer = pool.pool.allocate();
+    buffer.free();
+    return buffer;
+  }
+
+  @Benchmark
+  @Threads(4)
+  public KeyedNativeBuffer allocateFreeContended(Pool pool) throws IOException {
+    KeyedNativeBuffer buffer = pool.pool.allocate();
+    buffer.free();
+    return buffer;
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.jnvmf;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SubmissionQueueEntryBenchmark {
+
+  /*
+   * Per I/O encoding of a read/write command capsule as done by
+   * NvmIoCommand before posting: LBA, number of blocks and the keyed SGL
+   * describing the remote data buffer. The SQE lives in a direct buffer
+   * like the command capsules registered with the queue pair.
+   */
+
+  private static final int DATA_SIZE = 4096;
+
+  @Param({"false", "true"})
+  public boolean unsafeAccess;
+
+  private NvmWriteCommandSqe sqe;
+  private KeyedNativeBuffer dataBuffer;
+  private NamespaceIdentifier namespaceIdentifier;
+  private long lba;
+
+  @Setup
+  public void setup() throws Exception {
+    ByteBuffer byteBuffer = ByteBuffer.allocateDirect(SubmissionQueueEntry.SIZE);
+    NativeBuffer buffer = unsafeAccess ? new UnsafeNativeBuffer(byteBuffer)
+        : new NativeByteBuffer(byteBuffer);
+    sqe = new NvmWriteCommandSqe(buffer);
+    sqe.initialize();
+    PdMemoryPool pool = new PdMemoryPool(new OffHeapMemoryAllocator(),
+        NoRegistrar.INSTANCE, DATA_SIZE, 1, 1, ByteOrder.LITTLE_ENDIAN);
+    pool.setUnsafeAccess(unsafeAccess);
+    dataBuffer = pool.allocate();
+    namespaceIdentifier = new NamespaceIdentifier(1);
+  }
+
+  @Benchmark
+  public NvmWriteCommandSqe encode() {
+    lba += 8;
+    sqe.setNamespaceIdentifier(namespaceIdentifier);
+    sqe.setStartingLba(lba);
+    sqe.setNumberOfLogicalBlocks(8);
+    sqe.getKeyedSglDataBlockDescriptor().set(dataBuffer);
+    return sqe;
+  }
+
+  @Benchmark
+  public NvmWriteCommandSqe setStartingLba() {
+    sqe.setStartingLba(++lba);
+    return sqe;
+  }
+
+  @Benchmark
+  public NvmWriteCommandSqe setNumberOfLogicalBlocks() {
+    sqe.setNumberOfLogicalBlocks(8);
+    return sqe;
+  }
+
+  @Benchmark
+  public NvmWriteCommandSqe setKeyedSglDataBlockDescriptor() {
+    sqe.getKeyedSglDataBlockDescriptor().set(dataBuffer);
+    return sqe;
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.jnvmf;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class AsyncCompletion implements OperationCallback {
+
+  /*
+   * Completes a future once both the command send and the response of an
+   * asynchronously executed command have completed. One instance per command is
+   * reused for all executions, i.e. a command can only be in flight once.
+   */
+
+  private final Response<NvmResponseCapsule> response;
+  private final OperationCallback commandCallback;
+  private final AtomicInteger pending;
+  private volatile CompletableFuture<NvmCompletionQueueEntry> future;
+
+  AsyncCompletion(Response<NvmResponseCapsule> response) {
+    this.response = response;
+    this.pending = new AtomicInteger();
+    this.commandCallback = new OperationCallback() {
+      @Override
+      public void onStart() {
+      }
+
+      @Override
+      public void onComplete() {
+        complete();
+      }
+
+      @Override
+      public void onFailure(RdmaException exception) {
+        fail(exception);
+      }
+    };
+    response.setCallback(this);
+  }
+
+  CompletableFuture<NvmCompletionQueueEntry> start() {
+    if (!pending.compareAndSet(0, 2)) {
+      throw new IllegalStateException("Command still in flight");
+    }
+    CompletableFuture<NvmCompletionQueueEntry> future = new CompletableFuture<>();
+    this.future = future;
+    return future;
+  }
+
+  /* the command was not posted */
+  void abort() {
+    future = null;
+    pending.set(0);
+  }
+
+  private void complete() {
+    if (pending.decrementAndGet() == 0) {
+      CompletableFuture<NvmCompletionQueueEntry> future = this.future;
+      if (future != null) {
+        future.complete(response.getResponseCapsule().getCompletionQueueEntry());
+      }
+    }
+  }
+
+  void fail(Throwable throwable) {
+    CompletableFuture<NvmCompletionQueueEntry> future = this.future;
+    pending.set(0);
+    if (future != null) {
+      future.completeExceptionally(throwable);
+    }
+  }
+
+  Response<NvmResponseCapsule> getResponse() {
+    return response;
+  }
+
+  OperationCallback getCommandCallback() {
+    return commandCallback;
+  }
+
+  @Override
+  public void onStart() {
+  }
+
+  @Override
+  public void onComplete() {
+    complete();
+  }
+
+  @Override
+  public void onFailure(RdmaException exception) {
+    fail(exception);
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.jnvmf;
+
+import java.util.concurrent.TimeUnit;
+
+public class BufferPoolConfiguration {
+
+  /*
+   * Configures the registered buffer pools of a controller. There is one pool
+   * per protection domain and element size (size class); pools grow by
+   * registering regions on demand and return regions that have become idle.
+   * The memory registered by all pools of a usage class on a protection domain
+   * is limited by the budget of the class. Settings apply to pools created
+   * afterwards, budgets are enforced on every region allocation.
+   */
+
+  public enum Usage {
+    /* command capsules incl. in-capsule data */
+    COMMAND_CAPSULE,
+    /* receive buffers for response capsules */
+    RESPONSE_CAPSULE,
+    /* data buffers allocated by the user (see QueuePair.allocateBuffer) */
+    DATA
+  }
+
+  public static final long UNLIMITED = Long.MAX_VALUE;
+  public static final int DEFAULT_ELEMENTS_PER_REGION = 128;
+  public static final int DEFAULT_MAXIMUM_REGION_SIZE = 8 * 1024 * 1024;
+  public static final int DEFAULT_MAXIMUM_IDLE_REGIONS = 1;
+  public static final int DEFAULT_THREAD_CACHE_SIZE = PdMemoryPool.DEFAULT_THREAD_CACHE_SIZE;
+  public static final long DEFAULT_TRIM_INTERVAL_MS = 1000;
+
+  private final long[] budgets;
+  private volatile int elementsPerRegion;
+  private volatile int maximumRegionSize;
+  private volatile int maximumIdleRegions;
+  private volatile int prewarmRegions;
+  private volatile boolean backgroundPrewarm;
+  private volatile int threadCacheSize;
+  private volatile long trimIntervalMs;
+  private volatile MemoryAllocator memoryAllocator;
+
+  BufferPoolConfiguration() {
+    this.budgets = new long[Usage.values().length];
+    for (int i = 0; i < budgets.length; i++) {
+      budgets[i] = UNLIMITED;
+    }
+    this.elementsPerRegion = DEFAULT_ELEMENTS_PER_REGION;
+    this.maximumRegionSize = DEFAULT_MAXIMUM_REGION_SIZE;
+    this.maximumIdleRegions = DEFAULT_MAXIMUM_IDLE_REGIONS;
+    this.threadCacheSize = DEFAULT_THREAD_CACHE_SIZE;
+    this.trimIntervalMs = DEFAULT_TRIM_INTERVAL_MS;
+    this.memoryAllocator = new OffHeapMemoryAllocator();
+  }
+
+  /* maximum number of bytes registered for this usage class per protection domain */
+  public synchronized void setBudget(Usage usage, long bytes) {
+    if (bytes <= 0) {
+      throw new IllegalArgumentException("Budget negative or zero");
+    }
+    budgets[usage.ordinal()] = bytes;
+  }
+
+  public synchronized long getBudget(Usage usage) {
+    return budgets[usage.ordinal()];
+  }
+
+  public void setElementsPerRegion(int elementsPerRegion) {
+    if (elementsPerRegion < 1) {
+      throw new IllegalArgumentException("Negative or zero number of elements per region");
+    }
+    this.elementsPerRegion = elementsPerRegion;
+  }
+
+  public int getElementsPerRegion() {
+    return elementsPerRegion;
+  }
+
+  /* regions of large size classes hold fewer elements (but at least one) */
+  int getElementsPerRegion(int elementSize) {
+    return Math.max(1, Math.min(elementsPerRegion, maximumRegionSize / elementSize));
+  }
+
+  public void setMaximumRegionSize(int maximumRegionSize) {
+    if (maximumRegionSize < 1) {
+      throw new IllegalArgumentException("Negative or zero maximum region size");
+    }
+    this.maximumRegionSize = maximumRegionSize;
+  }
+
+  public int getMaximumRegionSize() {
+    return maximumRegionSize;
+  }
+
+  /*
+   * Fully free regions kept registered per pool, further idle regions are
+   * released. Elements cached by threads are not free in this sense.
+   */
+  public void setMaximumIdleRegions(int maximumIdleRegions) {
+    if (maximumIdleRegions < 0) {
+      throw new IllegalArgumentException("Negative number of idle regions");
+    }
+    this.maximumIdleRegions = maximumIdleRegions;
+  }
+
+  public int getMaximumIdleRegions() {
+    return maximumIdleRegions;
+  }
+
+  /* number of regions registered when a pool is created */
+  public void setPrewarmRegions(int prewarmRegions) {
+    if (prewarmRegions < 0) {
+      throw new IllegalArgumentException("Negative number of prewarm regions");
+    }
+    this.prewarmRegions = prewarmRegions;
+  }
+
+  public int getPrewarmRegions() {
+    return prewarmRegions;
+  }
+
+  /*
+   * Register the next region in a background thread when a pool hands out
+   * elements from its last region with free elements, i.e. before an
+   * allocation has to register it inline.
+   */
+  public void setBackgroundPrewarm(boolean backgroundPrewarm) {
+    this.backgroundPrewarm = backgroundPrewarm;
+  }
+
+  public boolean isBackgroundPrewarm() {
+    return backgroundPrewarm;
+  }
+
+  /*
+   * Free elements cached per thread and pool, 0 disables thread caching. Size
+   * classes cache at most 256KiB per thread, i.e. large ones cache fewer
+   * elements or none.
+   */
+  public void setThreadCacheSize(int threadCacheSize) {
+    if (threadCacheSize < 0) {
+      throw new IllegalArgumentException("Negative thread cache size");
+    }
+    this.threadCacheSize = threadCacheSize;
+  }
+
+  public int getThreadCacheSize() {
+    return threadCacheSize;
+  }
+
+  /*
+   * Pools without allocations during this interval return the elements cached
+   * by threads, so idle regions can be released. 0 disables trimming.
+   */
+  public void setTrimInterval(long interval, TimeUnit unit) {
+    if (interval < 0) {
+      throw new IllegalArgumentException("Negative trim interval");
+    }
+    this.trimIntervalMs = TimeUnit.MILLISECONDS.convert(interval, unit);
+  }
+
+  public long getTrimInterval(TimeUnit unit) {
+    return unit.convert(trimIntervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  /*
+   * Allocates the memory of regions, e.g. HugePageMemoryAllocator (which
+   * rounds every region up to whole huge pages, i.e. elements per region and
+   * maximum region size should be chosen accordingly).
+   */
+  public void setMemoryAllocator(MemoryAllocator memoryAllocator) {
+    if (memoryAllocator == null) {
+      throw new IllegalArgumentException("Memory allocator null");
+    }
+    this.memoryAllocator = memoryAllocator;
+  }
+
+  public MemoryAllocator getMemoryAllocator() {
+    return memoryAllocator;
+  }
+}
@@ -68,13 +68,22 @@ public abstract class Command<C extends CommandCapsule, R extends ResponseCapsul
     }
   }
 
-  private SVCPostSend getPostSend() throws IOException {
+  private SVCPostSend getCapsulePostSend() throws IOException {
     if (postSend == null) {
       postSend = getQueuePair().newPostSend(Arrays.asList(wr));
     }
     return postSend;
   }
 
+  SVCPostSend getPostSend() throws IOException {
+    return getCapsulePostSend();
+  }
+
+  /* build the post send verb ahead of the first execution */
+  void prepare() throws IOException {
+    getCapsulePostSend();
+  }
+
   public Response<R> execute(Response<R> response) throws IOException {
     getQueuePair().post(this, getPostSend(), response);
     return response;
@@ -85,6 +94,10 @@ public abstract class Command<C extends CommandCapsule, R extends ResponseCapsul
     return responseFuture;
   }
 
+  IbvSendWR getWorkRequest() {
+    return wr;
+  }
+
   public abstract Response<R> newResponse();
 
   public ResponseFuture<R> newResponseFuture() {
@@ -35,7 +35,7 @@ public abstract class CommandCapsule<SqeT extends SubmissionQueueEntry> extends
   private final SqeT submissionQueueEntry;
   private final NativeBuffer data;
   private final int incapsuleDataOffset;
-  private final ScatterGatherListDescriptor[] additionalSgls;
+  private final KeyedSglDataBlockDescriptor[] additionalSgls;
 
   CommandCapsule(KeyedNativeBuffer buffer, SubmissionQueueEntryFactory<SqeT> sqeFactory) {
     this(buffer, sqeFactory, 0, 0, 0);
@@ -73,7 +73,13 @@ public abstract class CommandCapsule<SqeT extends SubmissionQueueEntry> extends
       this.data = null;
     }
 
-    this.additionalSgls = new ScatterGatherListDescriptor[additionalSgls];
+    this.additionalSgls = new KeyedSglDataBlockDescriptor[additionalSgls];
+    for (int i = 0; i < additionalSgls; i++) {
+      getBuffer().position(SubmissionQueueEntry.SIZE + i * ScatterGatherListDescriptor.SIZE);
+      getBuffer().limit(getBuffer().position() + ScatterGatherListDescriptor.SIZE);
+      this.additionalSgls[i] = new KeyedSglDataBlockDescriptor(getBuffer().slice());
+      getBuffer().clear();
+    }
   }
 
   int getIncapsuleDataOffset() {
@@ -91,7 +97,14 @@ public abstract class CommandCapsule<SqeT extends SubmissionQueueEntry> extends
     return data;
   }
 
-  //TODO handle additional SGLs
+  int getMaximumAdditionalSgls() {
+    return additionalSgls.length;
+  }
+
+  /* additional SGLs start at offset 0 of the capsule data (byte 64) */
+  KeyedSglDataBlockDescriptor getAdditionalSgl(int index) {
+    return additionalSgls[index];
+  }
 
   @Override
   void initialize() {
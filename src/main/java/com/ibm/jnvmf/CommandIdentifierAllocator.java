@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.jnvmf;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+class CommandIdentifierAllocator {
+
+  /*
+   * A command identifier (CID) is in use until both the send of the command
+   * capsule and the receive of the response capsule have completed. Free CIDs
+   * are tracked in a bitmap, the outstanding halves of a CID in use in a
+   * separate state word per CID. Neither allocation nor completion takes a lock
+   * or boxes the CID.
+   */
+
+  static final int SEND = 1;
+  static final int RESPONSE = 1 << 1;
+  private static final int IN_USE = SEND | RESPONSE;
+
+  private final int size;
+  private final AtomicLongArray freeBitmap;
+  private final AtomicIntegerArray state;
+  private final AtomicInteger inUse;
+  /* hint where to start searching for a free CID, races are benign */
+  private int nextWord;
+
+  CommandIdentifierAllocator(int size) {
+    if (size <= 0) {
+      throw new IllegalArgumentException("Size negative or zero");
+    }
+    if (size > (1 << Short.SIZE)) {
+      throw new IllegalArgumentException("Size too large (" + size + ")");
+    }
+    this.size = size;
+    int words = (size + Long.SIZE - 1) / Long.SIZE;
+    this.freeBitmap = new AtomicLongArray(words);
+    for (int i = 0; i < words; i++) {
+      int bits = Math.min(Long.SIZE, size - i * Long.SIZE);
+      freeBitmap.set(i, bits == Long.SIZE ? ~0L : (1L << bits) - 1);
+    }
+    this.state = new AtomicIntegerArray(size);
+    this.inUse = new AtomicInteger();
+  }
+
+  /* returns a free CID or -1 if all CIDs are in use */
+  int allocate() {
+    int words = freeBitmap.length();
+    int word = nextWord;
+    for (int i = 0; i < words; i++) {
+      long bits;
+      while ((bits = freeBitmap.get(word)) != 0) {
+        if (freeBitmap.compareAndSet(word, bits, bits & (bits - 1))) {
+          nextWord = word;
+          int commandId = word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+          state.set(commandId, IN_USE);
+          inUse.incrementAndGet();
+          return commandId;
+        }
+      }
+      if (++word == words) {
+        word = 0;
+      }
+    }
+    return -1;
+  }
+
+  /*
+   * Mark the send or response half of a CID as completed.
+   * Returns true if the CID has been freed, i.e. both halves are done.
+   */
+  boolean complete(int commandId, int half) {
+    int current;
+    int next;
+    do {
+      current = state.get(commandId);
+      if ((current & half) == 0) {
+        throw new IllegalStateException("CID " + commandId + " not in use");
+      }
+      next = current & ~half;
+    } while (!state.compareAndSet(commandId, current, next));
+    if (next == 0) {
+      release(commandId);
+      return true;
+    }
+    return false;
+  }
+
+  boolean isPending(int commandId, int half) {
+    return (state.get(commandId) & half) != 0;
+  }
+
+  private void release(int commandId) {
+    int word = commandId / Long.SIZE;
+    long bit = 1L << (commandId % Long.SIZE);
+    long bits;
+    do {
+      bits = freeBitmap.get(word);
+    } while (!freeBitmap.compareAndSet(word, bits, bits | bit));
+    inUse.decrementAndGet();
+  }
+
+  /* number of CIDs in use, i.e. allocated and not yet completed */
+  int getNumInUse() {
+    return inUse.get();
+  }
+
+  int getSize() {
+    return size;
+  }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.jnvmf;
+
+import com.ibm.disni.verbs.IbvCQ;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class CompletionEngine implements Freeable {
+
+  /*
+   * Polls all queue pairs of a controller in a dedicated thread. If the engine
+   * has been started with a completion queue size, IO queue pairs created
+   * afterwards share one completion queue which allows the engine to block on
+   * its completion channel. Queue pairs with their own completion queue (e.g. the
+   * admin queue) are polled in every iteration, the engine does not block while
+   * any of them has commands outstanding. While the engine runs, poll() on its
+   * queue pairs in any other thread returns immediately, futures are completed
+   * by the engine.
+   */
+
+  public enum IdlePolicy {
+    /* never stop polling */
+    BUSY_SPIN,
+    /* yield the CPU after spinCount empty polls */
+    SPIN_YIELD,
+    /*
+     * block on the completion channel after spinCount empty polls, requires a
+     * shared completion queue: queue pairs with their own completion queue have
+     * their own completion channel on which the engine cannot wait
+     */
+    SPIN_BLOCK
+  }
+
+  public static final int DEFAULT_SPIN_COUNT = 1000;
+  public static final int DEFAULT_COMPLETION_QUEUE_SIZE = 4096;
+  /*
+   * a command submitted to a queue pair with its own completion queue while
+   * the engine is already blocked is only noticed after this timeout
+   */
+  private static final int PRIVATE_CQ_BLOCK_TIMEOUT_MS = 1;
+  /* we need to wake up to check if we have been stopped */
+  private static final int BLOCK_TIMEOUT_MS = 100;
+
+  private final IdlePolicy idlePolicy;
+  private final SharedCompletionQueue completionQueue;
+  private final Thread thread;
+  private volatile QueuePair[] queuePairs;
+  private volatile int spinCount;
+  private volatile boolean running;
+  private volatile IOException exception;
+  private boolean valid;
+
+  CompletionEngine(Controller controller, IdlePolicy idlePolicy, int completionQueueSize) {
+    if (idlePolicy == null) {
+      throw new IllegalArgumentException("Idle policy null");
+    }
+    if (completionQueueSize < 0) {
+      throw new IllegalArgumentException("Completion queue size negative");
+    }
+    if (idlePolicy == IdlePolicy.SPIN_BLOCK && completionQueueSize == 0) {
+      throw new IllegalArgumentException("SPIN_BLOCK requires a shared completion queue");
+    }
+    this.idlePolicy = idlePolicy;
+    /* size 0: queue pairs keep their own completion queue */
+    this.completionQueue = completionQueueSize > 0
+        ? new SharedCompletionQueue(completionQueueSize) : null;
+    this.queuePairs = new QueuePair[0];
+    this.spinCount = DEFAULT_SPIN_COUNT;
+    this.thread = new Thread(this::run, "jnvmf-completion-engine-"
+        + controller.getControllerId().toShort());
+    this.thread.setDaemon(true);
+    if (completionQueue != null) {
+      completionQueue.setPollingThread(thread);
+    }
+    this.valid = true;
+  }
+
+  void start() {
+    running = true;
+    thread.start();
+  }
+
+  synchronized void add(QueuePair queuePair) throws IOException {
+    if (exception != null) {
+      throw new IOException("Completion engine failed", exception);
+    }
+    if (queuePair instanceof IoQueuePair) {
+      ((IoQueuePair) queuePair).stopPoller();
+    }
+    queuePair.setPollingThread(thread);
+    if (completionQueue == null || queuePair.getSharedCompletionQueue() != completionQueue) {
+      QueuePair[] queuePairs = Arrays.copyOf(this.queuePairs, this.queuePairs.length + 1);
+      queuePairs[queuePairs.length - 1] = queuePair;
+      this.queuePairs = queuePairs;
+    }
+  }
+
+  private int pollAll() throws IOException {
+    int polls = completionQueue == null ? 0 : completionQueue.poll();
+    for (QueuePair queuePair : queuePairs) {
+      if (queuePair.isValid()) {
+        polls += queuePair.poll();
+      }
+    }
+    return polls;
+  }
+
+  private boolean privateCommandsOutstanding() {
+    for (QueuePair queuePair : queuePairs) {
+      if (queuePair.isValid() && queuePair.hasOutstandingCommands()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void block() throws IOException {
+    /*
+     * We can only wait on one completion channel: completions on private
+     * completion queues would be delayed until the timeout, so keep spinning
+     * while they are expected.
+     */
+    if (privateCommandsOutstanding()) {
+      Thread.yield();
+      return;
+    }
+    IbvCQ cq = completionQueue == null ? null : completionQueue.getCq();
+    int timeout = queuePairs.length > 0 ? PRIVATE_CQ_BLOCK_TIMEOUT_MS : BLOCK_TIMEOUT_MS;
+    if (cq == null) {
+      /* no queue pair on the shared completion queue yet */
+      LockSupport.parkNanos(TimeUnit.NANOSECONDS.convert(timeout, TimeUnit.MILLISECONDS));
+      return;
+    }
+    CqNotification cqNotification = completionQueue.getCqNotification();
+    synchronized (cqNotification) {
+      cqNotification.arm();
+      /* completions might have arrived before the notification was armed */
+      if (pollAll() > 0 || privateCommandsOutstanding()) {
+        return;
+      }
+      cqNotification.await(timeout);
+    }
+  }
+
+  private void run() {
+    int idle = 0;
+    try {
+      while (running) {
+        if (pollAll() > 0) {
+          idle = 0;
+          continue;
+        }
+        if (idlePolicy == IdlePolicy.BUSY_SPIN || ++idle < spinCount) {
+          continue;
+        }
+        if (idlePolicy == IdlePolicy.SPIN_YIELD) {
+          Thread.yield();
+        } else {
+          block();
+          idle = 0;
+        }
+      }
+    } catch (IOException exception) {
+      this.exception = exception;
+      /* hand polling back to the application */
+      if (completionQueue != null) {
+        completionQueue.setPollingThread(null);
+        for (QueuePair queuePair : completionQueue.getQueuePairs()) {
+          queuePair.setPollingThread(null);
+          queuePair.failAsyncResponses(exception);
+        }
+      }
+      for (QueuePair queuePair : queuePairs) {
+        queuePair.setPollingThread(null);
+        queuePair.failAsyncResponses(exception);
+      }
+    }
+  }
+
+  synchronized void stop() throws IOException {
+    if (running) {
+      running = false;
+      try {
+        thread.join();
+      } catch (InterruptedException exception) {
+        throw new IOException(exception);
+      }
+      if (completionQueue != null) {
+        completionQueue.setPollingThread(null);
+        for (QueuePair queuePair : completionQueue.getQueuePairs()) {
+          queuePair.setPollingThread(null);
+        }
+      }
+      for (QueuePair queuePair : queuePairs) {
+        queuePair.setPollingThread(null);
+      }
+    }
+  }
+
+  /* null if queue pairs created after the engine keep their own completion queue */
+  public SharedCompletionQueue getCompletionQueue() {
+    return completionQueue;
+  }
+
+  public IdlePolicy getIdlePolicy() {
+    return idlePolicy;
+  }
+
+  /* number of empty polls before the idle policy applies */
+  public void setSpinCount(int spinCount) {
+    if (spinCount < 0) {
+      throw new IllegalArgumentException("Spin count negative");
+    }
+    this.spinCount = spinCount;
+  }
+
+  public int getSpinCount() {
+    return spinCount;
+  }
+
+  /* the exception that stopped the engine or null */
+  public IOException getException() {
+    return exception;
+  }
+
+  /* all queue pairs on the shared completion queue need to be freed before */
+  @Override
+  public synchronized void free() throws IOException {
+    if (valid) {
+      stop();
+      if (completionQueue != null) {
+        completionQueue.free();
+      }
+      valid = false;
+    }
+  }
+
+  @Override
+  public synchronized boolean isValid() {
+    return valid;
+  }
+}
@@ -57,6 +57,7 @@ abstract class CompletionQueueEntry extends StatusField {
     return buffer.getShort(COMMAND_IDENTIFIER_OFFSET);
   }
 
+  /* resolved on every call, use isSuccess() to check for success */
   public abstract StatusCode.Value getStatusCode();
 
   @Override
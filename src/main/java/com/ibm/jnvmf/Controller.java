@@ -31,6 +31,7 @@ public class Controller implements Freeable {
 
   private short queueId;
   private final AdminQueuePair adminQueue;
+  private CompletionEngine completionEngine;
   private final List<IoQueuePair> ioQueuePairs;
   private final NvmeQualifiedName hostNvmeQualifiedName;
   private final NvmfTransportId transportId;
@@ -40,12 +41,22 @@ public class Controller implements Freeable {
   private final ControllerStatus controllerStatus;
   private final ControllerCapabilities controllerCapabilities;
   private final List<Namespace> namespaces;
+  private volatile boolean unsafeBufferAccess;
   private boolean valid;
 
+  /* commands and their futures are reused for every call */
   private final AdminKeepAliveCommand keepAliveCommand;
+  private final Future<?> keepAliveCommandFuture;
+  private final ResponseFuture<AdminResponseCapsule> keepAliveResponseFuture;
   private final FabricsPropertySetCommand propertySetCommand;
+  private final Future<?> propertySetCommandFuture;
+  private final ResponseFuture<FabricsResponseCapsule> propertySetResponseFuture;
   private final FabricsPropertyGetCommand propertyGetCommand;
+  private final Future<?> propertyGetCommandFuture;
+  private final ResponseFuture<FabricsPropertyGetResponseCapsule> propertyGetResponseFuture;
   private final AdminIdentifyActiveNamespaceIdsCommand activeNamespaceIdsCommand;
+  private final Future<?> activeNamespaceIdsCommandFuture;
+  private final ResponseFuture<AdminResponseCapsule> activeNamespaceIdsResponseFuture;
   private NamespaceIdentifierList namespaceIdentifierList;
 
   private IdentifyControllerData identifyControllerData;
@@ -67,9 +78,17 @@ public class Controller implements Freeable {
     this.ioQueuePairs = new ArrayList<>();
 
     this.keepAliveCommand = new AdminKeepAliveCommand(getAdminQueue());
+    this.keepAliveCommandFuture = keepAliveCommand.newCommandFuture();
+    this.keepAliveResponseFuture = keepAliveCommand.newResponseFuture();
     this.propertySetCommand = new FabricsPropertySetCommand(getAdminQueue());
+    this.propertySetCommandFuture = propertySetCommand.newCommandFuture();
+    this.propertySetResponseFuture = propertySetCommand.newResponseFuture();
     this.propertyGetCommand = new FabricsPropertyGetCommand(getAdminQueue());
+    this.propertyGetCommandFuture = propertyGetCommand.newCommandFuture();
+    this.propertyGetResponseFuture = propertyGetCommand.newResponseFuture();
     this.activeNamespaceIdsCommand = new AdminIdentifyActiveNamespaceIdsCommand(getAdminQueue());
+    this.activeNamespaceIdsCommandFuture = activeNamespaceIdsCommand.newCommandFuture();
+    this.activeNamespaceIdsResponseFuture = activeNamespaceIdsCommand.newResponseFuture();
 
     this.controllerConfiguration = new ControllerConfiguration();
     this.controllerCapabilities = new ControllerCapabilities();
@@ -103,7 +122,7 @@ public class Controller implements Freeable {
       throw new IOException(exception);
     }
     AdminCompletionQueueEntry cqe = response.getCompletionQueueEntry();
-    if (cqe.getStatusCode() != GenericStatusCode.getInstance().SUCCESS) {
+    if (!cqe.isSuccess()) {
       throw new UnsuccessfulComandException(cqe);
     }
     return identifyControllerData;
@@ -131,6 +150,17 @@ public class Controller implements Freeable {
   public IoQueuePair createIoQueuePair(int submissionQueueSize, int additionalSgls,
       int inCapsuleDataSize,
       int maxInlineSize) throws IOException {
+    return createIoQueuePair(submissionQueueSize, additionalSgls, inCapsuleDataSize,
+        maxInlineSize, null);
+  }
+
+  /*
+   * Queue pairs created with the same shared completion queue are polled together,
+   * they can belong to different controllers but need to be on the same device.
+   */
+  public IoQueuePair createIoQueuePair(int submissionQueueSize, int additionalSgls,
+      int inCapsuleDataSize, int maxInlineSize,
+      SharedCompletionQueue sharedCompletionQueue) throws IOException {
     if ((submissionQueueSize & ~((1 << Short.SIZE) - 1)) != 0) {
       throw new IllegalArgumentException("Size to large (" + submissionQueueSize + ")");
     }
@@ -147,12 +177,67 @@ public class Controller implements Freeable {
           getIdentifyControllerData().getRequiredCompletionQueueEntrySize());
       syncConfiguration();
     }
+    if (sharedCompletionQueue == null && completionEngine != null) {
+      /* null unless the engine has been started with a completion queue size */
+      sharedCompletionQueue = completionEngine.getCompletionQueue();
+    }
     IoQueuePair ioQueuePair = new IoQueuePair(this, nextQueueId(), (short) submissionQueueSize,
-        additionalSgls, inCapsuleDataSize, maxInlineSize);
+        additionalSgls, inCapsuleDataSize, maxInlineSize, sharedCompletionQueue);
     ioQueuePairs.add(ioQueuePair);
+    if (completionEngine != null) {
+      completionEngine.add(ioQueuePair);
+    }
     return ioQueuePair;
   }
 
+  /*
+   * queue pairs keep their own completion queue, the engine cannot block so
+   * SPIN_BLOCK is not supported
+   */
+  public CompletionEngine startCompletionEngine(CompletionEngine.IdlePolicy idlePolicy)
+      throws IOException {
+    return startCompletionEngine(idlePolicy, 0);
+  }
+
+  /*
+   * Start a thread which polls all queue pairs of this controller. If
+   * completionQueueSize is not 0, IO queue pairs created afterwards share a
+   * completion queue of completionQueueSize entries (e.g.
+   * CompletionEngine.DEFAULT_COMPLETION_QUEUE_SIZE) on which the engine can
+   * block. Every queue pair reserves its queue depth worth of entries, creating
+   * a queue pair fails if there are not enough entries left.
+   */
+  public synchronized CompletionEngine startCompletionEngine(
+      CompletionEngine.IdlePolicy idlePolicy, int completionQueueSize) throws IOException {
+    if (completionEngine != null) {
+      throw new IllegalStateException("Completion engine already started");
+    }
+    CompletionEngine engine = new CompletionEngine(this, idlePolicy, completionQueueSize);
+    engine.add(adminQueue);
+    for (IoQueuePair ioQueuePair : ioQueuePairs) {
+      engine.add(ioQueuePair);
+    }
+    engine.start();
+    this.completionEngine = engine;
+    return engine;
+  }
+
+  public CompletionEngine getCompletionEngine() {
+    return completionEngine;
+  }
+
+  /*
+   * Command and response capsules of queue pairs created after this call
+   * access native memory directly (see UnsafeNativeBuffer).
+   */
+  public void setUnsafeBufferAccess(boolean unsafeBufferAccess) {
+    this.unsafeBufferAccess = unsafeBufferAccess;
+  }
+
+  public boolean isUnsafeBufferAccess() {
+    return unsafeBufferAccess;
+  }
+
   private void updateNamespacesIdentfiers() throws IOException {
     AdminIdentifyActiveNamespacesCommandCapsule commandCapsule = activeNamespaceIdsCommand
         .getCommandCapsule();
@@ -165,15 +250,12 @@ public class Controller implements Freeable {
       AdminIdentifyCommandSqe sqe = commandCapsule.getSubmissionQueueEntry();
       sqe.setNamespaceIdentifier(new NamespaceIdentifier(0));
     }
-    Future<?> commandFuture = activeNamespaceIdsCommand.newCommandFuture();
-    ResponseFuture<AdminResponseCapsule> responseFuture = activeNamespaceIdsCommand
-        .newResponseFuture();
-    activeNamespaceIdsCommand.execute(responseFuture);
+    activeNamespaceIdsCommand.execute(activeNamespaceIdsResponseFuture);
     try {
-      commandFuture.get();
-      AdminResponseCapsule response = responseFuture.get();
+      activeNamespaceIdsCommandFuture.get();
+      AdminResponseCapsule response = activeNamespaceIdsResponseFuture.get();
       AdminCompletionQueueEntry cqe = response.getCompletionQueueEntry();
-      if (cqe.getStatusCode() != GenericStatusCode.getInstance().SUCCESS) {
+      if (!cqe.isSuccess()) {
         throw new UnsuccessfulComandException(cqe);
       }
     } catch (InterruptedException exception) {
@@ -195,20 +277,18 @@ public class Controller implements Freeable {
   }
 
   public void keepAlive() throws IOException {
-    Future<?> commandFuture = keepAliveCommand.newCommandFuture();
-    ResponseFuture<AdminResponseCapsule> responseFuture = keepAliveCommand.newResponseFuture();
-    keepAliveCommand.execute(responseFuture);
+    keepAliveCommand.execute(keepAliveResponseFuture);
     AdminResponseCapsule responseCapsule;
     try {
-      commandFuture.get();
-      responseCapsule = responseFuture.get();
+      keepAliveCommandFuture.get();
+      responseCapsule = keepAliveResponseFuture.get();
     } catch (InterruptedException exception) {
       throw new IOException(exception);
     } catch (ExecutionException exception) {
       throw new IOException(exception);
     }
     AdminCompletionQueueEntry cqe = responseCapsule.getCompletionQueueEntry();
-    if (cqe.getStatusCode() != GenericStatusCode.getInstance().SUCCESS) {
+    if (!cqe.isSuccess()) {
       throw new UnsuccessfulComandException(cqe);
     }
   }
@@ -219,20 +299,18 @@ public class Controller implements Freeable {
     propertySetCommandCapsule.getSubmissionQueueEntry().setProperty(property);
     propertySetCommandCapsule.getSubmissionQueueEntry().setValue(value);
 
-    Future<?> commandFuture = propertySetCommand.newCommandFuture();
-    ResponseFuture<FabricsResponseCapsule> responseFuture = propertySetCommand.newResponseFuture();
-    propertySetCommand.execute(responseFuture);
+    propertySetCommand.execute(propertySetResponseFuture);
     FabricsResponseCapsule responseCapsule;
     try {
-      commandFuture.get();
-      responseCapsule = responseFuture.get();
+      propertySetCommandFuture.get();
+      responseCapsule = propertySetResponseFuture.get();
     } catch (InterruptedException exception) {
       throw new IOException(exception);
     } catch (ExecutionException exception) {
       throw new IOException(exception);
     }
     FabricsCompletionQueueEntry cqe = responseCapsule.getCompletionQueueEntry();
-    if (cqe.getStatusCode() != GenericStatusCode.getInstance().SUCCESS) {
+    if (!cqe.isSuccess()) {
       throw new UnsuccessfulComandException(cqe);
     }
   }
@@ -242,21 +320,18 @@ public class Controller implements Freeable {
         .getCommandCapsule();
     propertyGetCommandCapsule.getSubmissionQueueEntry().setProperty(property);
 
-    Future<?> commandFuture = propertyGetCommand.newCommandFuture();
-    ResponseFuture<FabricsPropertyGetResponseCapsule> responseFuture = propertyGetCommand
-        .newResponseFuture();
-    propertyGetCommand.execute(responseFuture);
+    propertyGetCommand.execute(propertyGetResponseFuture);
     FabricsPropertyGetResponseCapsule responseCapsule;
     try {
-      commandFuture.get();
-      responseCapsule = responseFuture.get();
+      propertyGetCommandFuture.get();
+      responseCapsule = propertyGetResponseFuture.get();
     } catch (InterruptedException exception) {
       throw new IOException(exception);
     } catch (ExecutionException exception) {
       throw new IOException(exception);
     }
     FabricsPropertyGetResponseCqe cqe = responseCapsule.getCompletionQueueEntry();
-    if (cqe.getStatusCode() != GenericStatusCode.getInstance().SUCCESS) {
+    if (!cqe.isSuccess()) {
       throw new UnsuccessfulComandException(cqe);
     }
     return cqe.getValue();
@@ -303,6 +378,24 @@ public class Controller implements Freeable {
     return endpointGroup;
   }
 
+  /*
+   * Configuration of the registered buffer pools of this controller's queue
+   * pairs. Budgets apply immediately, other settings to pools created later
+   * (the pools of the admin queue exist already).
+   */
+  public BufferPoolConfiguration getBufferPoolConfiguration() {
+    return endpointGroup.getBufferPoolConfiguration();
+  }
+
+  /* see QueuePair.wrapMemory */
+  public RegistrationMode getRegistrationMode() {
+    return endpointGroup.getRegistrationMode();
+  }
+
+  public void setRegistrationMode(RegistrationMode registrationMode) {
+    endpointGroup.setRegistrationMode(registrationMode);
+  }
+
   void setControllerId(ControllerId controllerId) {
     this.controllerId = controllerId;
   }
@@ -325,10 +418,16 @@ public class Controller implements Freeable {
     if (identifyControllerData != null) {
       identifyControllerData.getBuffer().free();
     }
+    if (completionEngine != null) {
+      completionEngine.stop();
+    }
     adminQueue.free();
     for (QueuePair qp : ioQueuePairs) {
       qp.free();
     }
+    if (completionEngine != null) {
+      completionEngine.free();
+    }
     try {
       endpointGroup.close();
     } catch (InterruptedException exception) {
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.jnvmf;
+
+import com.ibm.disni.verbs.IbvCQ;
+import com.ibm.disni.verbs.SVCReqNotify;
+
+import java.io.IOException;
+
+class CqNotification {
+
+  /*
+   * Blocking wait for completions on the completion channel of a CQ. A caller
+   * arms the CQ, polls once more (completions might have arrived before the CQ
+   * was armed) and only then waits. Not thread-safe.
+   */
+
+  private final IbvCQ cq;
+  private SVCReqNotify requestNotify;
+
+  CqNotification(IbvCQ cq) {
+    this.cq = cq;
+  }
+
+  void arm() throws IOException {
+    if (requestNotify == null) {
+      requestNotify = cq.reqNotification(false);
+    }
+    requestNotify.execute();
+  }
+
+  /* returns true if there was a completion event, false on timeout */
+  boolean await(int timeoutMs) throws IOException {
+    if (cq.getChannel().getCqEvent(cq, timeoutMs)) {
+      cq.ackEvents(1);
+      return true;
+    }
+    return false;
+  }
+
+  IbvCQ getCq() {
+    return cq;
+  }
+}
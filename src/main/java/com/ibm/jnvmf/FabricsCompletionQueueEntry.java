@@ -19,16 +19,8 @@ package com.ibm.jnvmf;
 
 public class FabricsCompletionQueueEntry extends CompletionQueueEntry {
 
-  private StatusCode.Value statusCodeValue;
-
   @Override
   public final StatusCode.Value getStatusCode() {
-    return statusCodeValue;
-  }
-
-  @Override
-  void update(NativeBuffer buffer) {
-    super.update(buffer);
-    statusCodeValue = getFabricsStatusCode();
+    return getFabricsStatusCode();
   }
 }
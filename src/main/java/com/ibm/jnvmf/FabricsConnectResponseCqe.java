@@ -28,8 +28,8 @@ public class FabricsConnectResponseCqe extends FabricsCompletionQueueEntry {
   }
 
   public Success success() {
-    StatusCode.Value statusCode = getStatusCode();
-    if (statusCode != GenericStatusCode.getInstance().SUCCESS) {
+    if (!isSuccess()) {
+      StatusCode.Value statusCode = getStatusCode();
       throw new IllegalStateException("Fabrics connect command was not successful but was\n"
           + "Code: " + statusCode.toInt() + " - " + statusCode.getDescription());
     }
@@ -48,10 +48,10 @@ public class FabricsConnectResponseCqe extends FabricsCompletionQueueEntry {
   @Override
   void update(NativeBuffer buffer) {
     super.update(buffer);
-    StatusCode.Value statusCode = getStatusCode();
-    if (statusCode == GenericStatusCode.getInstance().SUCCESS) {
+    if (isSuccess()) {
       success.update(buffer);
-    } else if (statusCode == FabricsCommandStatusCode.getInstance().CONNECT_INVALID_PARAMETERS) {
+    } else if (getStatusCode()
+        == FabricsCommandStatusCode.getInstance().CONNECT_INVALID_PARAMETERS) {
       invalidParameter.update(buffer);
     }
   }
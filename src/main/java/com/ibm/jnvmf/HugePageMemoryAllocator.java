@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.jnvmf;
+
+import sun.nio.ch.DirectBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class HugePageMemoryAllocator implements MemoryAllocator {
+
+  /*
+   * Allocates memory backed by huge pages to reduce the number of translation
+   * entries the NIC (and the IOMMU) needs for registered memory. Every
+   * allocation maps a (deleted) file on a hugetlbfs mount, the size is rounded
+   * up to a multiple of the huge page size. Freeing a buffer (or any slice of
+   * it) invalidates the buffer and all its slices and unmaps the memory right
+   * away unless ByteBuffer views have been handed out (toByteBuffer,
+   * sliceToByteBuffer), which we cannot invalidate: the memory is then unmapped
+   * once the views have been garbage collected. Owners that know their views
+   * are gone (e.g. a memory pool) release the buffer, which always unmaps.
+   * If the mapping fails (no hugetlbfs mount, no free huge pages) we fall back
+   * to a direct buffer, aligned to the huge page size if it is at least one
+   * huge page large, which the kernel can back with transparent huge pages if
+   * they are enabled for all mappings.
+   */
+
+  public static final String DEFAULT_DIRECTORY = "/dev/hugepages";
+  public static final int DEFAULT_HUGE_PAGE_SIZE = 2 * 1024 * 1024;
+
+  private final Path directory;
+  private final int hugePageSize;
+  private final AtomicLong hugePageAllocations;
+  private final AtomicLong fallbackAllocations;
+
+  /* shared by a buffer and its slices */
+  private static class Mapping {
+
+    private final MappedByteBuffer buffer;
+    private boolean valid;
+    private boolean views;
+    private boolean unmapped;
+
+    private Mapping(MappedByteBuffer buffer) {
+      this.buffer = buffer;
+      this.valid = true;
+    }
+
+    private synchronized void viewCreated() {
+      views = true;
+    }
+
+    private synchronized void free() {
+      /* invalidates the buffer and its slices before the memory goes away */
+      valid = false;
+      if (!views) {
+        unmap();
+      }
+    }
+
+    /* the owner guarantees that no views are used anymore */
+    private synchronized void release() {
+      valid = false;
+      unmap();
+    }
+
+    private void unmap() {
+      if (!unmapped) {
+        unmapped = true;
+        BufferUnmapper.unmap(buffer);
+      }
+    }
+
+    private synchronized boolean isValid() {
+      return valid;
+    }
+  }
+
+  private static class HugePageBuffer extends NativeByteBuffer {
+
+    private final Mapping mapping;
+
+    HugePageBuffer(ByteBuffer buffer, Mapping mapping) {
+      super(buffer);
+      this.mapping = mapping;
+    }
+
+    @Override
+    protected NativeBuffer construct(ByteBuffer buffer) {
+      return new HugePageBuffer(buffer, mapping);
+    }
+
+    @Override
+    public ByteBuffer sliceToByteBuffer() {
+      mapping.viewCreated();
+      return super.sliceToByteBuffer();
+    }
+
+    @Override
+    public ByteBuffer toByteBuffer() {
+      mapping.viewCreated();
+      return super.toByteBuffer();
+    }
+
+    @Override
+    public void free() {
+      mapping.free();
+    }
+
+    @Override
+    public boolean isValid() {
+      return mapping.isValid();
+    }
+  }
+
+  public HugePageMemoryAllocator() {
+    this(DEFAULT_DIRECTORY, DEFAULT_HUGE_PAGE_SIZE);
+  }
+
+  public HugePageMemoryAllocator(String directory, int hugePageSize) {
+    if (directory == null) {
+      throw new IllegalArgumentException("Directory null");
+    }
+    this.directory = Paths.get(directory);
+    if (hugePageSize <= 0 || Integer.bitCount(hugePageSize) != 1) {
+      throw new IllegalArgumentException("Huge page size has to be a power of two");
+    }
+    this.hugePageSize = hugePageSize;
+    this.hugePageAllocations = new AtomicLong();
+    this.fallbackAllocations = new AtomicLong();
+  }
+
+  @Override
+  public NativeBuffer allocate(int size) {
+    if (size < 0) {
+      throw new IllegalArgumentException("Negative size");
+    }
+    long mappingSize = (size + (long) hugePageSize - 1) & -hugePageSize;
+    if (mappingSize > Integer.MAX_VALUE) {
+      fallbackAllocations.incrementAndGet();
+      return new NativeByteBuffer(ByteBuffer.allocateDirect(size));
+    }
+    try {
+      NativeBuffer buffer = map((int) mappingSize, size);
+      hugePageAllocations.incrementAndGet();
+      return buffer;
+    } catch (IOException | UnsupportedOperationException exception) {
+      fallbackAllocations.incrementAndGet();
+      return allocateAligned(size);
+    }
+  }
+
+  /* unmaps the memory right away even if ByteBuffer views have been handed out */
+  @Override
+  public void release(NativeBuffer buffer) throws IOException {
+    if (buffer instanceof HugePageBuffer) {
+      ((HugePageBuffer) buffer).mapping.release();
+    } else {
+      buffer.free();
+    }
+  }
+
+  private NativeBuffer map(int mappingSize, int size) throws IOException {
+    Path file = Files.createTempFile(directory, "jnvmf", null);
+    try (FileChannel channel = FileChannel.open(file,
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, mappingSize);
+      mapping.limit(size);
+      return new HugePageBuffer(mapping.slice(), new Mapping(mapping));
+    } finally {
+      /* the mapping keeps the pages */
+      Files.delete(file);
+    }
+  }
+
+  private NativeBuffer allocateAligned(int size) {
+    /* a smaller buffer does not fill a huge page anyway */
+    if (size < hugePageSize || size > Integer.MAX_VALUE - hugePageSize) {
+      return new NativeByteBuffer(ByteBuffer.allocateDirect(size));
+    }
+    ByteBuffer buffer = ByteBuffer.allocateDirect(size + hugePageSize);
+    long address = ((DirectBuffer) buffer).address();
+    int offset = (int) (-address & (hugePageSize - 1));
+    buffer.limit(offset + size);
+    buffer.position(offset);
+    return new NativeByteBuffer(buffer.slice());
+  }
+
+  public int getHugePageSize() {
+    return hugePageSize;
+  }
+
+  /* number of allocations mapped from hugetlbfs */
+  public long getHugePageAllocations() {
+    return hugePageAllocations.get();
+  }
+
+  /* number of allocations that fell back to (aligned) direct buffers */
+  public long getFallbackAllocations() {
+    return fallbackAllocations.get();
+  }
+}
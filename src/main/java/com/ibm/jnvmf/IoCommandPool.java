@@ -0,0 +1,383 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.jnvmf;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+final class IoCommandPool implements Freeable {
+
+  /*
+   * One slot per submission queue entry, each with a pre-built read and write
+   * command (capsule, work request and post send verb) and a response.
+   * Submitting through a slot does not allocate. A slot is in use until both
+   * the command send and the response have completed, free slots are tracked
+   * like command identifiers. The completion handler is invoked after the slot
+   * has been freed, i.e. it can always submit a new command.
+   * Submitters which find no free slot can queue a waiter which is run by the
+   * thread freeing the next slot, after the completion handler has returned.
+   */
+
+  private final IoQueuePair queuePair;
+  private final Slot[] slots;
+  private final CommandIdentifierAllocator freeSlots;
+  private final Queue<Runnable> waiters;
+  private volatile Throwable failure;
+  private boolean valid;
+
+  private final class Slot implements OperationCallback {
+
+    private final int index;
+    private final NvmReadCommand readCommand;
+    private final NvmWriteCommand writeCommand;
+    private final Response<NvmResponseCapsule> response;
+    private final OperationCallback commandCallback;
+    /* handler has been invoked, also publishes handler and attachment */
+    private final AtomicBoolean notified;
+    private IoCompletionHandler<Object> handler;
+    private Object attachment;
+
+    private Slot(int index) throws IOException {
+      this.index = index;
+      this.readCommand = new NvmReadCommand(queuePair);
+      this.writeCommand = new NvmWriteCommand(queuePair);
+      this.response = readCommand.newResponse();
+      this.notified = new AtomicBoolean(true);
+      this.commandCallback = new OperationCallback() {
+        @Override
+        public void onStart() {
+        }
+
+        @Override
+        public void onComplete() {
+          complete(CommandIdentifierAllocator.SEND);
+        }
+
+        @Override
+        public void onFailure(RdmaException exception) {
+          fail(exception);
+          if (freeSlots.complete(index, CommandIdentifierAllocator.SEND)) {
+            resumeWaiters();
+          }
+        }
+      };
+      prepare(readCommand);
+      prepare(writeCommand);
+      response.setCallback(this);
+    }
+
+    private void prepare(NvmIoCommand<?> command) throws IOException {
+      command.setCallback(commandCallback);
+      int capsuleSize = command.getWorkRequest().getSge(0).getLength();
+      if (queuePair.getInlineDataSize() >= capsuleSize) {
+        command.setSendInline(true);
+      }
+      command.prepare();
+    }
+
+    private void fail(Throwable exception) {
+      if (notified.compareAndSet(false, true)) {
+        IoCompletionHandler<Object> handler = this.handler;
+        Object attachment = this.attachment;
+        this.handler = null;
+        this.attachment = null;
+        handler.failed(exception, attachment);
+      }
+    }
+
+    @Override
+    public void onStart() {
+    }
+
+    /* both halves are completed by the polling thread */
+    private void complete(int half) {
+      int otherHalf = half == CommandIdentifierAllocator.SEND
+          ? CommandIdentifierAllocator.RESPONSE : CommandIdentifierAllocator.SEND;
+      if (!freeSlots.isPending(index, otherHalf) && notified.compareAndSet(false, true)) {
+        IoCompletionHandler<Object> handler = this.handler;
+        Object attachment = this.attachment;
+        this.handler = null;
+        this.attachment = null;
+        freeSlots.complete(index, half);
+        /* the response is only updated by the polling thread, i.e. not before we return */
+        handler.completed(response.getResponseCapsule().getCompletionQueueEntry(), attachment);
+        resumeWaiters();
+      } else if (freeSlots.complete(index, half)) {
+        resumeWaiters();
+      }
+    }
+
+    @Override
+    public void onComplete() {
+      complete(CommandIdentifierAllocator.RESPONSE);
+    }
+
+    @Override
+    public void onFailure(RdmaException exception) {
+      fail(exception);
+      if (freeSlots.complete(index, CommandIdentifierAllocator.RESPONSE)) {
+        resumeWaiters();
+      }
+    }
+  }
+
+  IoCommandPool(IoQueuePair queuePair) throws IOException {
+    this.queuePair = queuePair;
+    int size = queuePair.getSubmissionQueueSize();
+    this.freeSlots = new CommandIdentifierAllocator(size);
+    this.slots = new Slot[size];
+    this.waiters = new ConcurrentLinkedQueue<>();
+    try {
+      for (int i = 0; i < size; i++) {
+        slots[i] = new Slot(i);
+      }
+    } catch (IOException | RuntimeException exception) {
+      freeCommands(slots);
+      throw exception;
+    }
+    this.valid = true;
+  }
+
+  private Slot acquire() throws IOException {
+    Slot slot = tryAcquire(null);
+    if (slot == null) {
+      throw new IOException("No free command slot");
+    }
+    return slot;
+  }
+
+  /*
+   * Returns null if no slot is free, in which case waiter (if not null) is
+   * queued, i.e. it is guaranteed to be run once.
+   */
+  private Slot tryAcquire(Runnable waiter) throws IOException {
+    while (true) {
+      Throwable failure = this.failure;
+      if (failure != null) {
+        throw new IOException("Command pool failed", failure);
+      }
+      int index = freeSlots.allocate();
+      if (index >= 0) {
+        return slots[index];
+      }
+      if (waiter == null) {
+        return null;
+      }
+      waiters.add(waiter);
+      /* a slot might have been freed or the pool failed before the waiter was queued */
+      if ((this.failure == null && freeSlots.getNumInUse() == freeSlots.getSize())
+          || !waiters.remove(waiter)) {
+        return null;
+      }
+    }
+  }
+
+  /* run waiters while there are free slots, never called with a pool or transfer lock held */
+  private void resumeWaiters() {
+    while (!waiters.isEmpty() && freeSlots.getNumInUse() < freeSlots.getSize()) {
+      Runnable waiter = waiters.poll();
+      if (waiter == null) {
+        return;
+      }
+      waiter.run();
+    }
+  }
+
+  /*
+   * Fail the handlers of all commands in flight and let all waiters and
+   * further submissions fail, e.g. if the queue pair cannot be polled anymore.
+   * The slots of failed commands are not freed.
+   */
+  void fail(Throwable exception) {
+    failure = exception;
+    for (Slot slot : slots) {
+      slot.fail(exception);
+    }
+    Runnable waiter;
+    while ((waiter = waiters.poll()) != null) {
+      waiter.run();
+    }
+  }
+
+  /*
+   * the submitter might hold locks, so waiters are not resumed here: waiters
+   * only queue while all slots are in use, i.e. the completion of one of the
+   * other slots resumes them
+   */
+  private void release(Slot slot) {
+    freeSlots.complete(slot.index, CommandIdentifierAllocator.SEND);
+    freeSlots.complete(slot.index, CommandIdentifierAllocator.RESPONSE);
+  }
+
+  private static void setRange(NvmIoCommand<?> command, NamespaceIdentifier namespaceIdentifier,
+      long startingLba, int numberOfLogicalBlocks) {
+    NvmIoCommandSqe sqe = command.getCommandCapsule().getSubmissionQueueEntry();
+    sqe.setNamespaceIdentifier(namespaceIdentifier);
+    sqe.setStartingLba(startingLba);
+    sqe.setNumberOfLogicalBlocks(numberOfLogicalBlocks);
+  }
+
+  <A> void read(NamespaceIdentifier namespaceIdentifier, long startingLba,
+      int numberOfLogicalBlocks, KeyedNativeBuffer buffer, IoCompletionHandler<A> handler,
+      A attachment) throws IOException {
+    if (!read(namespaceIdentifier, startingLba, numberOfLogicalBlocks, buffer, handler,
+        attachment, null)) {
+      throw new IOException("No free command slot");
+    }
+  }
+
+  /*
+   * As above but returns false if no slot is free. waiter is then run by the
+   * thread freeing the next slot and should retry.
+   */
+  <A> boolean read(NamespaceIdentifier namespaceIdentifier, long startingLba,
+      int numberOfLogicalBlocks, KeyedNativeBuffer buffer, IoCompletionHandler<A> handler,
+      A attachment, Runnable waiter) throws IOException {
+    Slot slot = tryAcquire(waiter);
+    if (slot == null) {
+      return false;
+    }
+    try {
+      NvmReadCommand command = slot.readCommand;
+      setRange(command, namespaceIdentifier, startingLba, numberOfLogicalBlocks);
+      command.getCommandCapsule().setSglDescriptor(buffer);
+      submit(slot, command, handler, attachment);
+    } catch (IOException | RuntimeException exception) {
+      release(slot);
+      throw exception;
+    }
+    return true;
+  }
+
+  /* scatter/gather, see NvmIoCommandCapsule.setSglDescriptors */
+  <A> void read(NamespaceIdentifier namespaceIdentifier, long startingLba,
+      int numberOfLogicalBlocks, KeyedNativeBuffer[] buffers, IoCompletionHandler<A> handler,
+      A attachment) throws IOException {
+    Slot slot = acquire();
+    try {
+      NvmReadCommand command = slot.readCommand;
+      setRange(command, namespaceIdentifier, startingLba, numberOfLogicalBlocks);
+      command.getCommandCapsule().setSglDescriptors(buffers);
+      submit(slot, command, handler, attachment);
+    } catch (IOException | RuntimeException exception) {
+      release(slot);
+      throw exception;
+    }
+  }
+
+  /*
+   * inCapsule: send data as in-capsule data directly from buffer, otherwise
+   * the controller reads it remotely (keyed SGL)
+   */
+  <A> void write(NamespaceIdentifier namespaceIdentifier, long startingLba,
+      int numberOfLogicalBlocks, KeyedNativeBuffer buffer, boolean inCapsule,
+      IoCompletionHandler<A> handler, A attachment) throws IOException {
+    if (!write(namespaceIdentifier, startingLba, numberOfLogicalBlocks, buffer, inCapsule,
+        handler, attachment, null)) {
+      throw new IOException("No free command slot");
+    }
+  }
+
+  /* see read with waiter */
+  <A> boolean write(NamespaceIdentifier namespaceIdentifier, long startingLba,
+      int numberOfLogicalBlocks, KeyedNativeBuffer buffer, boolean inCapsule,
+      IoCompletionHandler<A> handler, A attachment, Runnable waiter) throws IOException {
+    Slot slot = tryAcquire(waiter);
+    if (slot == null) {
+      return false;
+    }
+    try {
+      NvmWriteCommand command = slot.writeCommand;
+      setRange(command, namespaceIdentifier, startingLba, numberOfLogicalBlocks);
+      if (inCapsule) {
+        command.setIncapsuleDataBuffer(buffer);
+      } else {
+        command.getCommandCapsule().setSglDescriptor(buffer);
+      }
+      submit(slot, command, handler, attachment);
+    } catch (IOException | RuntimeException exception) {
+      release(slot);
+      throw exception;
+    }
+    return true;
+  }
+
+  <A> void write(NamespaceIdentifier namespaceIdentifier, long startingLba,
+      int numberOfLogicalBlocks, KeyedNativeBuffer[] buffers, IoCompletionHandler<A> handler,
+      A attachment) throws IOException {
+    Slot slot = acquire();
+    try {
+      NvmWriteCommand command = slot.writeCommand;
+      setRange(command, namespaceIdentifier, startingLba, numberOfLogicalBlocks);
+      command.getCommandCapsule().setSglDescriptors(buffers);
+      submit(slot, command, handler, attachment);
+    } catch (IOException | RuntimeException exception) {
+      release(slot);
+      throw exception;
+    }
+  }
+
+  private <A> void submit(Slot slot, NvmIoCommand<?> command, IoCompletionHandler<A> handler,
+      A attachment) throws IOException {
+    if (handler == null) {
+      throw new IllegalArgumentException("Completion handler null");
+    }
+    /*
+     * the slot only ever passes the attachment back to the handler it was
+     * submitted with, so the attachment always has the handler's type
+     */
+    @SuppressWarnings("unchecked")
+    IoCompletionHandler<Object> slotHandler = (IoCompletionHandler<Object>) handler;
+    slot.handler = slotHandler;
+    slot.attachment = attachment;
+    slot.notified.set(false);
+    try {
+      command.execute(slot.response);
+    } catch (IOException | RuntimeException exception) {
+      slot.notified.set(true);
+      slot.handler = null;
+      slot.attachment = null;
+      throw exception;
+    }
+  }
+
+  private static void freeCommands(Slot[] slots) throws IOException {
+    for (Slot slot : slots) {
+      if (slot != null) {
+        slot.readCommand.getCommandCapsule().free();
+        slot.writeCommand.getCommandCapsule().free();
+      }
+    }
+  }
+
+  @Override
+  public void free() throws IOException {
+    if (valid) {
+      valid = false;
+      freeCommands(slots);
+    }
+  }
+
+  @Override
+  public boolean isValid() {
+    return valid;
+  }
+}
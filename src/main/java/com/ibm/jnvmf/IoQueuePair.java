@@ -18,12 +18,424 @@
 package com.ibm.jnvmf;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public class IoQueuePair extends QueuePair {
 
+  private static final int CALIBRATION_WARMUP = 16;
+  private static final int CALIBRATION_ITERATIONS = 64;
+  public static final int DEFAULT_FILE_TRANSFER_WINDOW_SIZE = 64 * 1024 * 1024;
+
+  private final Object asyncPostLock;
+  private volatile IoCommandPool commandPool;
+  /* writes up to this size are sent in-capsule, larger ones are read remotely */
+  private volatile int inCapsuleWriteThreshold;
+  /* MDTS in bytes, only valid if maximumTransferSizeKnown */
+  private volatile long maximumTransferSize;
+  private volatile boolean maximumTransferSizeKnown;
+  private volatile int fileTransferWindowSize;
+  private volatile Thread poller;
+  private volatile boolean pollerRunning;
+  private volatile IOException pollerException;
+
   IoQueuePair(Controller controller, QueueId queueId, short submissionQueueSize,
-      int additionalSgls, int inCapsuleDataSize, int maxInlineSize) throws IOException {
+      int additionalSgls, int inCapsuleDataSize, int maxInlineSize,
+      SharedCompletionQueue sharedCompletionQueue) throws IOException {
     super(controller, queueId, submissionQueueSize, additionalSgls, inCapsuleDataSize,
-        maxInlineSize);
+        maxInlineSize, sharedCompletionQueue);
+    this.asyncPostLock = new Object();
+    this.inCapsuleWriteThreshold = inCapsuleDataSize;
+    this.fileTransferWindowSize = DEFAULT_FILE_TRANSFER_WINDOW_SIZE;
+  }
+
+  /*
+   * Asynchronous commands are completed by a dedicated poller thread which is
+   * started on first use. While the poller runs it is the only thread polling
+   * the queue pair, poll() in any other thread returns immediately.
+   */
+  synchronized void startPoller() throws IOException {
+    if (pollerException != null) {
+      throw new IOException("Poller failed", pollerException);
+    }
+    if (poller != null || getPollingThread() != null) {
+      /* already polled by our poller or a completion engine */
+      return;
+    }
+    if (!isValid()) {
+      throw new IllegalStateException("Queue pair freed");
+    }
+    if (getSharedCompletionQueue() != null) {
+      throw new IllegalStateException("Asynchronous execution not supported "
+          + "with shared completion queue");
+    }
+    pollerRunning = true;
+    poller = new Thread(this::runPoller, "jnvmf-poller-" + getController().getControllerId()
+        .toShort());
+    poller.setDaemon(true);
+    setPollingThread(poller);
+    poller.start();
+  }
+
+  private void runPoller() {
+    try {
+      while (pollerRunning) {
+        if (poll() == 0) {
+          Thread.yield();
+        }
+      }
+    } catch (IOException exception) {
+      pollerException = exception;
+      /* let other threads poll again, e.g. to complete synchronous commands */
+      poller = null;
+      setPollingThread(null);
+      failAsyncResponses(exception);
+    }
+  }
+
+  synchronized void stopPoller() throws IOException {
+    Thread poller = this.poller;
+    if (poller != null) {
+      pollerRunning = false;
+      try {
+        poller.join();
+      } catch (InterruptedException exception) {
+        throw new IOException(exception);
+      }
+      this.poller = null;
+      setPollingThread(null);
+    }
+  }
+
+  /* also fail the commands of the pool and the transfers waiting for a pool command */
+  @Override
+  void failAsyncResponses(Throwable throwable) {
+    super.failAsyncResponses(throwable);
+    IoCommandPool commandPool = this.commandPool;
+    if (commandPool != null) {
+      commandPool.fail(throwable);
+    }
+  }
+
+  void postAsync(Command<?, NvmResponseCapsule> command, Response<NvmResponseCapsule> response)
+      throws IOException {
+    /* multiple threads can submit asynchronous commands concurrently */
+    synchronized (asyncPostLock) {
+      command.execute(response);
+    }
+  }
+
+  private synchronized IoCommandPool createCommandPool() throws IOException {
+    if (commandPool == null) {
+      if (!isValid()) {
+        throw new IllegalStateException("Queue pair freed");
+      }
+      commandPool = new IoCommandPool(this);
+    }
+    return commandPool;
+  }
+
+  IoCommandPool getCommandPool() throws IOException {
+    IoCommandPool commandPool = this.commandPool;
+    if (commandPool == null) {
+      commandPool = createCommandPool();
+    }
+    return commandPool;
+  }
+
+  /*
+   * Read/write numberOfLogicalBlocks starting at startingLba from/to buffer using
+   * a pre-built command of this queue pair, i.e. without allocating. The pool of
+   * commands is created on first use and has one command per submission queue
+   * entry. The handler is invoked by the thread polling the queue pair.
+   * Writes of at most getInCapsuleWriteThreshold() bytes are sent as in-capsule
+   * data directly from buffer (inline if small enough), i.e. without the
+   * controller reading it remotely.
+   * Like execute, read and write should not be called concurrently.
+   */
+  public <A> void read(NamespaceIdentifier namespaceIdentifier, long startingLba,
+      int numberOfLogicalBlocks, KeyedNativeBuffer buffer, IoCompletionHandler<A> handler,
+      A attachment) throws IOException {
+    getCommandPool().read(namespaceIdentifier, startingLba, numberOfLogicalBlocks, buffer,
+        handler, attachment);
+  }
+
+  /*
+   * Scatter/gather variants: transfer from/to multiple buffers with a single
+   * command, at most getMaximumAdditionalSgls() buffers.
+   */
+  public <A> void read(NamespaceIdentifier namespaceIdentifier, long startingLba,
+      int numberOfLogicalBlocks, KeyedNativeBuffer[] buffers, IoCompletionHandler<A> handler,
+      A attachment) throws IOException {
+    getCommandPool().read(namespaceIdentifier, startingLba, numberOfLogicalBlocks, buffers,
+        handler, attachment);
+  }
+
+  public <A> void write(NamespaceIdentifier namespaceIdentifier, long startingLba,
+      int numberOfLogicalBlocks, KeyedNativeBuffer buffer, IoCompletionHandler<A> handler,
+      A attachment) throws IOException {
+    getCommandPool().write(namespaceIdentifier, startingLba, numberOfLogicalBlocks, buffer,
+        buffer.remaining() <= inCapsuleWriteThreshold, handler, attachment);
+  }
+
+  public <A> void write(NamespaceIdentifier namespaceIdentifier, long startingLba,
+      int numberOfLogicalBlocks, KeyedNativeBuffer[] buffers, IoCompletionHandler<A> handler,
+      A attachment) throws IOException {
+    getCommandPool().write(namespaceIdentifier, startingLba, numberOfLogicalBlocks, buffers,
+        handler, attachment);
+  }
+
+  private long getMaximumTransferSize() throws IOException {
+    if (!maximumTransferSizeKnown) {
+      /* MDTS can exceed 2^31 bytes, IoTransfer clamps it to what fits a command */
+      maximumTransferSize = getController().getIdentifyControllerData()
+          .getMaximumDataTransferSize().toLong();
+      maximumTransferSizeKnown = true;
+    }
+    return maximumTransferSize;
+  }
+
+  /*
+   * Read/write numberOfLogicalBlocks starting at startingLba from/to the remaining
+   * bytes of buffer, which have to be a multiple of numberOfLogicalBlocks (the LBA
+   * data size). Transfers of any size are split into chunks which fit a single
+   * command (MDTS, maximum number of logical blocks) and executed in parallel up
+   * to the number of free pool commands. The future is completed by the poller
+   * thread once all chunks are done. The position and limit of buffer are
+   * modified while chunks are submitted, i.e. buffer should not be used until
+   * the future completes. Can be called concurrently with other asynchronous
+   * executions.
+   */
+  public CompletableFuture<Void> readAsync(NamespaceIdentifier namespaceIdentifier,
+      long startingLba, int numberOfLogicalBlocks, KeyedNativeBuffer buffer)
+      throws IOException {
+    return transfer(false, namespaceIdentifier, startingLba, numberOfLogicalBlocks, buffer);
+  }
+
+  /* as above with any direct buffer, see wrapMemory */
+  public CompletableFuture<Void> readAsync(NamespaceIdentifier namespaceIdentifier,
+      long startingLba, int numberOfLogicalBlocks, ByteBuffer buffer) throws IOException {
+    return transfer(false, namespaceIdentifier, startingLba, numberOfLogicalBlocks, buffer);
+  }
+
+  public CompletableFuture<Void> writeAsync(NamespaceIdentifier namespaceIdentifier,
+      long startingLba, int numberOfLogicalBlocks, KeyedNativeBuffer buffer)
+      throws IOException {
+    return transfer(true, namespaceIdentifier, startingLba, numberOfLogicalBlocks, buffer);
+  }
+
+  public CompletableFuture<Void> writeAsync(NamespaceIdentifier namespaceIdentifier,
+      long startingLba, int numberOfLogicalBlocks, ByteBuffer buffer) throws IOException {
+    return transfer(true, namespaceIdentifier, startingLba, numberOfLogicalBlocks, buffer);
+  }
+
+  private CompletableFuture<Void> transfer(boolean write,
+      NamespaceIdentifier namespaceIdentifier, long startingLba, int numberOfLogicalBlocks,
+      KeyedNativeBuffer buffer) throws IOException {
+    IoTransfer transfer = new IoTransfer(getCommandPool(), asyncPostLock, write,
+        namespaceIdentifier, startingLba, numberOfLogicalBlocks, buffer,
+        getMaximumTransferSize(), inCapsuleWriteThreshold);
+    startPoller();
+    return transfer.start();
+  }
+
+  private CompletableFuture<Void> transfer(boolean write,
+      NamespaceIdentifier namespaceIdentifier, long startingLba, int numberOfLogicalBlocks,
+      ByteBuffer buffer) throws IOException {
+    KeyedNativeBuffer keyedBuffer = wrapMemory(buffer);
+    CompletableFuture<Void> transferFuture;
+    try {
+      transferFuture = transfer(write, namespaceIdentifier, startingLba, numberOfLogicalBlocks,
+          keyedBuffer);
+    } catch (IOException | RuntimeException exception) {
+      keyedBuffer.free();
+      throw exception;
+    }
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    transferFuture.whenComplete((result, throwable) -> {
+      Throwable exception = throwable;
+      try {
+        keyedBuffer.free();
+      } catch (IOException | RuntimeException freeException) {
+        if (exception == null) {
+          exception = freeException;
+        }
+      }
+      if (exception != null) {
+        future.completeExceptionally(exception);
+      } else {
+        future.complete(null);
+      }
+    });
+    return future;
+  }
+
+  /*
+   * Zero-copy transfer of length bytes (a multiple of the LBA data size) from
+   * the file to the namespace starting at startingLba: the file is memory
+   * mapped in windows of the file transfer window size which are registered
+   * (pinned) so the controller reads directly from the page cache. Windows are
+   * mapped and registered by a dedicated thread pool shared by all queue pairs.
+   * The file range has to be within the file.
+   */
+  public CompletableFuture<Void> writeFromFileAsync(FileChannel channel, long filePosition,
+      long length, Namespace namespace, long startingLba) throws IOException {
+    return writeFromFileAsync(channel, filePosition, length, namespace, startingLba,
+        MappedFileTransfer.getDefaultExecutor());
+  }
+
+  /* as above, windows are mapped and registered by executor (which may block) */
+  public CompletableFuture<Void> writeFromFileAsync(FileChannel channel, long filePosition,
+      long length, Namespace namespace, long startingLba, Executor executor)
+      throws IOException {
+    return fileTransfer(true, channel, filePosition, length, namespace, startingLba,
+        executor);
+  }
+
+  /*
+   * Zero-copy transfer of length bytes from the namespace to the file, the
+   * channel has to be open for reading and writing. The file is extended if
+   * necessary; data is written to the page cache, use channel.force() to make
+   * it durable.
+   */
+  public CompletableFuture<Void> readToFileAsync(Namespace namespace, long startingLba,
+      long length, FileChannel channel, long filePosition) throws IOException {
+    return readToFileAsync(namespace, startingLba, length, channel, filePosition,
+        MappedFileTransfer.getDefaultExecutor());
+  }
+
+  public CompletableFuture<Void> readToFileAsync(Namespace namespace, long startingLba,
+      long length, FileChannel channel, long filePosition, Executor executor)
+      throws IOException {
+    return fileTransfer(false, channel, filePosition, length, namespace, startingLba,
+        executor);
+  }
+
+  private CompletableFuture<Void> fileTransfer(boolean write, FileChannel channel,
+      long filePosition, long length, Namespace namespace, long startingLba,
+      Executor executor) throws IOException {
+    int blockSize = namespace.getIdentifyNamespaceData().getFormattedLbaSize()
+        .getLbaDataSize().toInt();
+    MappedFileTransfer transfer = new MappedFileTransfer(this, write, channel, filePosition,
+        namespace.getIdentifier(), startingLba, length, blockSize, fileTransferWindowSize,
+        executor);
+    return transfer.start();
+  }
+
+  public int getFileTransferWindowSize() {
+    return fileTransferWindowSize;
+  }
+
+  /* bytes of a file mapped and registered at a time, rounded down to the LBA data size */
+  public void setFileTransferWindowSize(int fileTransferWindowSize) {
+    if (fileTransferWindowSize <= 0) {
+      throw new IllegalArgumentException("Window size negative or zero");
+    }
+    this.fileTransferWindowSize = fileTransferWindowSize;
+  }
+
+  public int getInCapsuleWriteThreshold() {
+    return inCapsuleWriteThreshold;
+  }
+
+  /* 0 disables in-capsule writes, defaults to the in-capsule data size */
+  public void setInCapsuleWriteThreshold(int inCapsuleWriteThreshold) {
+    if (inCapsuleWriteThreshold < 0 || inCapsuleWriteThreshold > getInCapsuleDataSize()) {
+      throw new IllegalArgumentException("In-capsule write threshold "
+          + inCapsuleWriteThreshold + " not in [0, " + getInCapsuleDataSize() + "]");
+    }
+    this.inCapsuleWriteThreshold = inCapsuleWriteThreshold;
+  }
+
+  private static class CalibrationHandler implements IoCompletionHandler<Void> {
+
+    private volatile boolean done;
+    private volatile IOException exception;
+
+    @Override
+    public void completed(NvmCompletionQueueEntry completionQueueEntry, Void attachment) {
+      if (!completionQueueEntry.isSuccess()) {
+        exception = new UnsuccessfulComandException(completionQueueEntry);
+      }
+      done = true;
+    }
+
+    @Override
+    public void failed(Throwable throwable, Void attachment) {
+      exception = new IOException(throwable);
+      done = true;
+    }
+  }
+
+  /* average latency of synchronous writes in ns */
+  private long timeWrites(NamespaceIdentifier namespaceIdentifier, long startingLba,
+      int numberOfLogicalBlocks, KeyedNativeBuffer buffer, boolean inCapsule)
+      throws IOException {
+    IoCommandPool commandPool = getCommandPool();
+    CalibrationHandler handler = new CalibrationHandler();
+    long start = 0;
+    for (int i = 0; i < CALIBRATION_WARMUP + CALIBRATION_ITERATIONS; i++) {
+      if (i == CALIBRATION_WARMUP) {
+        start = System.nanoTime();
+      }
+      handler.done = false;
+      commandPool.write(namespaceIdentifier, startingLba, numberOfLogicalBlocks, buffer,
+          inCapsule, handler, null);
+      while (!handler.done) {
+        poll();
+      }
+      if (handler.exception != null) {
+        throw handler.exception;
+      }
+    }
+    return (System.nanoTime() - start) / CALIBRATION_ITERATIONS;
+  }
+
+  /*
+   * Learn the in-capsule write threshold: time in-capsule and remotely read
+   * writes for power of two multiples of the LBA data size up to the in-capsule
+   * data size and set the threshold to the largest size up to which in-capsule
+   * writes are not slower. Overwrites the blocks starting at startingLba with
+   * the content of scratch, at most min(scratch.remaining(), in-capsule data size)
+   * bytes. Should only be called while no other commands are executed.
+   */
+  public int calibrateInCapsuleWriteThreshold(Namespace namespace, long startingLba,
+      KeyedNativeBuffer scratch) throws IOException {
+    int blockSize = namespace.getIdentifyNamespaceData().getFormattedLbaSize()
+        .getLbaDataSize().toInt();
+    int maxSize = Math.min(getInCapsuleDataSize(), scratch.remaining()) / blockSize * blockSize;
+    int threshold = 0;
+    int limit = scratch.limit();
+    try {
+      for (int size = blockSize; size <= maxSize && threshold < maxSize;
+          size = Math.min(size * 2, maxSize)) {
+        scratch.limit(scratch.position() + size);
+        long inCapsuleTime = timeWrites(namespace.getIdentifier(), startingLba,
+            size / blockSize, scratch, true);
+        long keyedTime = timeWrites(namespace.getIdentifier(), startingLba,
+            size / blockSize, scratch, false);
+        if (inCapsuleTime > keyedTime) {
+          break;
+        }
+        threshold = size;
+      }
+    } finally {
+      scratch.limit(limit);
+    }
+    setInCapsuleWriteThreshold(threshold);
+    return threshold;
+  }
+
+  @Override
+  public void free() throws IOException {
+    stopPoller();
+    super.free();
+    synchronized (this) {
+      if (commandPool != null) {
+        commandPool.free();
+      }
+    }
   }
 }
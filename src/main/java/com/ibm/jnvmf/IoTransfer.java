@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.jnvmf;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+final class IoTransfer implements IoCompletionHandler<Void> {
+
+  /*
+   * A read or write of arbitrary size split into chunks which fit a single
+   * command: at most MDTS bytes, 2^16 logical blocks and the 3 byte length of a
+   * keyed SGL. Chunks are submitted through the command pool of the queue pair,
+   * as many in parallel as there are free slots. When a chunk completes the
+   * next one is submitted by the polling thread. If no slot is free the
+   * transfer waits in the pool and is resumed by the thread freeing the next
+   * slot, i.e. any number of transfers can share a pool. The future is
+   * completed once all chunks are done or after the first failure once no
+   * chunk is in flight.
+   */
+
+  private static final int MAXIMUM_NUMBER_OF_LOGICAL_BLOCKS = 1 << Short.SIZE;
+  private static final int MAXIMUM_KEYED_SGL_LENGTH = (1 << 24) - 1;
+
+  private final IoCommandPool commandPool;
+  private final Object postLock;
+  private final boolean write;
+  private final NamespaceIdentifier namespaceIdentifier;
+  private final long startingLba;
+  private final int numberOfLogicalBlocks;
+  private final KeyedNativeBuffer buffer;
+  private final int position;
+  private final int blockSize;
+  private final int chunkBlocks;
+  private final int inCapsuleWriteThreshold;
+  private final CompletableFuture<Void> future;
+  private final Runnable resume;
+  private int submittedBlocks;
+  private int inFlight;
+  /* queued in the pool waiting for a free slot */
+  private boolean waiting;
+  private Throwable exception;
+
+  IoTransfer(IoCommandPool commandPool, Object postLock, boolean write,
+      NamespaceIdentifier namespaceIdentifier, long startingLba, int numberOfLogicalBlocks,
+      KeyedNativeBuffer buffer, long maximumTransferSize, int inCapsuleWriteThreshold) {
+    if (numberOfLogicalBlocks <= 0) {
+      throw new IllegalArgumentException("number of logical blocks <= 0");
+    }
+    int size = buffer.remaining();
+    if (size < numberOfLogicalBlocks || size % numberOfLogicalBlocks != 0) {
+      throw new IllegalArgumentException("Buffer size " + size
+          + " not a multiple of the number of logical blocks " + numberOfLogicalBlocks);
+    }
+    this.blockSize = size / numberOfLogicalBlocks;
+    if (maximumTransferSize <= 0) {
+      throw new IllegalArgumentException("Maximum transfer size <= 0");
+    }
+    int chunkSize = (int) Math.min(maximumTransferSize, MAXIMUM_KEYED_SGL_LENGTH);
+    this.chunkBlocks = Math.min(chunkSize / blockSize, MAXIMUM_NUMBER_OF_LOGICAL_BLOCKS);
+    if (chunkBlocks == 0) {
+      throw new IllegalArgumentException("Logical block size " + blockSize
+          + " exceeds maximum transfer size " + chunkSize);
+    }
+    this.commandPool = commandPool;
+    this.postLock = postLock;
+    this.write = write;
+    this.namespaceIdentifier = namespaceIdentifier;
+    this.startingLba = startingLba;
+    this.numberOfLogicalBlocks = numberOfLogicalBlocks;
+    this.buffer = buffer;
+    this.position = buffer.position();
+    this.inCapsuleWriteThreshold = inCapsuleWriteThreshold;
+    this.future = new CompletableFuture<>();
+    this.resume = this::resume;
+  }
+
+  CompletableFuture<Void> start() throws IOException {
+    synchronized (this) {
+      try {
+        submit();
+      } catch (IOException | RuntimeException submitException) {
+        if (inFlight == 0) {
+          throw submitException;
+        }
+        /* fail the future once the submitted chunks are done */
+        exception = submitException;
+      }
+    }
+    return future;
+  }
+
+  /* Submit chunks until all are submitted or we have to wait for a free slot */
+  private void submit() throws IOException {
+    int limit = buffer.limit();
+    try {
+      while (submittedBlocks < numberOfLogicalBlocks) {
+        int blocks = Math.min(chunkBlocks, numberOfLogicalBlocks - submittedBlocks);
+        /* the descriptors are set on submission, i.e. we can restore the buffer right away */
+        buffer.limit(position + (submittedBlocks + blocks) * blockSize);
+        buffer.position(position + submittedBlocks * blockSize);
+        boolean submitted;
+        synchronized (postLock) {
+          if (write) {
+            submitted = commandPool.write(namespaceIdentifier, startingLba + submittedBlocks,
+                blocks, buffer, buffer.remaining() <= inCapsuleWriteThreshold, this, null,
+                resume);
+          } else {
+            submitted = commandPool.read(namespaceIdentifier, startingLba + submittedBlocks,
+                blocks, buffer, this, null, resume);
+          }
+        }
+        if (!submitted) {
+          waiting = true;
+          return;
+        }
+        submittedBlocks += blocks;
+        inFlight++;
+      }
+    } finally {
+      buffer.limit(limit);
+      buffer.position(position);
+    }
+  }
+
+  private void chunkDone(Throwable chunkException) {
+    proceed(true, chunkException);
+  }
+
+  /* run by the pool once a slot has been freed */
+  private void resume() {
+    proceed(false, null);
+  }
+
+  private void proceed(boolean chunkDone, Throwable chunkException) {
+    boolean done;
+    Throwable exception;
+    synchronized (this) {
+      if (chunkDone) {
+        inFlight--;
+      } else {
+        waiting = false;
+      }
+      if (this.exception == null) {
+        this.exception = chunkException;
+      }
+      /* while waiting we are resumed once a slot is free */
+      if (this.exception == null && !waiting) {
+        try {
+          submit();
+        } catch (IOException | RuntimeException submitException) {
+          this.exception = submitException;
+        }
+      }
+      done = inFlight == 0 && !waiting
+          && (this.exception != null || submittedBlocks == numberOfLogicalBlocks);
+      exception = this.exception;
+    }
+    if (done) {
+      if (exception != null) {
+        future.completeExceptionally(exception);
+      } else {
+        future.complete(null);
+      }
+    }
+  }
+
+  @Override
+  public void completed(NvmCompletionQueueEntry completionQueueEntry, Void attachment) {
+    if (completionQueueEntry.isSuccess()) {
+      chunkDone(null);
+    } else {
+      chunkDone(new UnsuccessfulComandException(completionQueueEntry));
+    }
+  }
+
+  @Override
+  public void failed(Throwable throwable, Void attachment) {
+    chunkDone(throwable);
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.jnvmf;
+
+import com.ibm.disni.verbs.IbvMr;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+final class MappedFileTransfer {
+
+  /*
+   * Streams a file range to or from a namespace range without copying: the
+   * file is memory mapped in windows, every window is registered (which pins
+   * its page cache pages) and transferred with writeAsync/readAsync, i.e. the
+   * NIC accesses the page cache directly. Windows to write are mapped read-only
+   * and only allow remote reads. Registering a window faults in its pages
+   * (reads the file), so mapping, registration and deregistration run on the
+   * executor, never on the polling thread. Since they block, the default
+   * executor is a dedicated (cached) thread pool rather than the common fork
+   * join pool. WINDOWS_IN_FLIGHT windows are
+   * transferred at a time so registering the next window overlaps with the
+   * transfer of the current one. Their chunks wait for each other in the
+   * command pool, i.e. a window can be larger than queue depth * MDTS.
+   */
+
+  private static final int WINDOWS_IN_FLIGHT = 2;
+
+  /* created on first use */
+  private static final class DefaultExecutor {
+
+    private static final ExecutorService INSTANCE = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "jnvmf-file-transfer");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  private final IoQueuePair queuePair;
+  private final boolean write;
+  private final FileChannel channel;
+  private final long filePosition;
+  private final NamespaceIdentifier namespaceIdentifier;
+  private final long startingLba;
+  private final long length;
+  private final int blockSize;
+  private final int windowSize;
+  private final Executor executor;
+  private final CompletableFuture<Void> future;
+  private long nextOffset;
+  private int inFlight;
+  private Throwable exception;
+
+  MappedFileTransfer(IoQueuePair queuePair, boolean write, FileChannel channel,
+      long filePosition, NamespaceIdentifier namespaceIdentifier, long startingLba,
+      long length, int blockSize, int windowSize, Executor executor) throws IOException {
+    if (channel == null) {
+      throw new IllegalArgumentException("Channel null");
+    }
+    if (executor == null) {
+      throw new IllegalArgumentException("Executor null");
+    }
+    if (filePosition < 0) {
+      throw new IllegalArgumentException("Negative file position");
+    }
+    if (length <= 0 || length % blockSize != 0) {
+      throw new IllegalArgumentException("Length " + length
+          + " not a positive multiple of the logical block size " + blockSize);
+    }
+    if (write && filePosition > channel.size() - length) {
+      /* mapping beyond the end of a file opened for reading fails window by window */
+      throw new IllegalArgumentException("File range " + filePosition + " + " + length
+          + " exceeds file size " + channel.size());
+    }
+    if (windowSize < blockSize) {
+      throw new IllegalArgumentException("Window size " + windowSize
+          + " smaller than the logical block size " + blockSize);
+    }
+    this.queuePair = queuePair;
+    this.write = write;
+    this.channel = channel;
+    this.filePosition = filePosition;
+    this.namespaceIdentifier = namespaceIdentifier;
+    this.startingLba = startingLba;
+    this.length = length;
+    this.blockSize = blockSize;
+    this.windowSize = windowSize / blockSize * blockSize;
+    this.executor = executor;
+    this.future = new CompletableFuture<>();
+  }
+
+  static Executor getDefaultExecutor() {
+    return DefaultExecutor.INSTANCE;
+  }
+
+  CompletableFuture<Void> start() {
+    for (int i = 0; i < WINDOWS_IN_FLIGHT; i++) {
+      startWindow();
+    }
+    return future;
+  }
+
+  private void startWindow() {
+    long offset;
+    int size;
+    synchronized (this) {
+      if (exception != null || nextOffset == length) {
+        if (inFlight == 0) {
+          if (exception != null) {
+            future.completeExceptionally(exception);
+          } else {
+            future.complete(null);
+          }
+        }
+        return;
+      }
+      offset = nextOffset;
+      size = (int) Math.min(windowSize, length - offset);
+      nextOffset += size;
+      inFlight++;
+    }
+    try {
+      executor.execute(() -> transferWindow(offset, size));
+    } catch (RejectedExecutionException exception) {
+      windowDone(null, null, exception);
+    }
+  }
+
+  private void transferWindow(long offset, int size) {
+    MappedByteBuffer mapping = null;
+    KeyedNativeBuffer buffer = null;
+    try {
+      if (write) {
+        mapping = channel.map(FileChannel.MapMode.READ_ONLY, filePosition + offset, size);
+        buffer = queuePair.registerMemory(mapping, IbvMr.IBV_ACCESS_REMOTE_READ);
+      } else {
+        mapping = channel.map(FileChannel.MapMode.READ_WRITE, filePosition + offset, size);
+        buffer = queuePair.registerMemory(mapping,
+            IbvMr.IBV_ACCESS_LOCAL_WRITE | IbvMr.IBV_ACCESS_REMOTE_WRITE);
+      }
+      long lba = startingLba + offset / blockSize;
+      CompletableFuture<Void> windowFuture = write
+          ? queuePair.writeAsync(namespaceIdentifier, lba, size / blockSize, buffer)
+          : queuePair.readAsync(namespaceIdentifier, lba, size / blockSize, buffer);
+      final MappedByteBuffer windowMapping = mapping;
+      final KeyedNativeBuffer windowBuffer = buffer;
+      windowFuture.whenComplete((result, throwable) -> {
+        try {
+          executor.execute(() -> windowDone(windowMapping, windowBuffer, throwable));
+        } catch (RejectedExecutionException exception) {
+          /* better to deregister on the polling thread than to never complete */
+          windowDone(windowMapping, windowBuffer, throwable);
+        }
+      });
+    } catch (IOException | RuntimeException exception) {
+      windowDone(mapping, buffer, exception);
+    }
+  }
+
+  /* releases the window, the next window is started whatever happens */
+  private void windowDone(MappedByteBuffer mapping, KeyedNativeBuffer buffer,
+      Throwable throwable) {
+    try {
+      if (buffer != null) {
+        buffer.free();
+      }
+    } catch (IOException | RuntimeException exception) {
+      if (throwable == null) {
+        throwable = exception;
+      }
+    } finally {
+      try {
+        if (mapping != null) {
+          /* otherwise unmapped when garbage collected */
+          BufferUnmapper.unmap(mapping);
+        }
+      } finally {
+        synchronized (this) {
+          inFlight--;
+          if (throwable != null && exception == null) {
+            exception = throwable;
+          }
+        }
+        startWindow();
+      }
+    }
+  }
+}
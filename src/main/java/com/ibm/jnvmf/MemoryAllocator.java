@@ -17,7 +17,18 @@
 
 package com.ibm.jnvmf;
 
+import java.io.IOException;
+
 public interface MemoryAllocator {
 
   NativeBuffer allocate(int size);
+
+  /*
+   * Free a buffer of this allocator. Called by an owner which guarantees that
+   * neither the buffer nor any view of it is used anymore, e.g. a memory pool
+   * releasing a region, so the memory can be freed right away.
+   */
+  default void release(NativeBuffer buffer) throws IOException {
+    buffer.free();
+  }
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.jnvmf;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+class MemoryBudget {
+
+  /*
+   * Bytes of registered memory shared by multiple pools. The limit is read on
+   * every reservation so it can be changed while pools are in use; lowering it
+   * does not release memory already reserved.
+   */
+
+  private final LongSupplier limit;
+  private final AtomicLong used;
+  private final List<PdMemoryPool> pools;
+
+  MemoryBudget(LongSupplier limit) {
+    if (limit == null) {
+      throw new IllegalArgumentException("Limit null");
+    }
+    this.limit = limit;
+    this.used = new AtomicLong();
+    this.pools = new CopyOnWriteArrayList<>();
+  }
+
+  void add(PdMemoryPool pool) {
+    pools.add(pool);
+  }
+
+  void remove(PdMemoryPool pool) {
+    pools.remove(pool);
+  }
+
+  /* returns the memory all pools on this budget cache but do not use */
+  void reclaim() throws IOException {
+    for (PdMemoryPool pool : pools) {
+      pool.reclaim(true);
+    }
+  }
+
+  boolean reserve(long bytes) {
+    long limit = this.limit.getAsLong();
+    long current;
+    do {
+      current = used.get();
+      if (bytes > limit - current) {
+        return false;
+      }
+    } while (!used.compareAndSet(current, current + bytes));
+    return true;
+  }
+
+  void release(long bytes) {
+    used.addAndGet(-bytes);
+  }
+
+  long getUsed() {
+    return used.get();
+  }
+
+  long getLimit() {
+    return limit.getAsLong();
+  }
+}
@@ -39,10 +39,18 @@ public class MemoryPageUnitSize {
     return new Pow2Size(count.value() + pageSize.value());
   }
 
+  /* overflows for sizes of 2^31 and above, see toLong */
   public int toInt() {
     return pageSize.toInt() * count.toInt();
   }
 
+  /* saturates at Long.MAX_VALUE */
+  public long toLong() {
+    /* not via toPow2Size, Pow2Size is limited to 2^32 */
+    int pow2Size = pageSize.value() + count.value();
+    return pow2Size >= Long.SIZE - 1 ? Long.MAX_VALUE : 1L << pow2Size;
+  }
+
   @Override
   public String toString() {
     return Integer.toString(toInt());
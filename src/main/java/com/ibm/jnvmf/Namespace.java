@@ -30,6 +30,8 @@ public class Namespace {
   private final IdentifyNamespaceData identifyNamespaceData;
 
   private final AdminIdentifyNamespaceCommand command;
+  private final Future<?> commandFuture;
+  private final ResponseFuture<AdminResponseCapsule> responseFuture;
 
   Namespace(Controller controller, NamespaceIdentifier namespaceIdentifier) throws IOException {
     this.controller = controller;
@@ -38,6 +40,8 @@ public class Namespace {
     KeyedNativeBuffer registeredBuffer = controller.getAdminQueue().registerMemory(buffer);
     this.identifyNamespaceData = new IdentifyNamespaceData(registeredBuffer);
     this.command = new AdminIdentifyNamespaceCommand(controller.getAdminQueue());
+    this.commandFuture = command.newCommandFuture();
+    this.responseFuture = command.newResponseFuture();
     AdminIdentifyNamespaceCommandCapsule commandCapsule = command.getCommandCapsule();
     commandCapsule.setSglDescriptor(identifyNamespaceData);
     AdminIdentifyCommandSqe sqe = commandCapsule.getSubmissionQueueEntry();
@@ -58,8 +62,6 @@ public class Namespace {
   }
 
   private void updateIdentifyNamespaceData() throws IOException {
-    Future<?> commandFuture = command.newCommandFuture();
-    ResponseFuture<AdminResponseCapsule> responseFuture = command.newResponseFuture();
     command.execute(responseFuture);
     try {
       commandFuture.get();
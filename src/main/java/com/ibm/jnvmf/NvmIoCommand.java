@@ -17,9 +17,38 @@
 
 package com.ibm.jnvmf;
 
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
 public abstract class NvmIoCommand<C extends NvmIoCommandCapsule> extends NvmCommand<C> {
 
+  private AsyncCompletion asyncCompletion;
+
   NvmIoCommand(IoQueuePair queuePair, C commandCapsule) {
     super(queuePair, commandCapsule);
   }
+
+  /*
+   * Execute the command without waiting for completion. The future is completed by
+   * the poller thread of the queue pair when both the command and its response are
+   * done. The returned completion queue entry is reused, i.e. it is only valid until
+   * the command is executed again. Non-async dependent actions of the future run
+   * on the poller thread. Replaces the callback of the command.
+   */
+  public CompletableFuture<NvmCompletionQueueEntry> executeAsync() throws IOException {
+    if (asyncCompletion == null) {
+      asyncCompletion = new AsyncCompletion(newResponse());
+    }
+    IoQueuePair queuePair = (IoQueuePair) getQueuePair();
+    queuePair.startPoller();
+    CompletableFuture<NvmCompletionQueueEntry> future = asyncCompletion.start();
+    setCallback(asyncCompletion.getCommandCallback());
+    try {
+      queuePair.postAsync(this, asyncCompletion.getResponse());
+    } catch (IOException | RuntimeException exception) {
+      asyncCompletion.abort();
+      throw exception;
+    }
+    return future;
+  }
 }
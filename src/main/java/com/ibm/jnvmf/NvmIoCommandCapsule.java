@@ -31,4 +31,30 @@ public class NvmIoCommandCapsule extends NvmCommandCapsule<NvmIoCommandSqe> {
         getSubmissionQueueEntry().getKeyedSglDataBlockDescriptor();
     keyedSglDataBlockDescriptor.set(data);
   }
+
+  /*
+   * Scatter/gather: transfer from/to multiple buffers with one command.
+   * The keyed SGL data block descriptors are placed in the additional SGLs of
+   * the capsule, SGL descriptor 1 is a last segment descriptor pointing to them.
+   */
+  public void setSglDescriptors(KeyedNativeBuffer[] data) {
+    if (data.length == 0) {
+      throw new IllegalArgumentException("No buffers");
+    }
+    if (data.length == 1) {
+      setSglDescriptor(data[0]);
+      return;
+    }
+    if (data.length > getMaximumAdditionalSgls()) {
+      throw new IllegalArgumentException("Number of buffers " + data.length
+          + " exceeds additional SGLs " + getMaximumAdditionalSgls());
+    }
+    for (int i = 0; i < data.length; i++) {
+      getAdditionalSgl(i).set(data[i]);
+    }
+    SglLastSegmentDescriptor sglLastSegmentDescriptor =
+        getSubmissionQueueEntry().getSglLastSegmentDescriptor();
+    sglLastSegmentDescriptor.setOffset(0);
+    sglLastSegmentDescriptor.setLength(data.length * ScatterGatherListDescriptor.SIZE);
+  }
 }
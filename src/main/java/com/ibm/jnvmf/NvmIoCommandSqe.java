@@ -31,11 +31,13 @@ public abstract class NvmIoCommandSqe extends NvmSubmissionQueueEntry {
   private static final int DATASET_MANAGEMENT_OFFSET = 52;
 
   private final KeyedSglDataBlockDescriptor keyedSglDataBlockDescriptor;
+  private final SglLastSegmentDescriptor sglLastSegmentDescriptor;
   private final DatasetManagement datasetManagement;
 
   NvmIoCommandSqe(NativeBuffer buffer) {
     super(buffer);
     this.keyedSglDataBlockDescriptor = new KeyedSglDataBlockDescriptor(getSglDescriptor1Buffer());
+    this.sglLastSegmentDescriptor = new SglLastSegmentDescriptor(getSglDescriptor1Buffer());
     getBuffer().position(DATASET_MANAGEMENT_OFFSET);
     getBuffer().limit(DATASET_MANAGEMENT_OFFSET + DatasetManagement.SIZE);
     this.datasetManagement = new DatasetManagement(getBuffer().slice());
@@ -48,6 +50,10 @@ public abstract class NvmIoCommandSqe extends NvmSubmissionQueueEntry {
     return keyedSglDataBlockDescriptor;
   }
 
+  SglLastSegmentDescriptor getSglLastSegmentDescriptor() {
+    return sglLastSegmentDescriptor;
+  }
+
   public void setStartingLba(long lba) {
     getBuffer().putLong(STARTING_LBA_OFFSET, lba);
   }
@@ -17,10 +17,20 @@
 
 package com.ibm.jnvmf;
 
+import com.ibm.disni.verbs.IbvSendWR;
+import com.ibm.disni.verbs.IbvSge;
+import com.ibm.disni.verbs.SVCPostSend;
+
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedList;
 
 public class NvmWriteCommand extends NvmIoCommand<NvmWriteCommandCapsule> {
 
+  /* send of the capsule up to the in-capsule data followed by a user buffer */
+  private final IbvSendWR dataWr;
+  private SVCPostSend dataPostSend;
+
   private static NvmWriteCommandCapsule newNvmWriteCommandCapsule(IoQueuePair queuePair)
       throws IOException {
     int inCapsuleDataOffset = queuePair.getController().getIdentifyControllerData()
@@ -32,6 +42,21 @@ public class NvmWriteCommand extends NvmIoCommand<NvmWriteCommandCapsule> {
 
   public NvmWriteCommand(IoQueuePair queuePair) throws IOException {
     super(queuePair, newNvmWriteCommandCapsule(queuePair));
+    KeyedNativeBuffer buffer = getCommandCapsule().getBuffer();
+    IbvSge capsuleSge = new IbvSge();
+    capsuleSge.setAddr(buffer.getAddress());
+    capsuleSge.setLength(SubmissionQueueEntry.SIZE
+        + getCommandCapsule().getIncapsuleDataOffset());
+    capsuleSge.setLkey(buffer.getLocalKey());
+
+    LinkedList<IbvSge> sgList = new LinkedList<>();
+    sgList.add(capsuleSge);
+    sgList.add(new IbvSge());
+    this.dataWr = new IbvSendWR();
+    dataWr.setSg_list(sgList);
+    dataWr.setNum_sge(2);
+    dataWr.setOpcode(IbvSendWR.IbvWrOcode.IBV_WR_SEND.ordinal());
+    dataWr.setSend_flags(IbvSendWR.IBV_SEND_SIGNALED);
   }
 
   public NativeBuffer getIncapsuleData() {
@@ -39,8 +64,66 @@ public class NvmWriteCommand extends NvmIoCommand<NvmWriteCommandCapsule> {
   }
 
   public void setIncapsuleData(NativeBuffer incapsuleData) {
-    //TODO support to set buffer outside of capsule by using RDMA sgls
     //TODO change RDMA sgl accordingly => we don't want to send unnecessary data on the wire
     getCommandCapsule().setIncapsuleData(incapsuleData);
   }
+
+  /*
+   * Send the remaining bytes of data as in-capsule data without copying them
+   * into the capsule: the capsule and data are sent with two SGEs. data has to
+   * stay valid until the command send has completed and can be reused
+   * afterwards. Setting in-capsule data or an SGL descriptor on the capsule
+   * switches back to a single SGE send.
+   */
+  public void setIncapsuleDataBuffer(KeyedNativeBuffer data) throws IOException {
+    getCommandCapsule().setIncapsuleDataBuffer(data);
+    long address = data.getAddress() + data.position();
+    int length = data.remaining();
+    IbvSge dataSge = dataWr.getSge(1);
+    dataSge.setAddr(address);
+    dataSge.setLength(length);
+    dataSge.setLkey(data.getLocalKey());
+    int sendFlags = IbvSendWR.IBV_SEND_SIGNALED;
+    if (getQueuePair().getInlineDataSize() >= dataWr.getSge(0).getLength() + length) {
+      sendFlags |= IbvSendWR.IBV_SEND_INLINE;
+    }
+    dataWr.setSend_flags(sendFlags);
+    if (dataPostSend != null) {
+      SVCPostSend.SgeMod sgeMod = dataPostSend.getWrMod(0).getSgeMod(1);
+      sgeMod.setAddr(address);
+      sgeMod.setLength(length);
+      sgeMod.setLkey(data.getLocalKey());
+    }
+  }
+
+  private SVCPostSend getDataPostSend() throws IOException {
+    if (dataPostSend == null) {
+      dataPostSend = getQueuePair().newPostSend(Arrays.asList(dataWr));
+    }
+    return dataPostSend;
+  }
+
+  @Override
+  IbvSendWR getWorkRequest() {
+    if (getCommandCapsule().getIncapsuleDataBuffer() != null) {
+      return dataWr;
+    }
+    return super.getWorkRequest();
+  }
+
+  @Override
+  SVCPostSend getPostSend() throws IOException {
+    if (getCommandCapsule().getIncapsuleDataBuffer() != null) {
+      return getDataPostSend();
+    }
+    return super.getPostSend();
+  }
+
+  @Override
+  void prepare() throws IOException {
+    super.prepare();
+    if (getQueuePair().getInCapsuleDataSize() > 0) {
+      getDataPostSend();
+    }
+  }
 }
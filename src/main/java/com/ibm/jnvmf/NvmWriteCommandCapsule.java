@@ -34,10 +34,42 @@ public class NvmWriteCommandCapsule extends NvmIoCommandCapsule {
   }
 
 
+  private KeyedNativeBuffer incapsuleDataBuffer;
+
   void setIncapsuleData(NativeBuffer incapsuleData) {
+    incapsuleDataBuffer = null;
     SglDataBlockDescriptor sglDataBlockDescriptor = getSubmissionQueueEntry()
         .getSglDataBlockDescriptor();
     sglDataBlockDescriptor.setOffset(getIncapsuleDataOffset() + incapsuleData.position());
     sglDataBlockDescriptor.setLength(incapsuleData.remaining());
   }
+
+  /* in-capsule data is not in the capsule buffer but sent from data */
+  void setIncapsuleDataBuffer(KeyedNativeBuffer data) {
+    if (data.remaining() > getIncapsuleData().capacity()) {
+      throw new IllegalArgumentException("Data size " + data.remaining()
+          + " exceeds in-capsule data size " + getIncapsuleData().capacity());
+    }
+    SglDataBlockDescriptor sglDataBlockDescriptor = getSubmissionQueueEntry()
+        .getSglDataBlockDescriptor();
+    sglDataBlockDescriptor.setOffset(getIncapsuleDataOffset());
+    sglDataBlockDescriptor.setLength(data.remaining());
+    incapsuleDataBuffer = data;
+  }
+
+  KeyedNativeBuffer getIncapsuleDataBuffer() {
+    return incapsuleDataBuffer;
+  }
+
+  @Override
+  public void setSglDescriptor(KeyedNativeBuffer data) {
+    incapsuleDataBuffer = null;
+    super.setSglDescriptor(data);
+  }
+
+  @Override
+  public void setSglDescriptors(KeyedNativeBuffer[] data) {
+    incapsuleDataBuffer = null;
+    super.setSglDescriptors(data);
+  }
 }
@@ -18,6 +18,7 @@
 package com.ibm.jnvmf;
 
 import com.ibm.disni.RdmaEndpoint;
+import com.ibm.disni.verbs.IbvCQ;
 import com.ibm.disni.verbs.IbvRecvWR;
 import com.ibm.disni.verbs.IbvSge;
 import com.ibm.disni.verbs.IbvWC;
@@ -28,6 +29,7 @@ import com.ibm.disni.verbs.SVCPostRecv;
 
 import java.io.IOException;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.concurrent.TimeUnit;
@@ -38,6 +40,9 @@ class NvmfRdmaEndpoint extends RdmaEndpoint {
   private int rqSize;
   private int sqSize;
   private int inlineDataSize;
+  private int maxSendSge;
+  private SharedCompletionQueue sharedCompletionQueue;
+  private boolean unsafeBufferAccess;
   private final RdmaConnParam rdmaConnParam;
 
   private RdmaRecv[] rdmaReceives;
@@ -45,6 +50,7 @@ class NvmfRdmaEndpoint extends RdmaEndpoint {
   NvmfRdmaEndpoint(NvmfRdmaEndpointGroup group, RdmaCmId idPriv) throws IOException {
     super(group, idPriv, false);
     this.rdmaConnParam = new RdmaConnParam();
+    this.maxSendSge = 1;
   }
 
   @Override
@@ -68,7 +74,8 @@ class NvmfRdmaEndpoint extends RdmaEndpoint {
   protected synchronized void init() throws IOException {
     super.init();
     rdmaReceives = new RdmaRecv[getRqSize()];
-    KeyedNativeBufferPool responseBufferPool = getBufferPool(ResponseCapsule.SIZE);
+    KeyedNativeBufferPool responseBufferPool = getBufferPool(ResponseCapsule.SIZE,
+        BufferPoolConfiguration.Usage.RESPONSE_CAPSULE);
     for (int i = 0; i < getRqSize(); i++) {
       KeyedNativeBuffer buffer = responseBufferPool.allocate();
       IbvSge recvSge = new IbvSge();
@@ -91,17 +98,17 @@ class NvmfRdmaEndpoint extends RdmaEndpoint {
     return rdmaReceives.clone();
   }
 
-  public class PollCq extends SVCPollCq {
+  public static class PollCq extends SVCPollCq {
 
     private final SVCPollCq pollCq;
     private final IbvWC[] wcs;
 
-    public PollCq(int polls) throws IOException {
+    public PollCq(IbvCQ cq, int polls) throws IOException {
       this.wcs = new IbvWC[polls];
       for (int i = 0; i < wcs.length; i++) {
         wcs[i] = new IbvWC();
       }
-      this.pollCq = getCqProvider().getCQ().poll(wcs, wcs.length);
+      this.pollCq = cq.poll(wcs, wcs.length);
     }
 
     @Override
@@ -140,6 +147,23 @@ class NvmfRdmaEndpoint extends RdmaEndpoint {
     return cqSize;
   }
 
+  public SharedCompletionQueue getSharedCompletionQueue() {
+    return sharedCompletionQueue;
+  }
+
+  public void setSharedCompletionQueue(SharedCompletionQueue sharedCompletionQueue) {
+    this.sharedCompletionQueue = sharedCompletionQueue;
+  }
+
+  public boolean isUnsafeBufferAccess() {
+    return unsafeBufferAccess;
+  }
+
+  /* command and response capsules are UnsafeNativeBuffers */
+  public void setUnsafeBufferAccess(boolean unsafeBufferAccess) {
+    this.unsafeBufferAccess = unsafeBufferAccess;
+  }
+
   public int getInlineDataSize() {
     return inlineDataSize;
   }
@@ -151,6 +175,17 @@ class NvmfRdmaEndpoint extends RdmaEndpoint {
     this.inlineDataSize = inlineDataSize;
   }
 
+  public int getMaxSendSge() {
+    return maxSendSge;
+  }
+
+  public void setMaxSendSge(int maxSendSge) {
+    if (maxSendSge <= 0) {
+      throw new IllegalArgumentException("Max send SGE <= 0");
+    }
+    this.maxSendSge = maxSendSge;
+  }
+
   public int getRqSize() {
     return rqSize;
   }
@@ -178,6 +213,19 @@ class NvmfRdmaEndpoint extends RdmaEndpoint {
   }
 
   public KeyedNativeBufferPool getBufferPool(int size) throws IOException {
-    return getEndpointGroup().getBufferPool(this, size);
+    return getBufferPool(size, BufferPoolConfiguration.Usage.DATA);
+  }
+
+  public KeyedNativeBufferPool getBufferPool(int size, BufferPoolConfiguration.Usage usage)
+      throws IOException {
+    return getEndpointGroup().getBufferPool(this, size, usage);
+  }
+
+  public RegistrationCache getRegistrationCache() {
+    return getEndpointGroup().getRegistrationCache(this);
+  }
+
+  KeyedNativeBuffer wrapMemory(ByteBuffer buffer) throws IOException {
+    return getEndpointGroup().wrapMemory(this, buffer);
   }
 }
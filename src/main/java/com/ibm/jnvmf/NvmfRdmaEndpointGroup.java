@@ -25,9 +25,13 @@ import com.ibm.disni.verbs.IbvQP;
 import com.ibm.disni.verbs.IbvQPInitAttr;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 class NvmfRdmaEndpointGroup extends RdmaEndpointGroup<NvmfRdmaEndpoint> {
@@ -36,11 +40,14 @@ class NvmfRdmaEndpointGroup extends RdmaEndpointGroup<NvmfRdmaEndpoint> {
 
     private final IbvPd pd;
     private final int size;
+    private final boolean unsafeAccess;
+    private final BufferPoolConfiguration.Usage usage;
 
-
-    BufferPoolKey(IbvPd pd, int size) {
+    BufferPoolKey(IbvPd pd, int size, boolean unsafeAccess, BufferPoolConfiguration.Usage usage) {
       this.pd = pd;
       this.size = size;
+      this.unsafeAccess = unsafeAccess;
+      this.usage = usage;
     }
 
     @Override
@@ -57,6 +64,12 @@ class NvmfRdmaEndpointGroup extends RdmaEndpointGroup<NvmfRdmaEndpoint> {
       if (size != that.size) {
         return false;
       }
+      if (unsafeAccess != that.unsafeAccess) {
+        return false;
+      }
+      if (usage != that.usage) {
+        return false;
+      }
       return pd.equals(that.pd);
     }
 
@@ -64,20 +77,42 @@ class NvmfRdmaEndpointGroup extends RdmaEndpointGroup<NvmfRdmaEndpoint> {
     public int hashCode() {
       int result = size;
       result = 31 * result + pd.hashCode();
+      result = 31 * result + (unsafeAccess ? 1 : 0);
+      result = 31 * result + usage.hashCode();
       return result;
     }
   }
 
+  private static final long POOL_EXECUTOR_TERMINATION_TIMEOUT_MS = 1000;
+
   private final Map<BufferPoolKey, PdMemoryPool> bufferPools;
+  private final Map<IbvPd, MemoryBudget[]> budgets;
+  private final Map<IbvPd, RegistrationCache> registrationCaches;
+  /* empty if the device does not support implicit on-demand paging */
+  private final Map<IbvPd, Optional<OnDemandRegistration>> onDemandRegistrations;
+  private volatile RegistrationMode registrationMode;
+  private final BufferPoolConfiguration bufferPoolConfiguration;
+  /* prewarms and trims buffer pools */
+  private ScheduledExecutorService poolExecutor;
+  private volatile boolean closed;
 
   public NvmfRdmaEndpointGroup(long timeout, TimeUnit timeoutUnit) throws IOException {
     // FIXME: check for overflow
     super((int)TimeUnit.MILLISECONDS.convert(timeout, timeoutUnit));
     this.bufferPools = new ConcurrentHashMap<>();
+    this.budgets = new ConcurrentHashMap<>();
+    this.bufferPoolConfiguration = new BufferPoolConfiguration();
+    this.registrationCaches = new ConcurrentHashMap<>();
+    this.onDemandRegistrations = new ConcurrentHashMap<>();
+    this.registrationMode = RegistrationMode.AUTOMATIC;
   }
 
   @Override
   public RdmaCqProvider createCqProvider(NvmfRdmaEndpoint endpoint) throws IOException {
+    SharedCompletionQueue sharedCompletionQueue = endpoint.getSharedCompletionQueue();
+    if (sharedCompletionQueue != null) {
+      return sharedCompletionQueue.getCqProvider(endpoint.getIdPriv().getVerbs());
+    }
     return new RdmaCqProvider(endpoint.getIdPriv().getVerbs(), endpoint.getCqSize());
   }
 
@@ -86,8 +121,7 @@ class NvmfRdmaEndpointGroup extends RdmaEndpointGroup<NvmfRdmaEndpoint> {
     IbvQPInitAttr attr = new IbvQPInitAttr();
     attr.cap().setMax_recv_sge(1);
     attr.cap().setMax_recv_wr(endpoint.getRqSize());
-    //FIXME: we should support multiple sge for incapsule data if not in the same buffer
-    attr.cap().setMax_send_sge(1);
+    attr.cap().setMax_send_sge(endpoint.getMaxSendSge());
     attr.cap().setMax_send_wr(endpoint.getSqSize());
     attr.cap().setMax_inline_data(endpoint.getInlineDataSize());
     attr.setQp_type(IbvQP.IBV_QPT_RC);
@@ -107,19 +141,156 @@ class NvmfRdmaEndpointGroup extends RdmaEndpointGroup<NvmfRdmaEndpoint> {
     endpoint.allocateResources();
   }
 
-  KeyedNativeBufferPool getBufferPool(NvmfRdmaEndpoint endpoint, int size) throws IOException {
-    BufferPoolKey key = new BufferPoolKey(endpoint.getPd(), size);
+  KeyedNativeBufferPool getBufferPool(NvmfRdmaEndpoint endpoint, int size,
+      BufferPoolConfiguration.Usage usage) throws IOException {
+    checkOpen();
+    BufferPoolKey key = new BufferPoolKey(endpoint.getPd(), size,
+        endpoint.isUnsafeBufferAccess(), usage);
     PdMemoryPool bufferPool = bufferPools.get(key);
     if (bufferPool == null) {
-      //FIXME size, memory allocator
-      bufferPool = new PdMemoryPool(endpoint.getPd(), new OffHeapMemoryAllocator(),
-          size, 128, 128, ByteOrder.LITTLE_ENDIAN);
+      BufferPoolConfiguration configuration = bufferPoolConfiguration;
+      bufferPool = new PdMemoryPool(endpoint.getPd(), configuration.getMemoryAllocator(),
+          size, configuration.getElementsPerRegion(size), Integer.MAX_VALUE,
+          ByteOrder.LITTLE_ENDIAN);
+      bufferPool.setUnsafeAccess(endpoint.isUnsafeBufferAccess());
+      bufferPool.setBudget(getBudget(endpoint.getPd(), usage));
+      bufferPool.setMaxIdleRegions(configuration.getMaximumIdleRegions());
+      bufferPool.setThreadCacheSize(configuration.getThreadCacheSize());
+      if (configuration.isBackgroundPrewarm()) {
+        try {
+          bufferPool.setPrewarmExecutor(getPoolExecutor());
+        } catch (IllegalStateException exception) {
+          bufferPool.free();
+          throw exception;
+        }
+      }
       PdMemoryPool prevCommandBufferPool = bufferPools.putIfAbsent(key, bufferPool);
       if (prevCommandBufferPool != null) {
         bufferPool.free();
         bufferPool = prevCommandBufferPool;
+      } else {
+        bufferPool.prewarm(configuration.getPrewarmRegions());
+        long trimInterval = configuration.getTrimInterval(TimeUnit.MILLISECONDS);
+        if (trimInterval > 0 && bufferPool.getThreadCacheSize() > 0) {
+          try {
+            getPoolExecutor().scheduleWithFixedDelay(trimTask(bufferPool), trimInterval,
+                trimInterval, TimeUnit.MILLISECONDS);
+          } catch (IllegalStateException exception) {
+            /* closed concurrently, close might not have seen the pool */
+            bufferPools.remove(key, bufferPool);
+            bufferPool.free();
+            throw exception;
+          }
+        }
       }
     }
     return bufferPool;
   }
+
+  private MemoryBudget getBudget(IbvPd pd, BufferPoolConfiguration.Usage usage) {
+    MemoryBudget[] pdBudgets = budgets.computeIfAbsent(pd, key -> {
+      BufferPoolConfiguration.Usage[] usages = BufferPoolConfiguration.Usage.values();
+      MemoryBudget[] newBudgets = new MemoryBudget[usages.length];
+      for (BufferPoolConfiguration.Usage newUsage : usages) {
+        newBudgets[newUsage.ordinal()] =
+            new MemoryBudget(() -> bufferPoolConfiguration.getBudget(newUsage));
+      }
+      return newBudgets;
+    });
+    return pdBudgets[usage.ordinal()];
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("Endpoint group closed");
+    }
+  }
+
+  private synchronized ScheduledExecutorService getPoolExecutor() {
+    checkOpen();
+    if (poolExecutor == null) {
+      poolExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "jnvmf-buffer-pool");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return poolExecutor;
+  }
+
+  private static Runnable trimTask(PdMemoryPool bufferPool) {
+    return () -> {
+      try {
+        bufferPool.trim();
+      } catch (IOException exception) {
+        /* an exception would cancel the task, the next trim tries again */
+      }
+    };
+  }
+
+  BufferPoolConfiguration getBufferPoolConfiguration() {
+    return bufferPoolConfiguration;
+  }
+
+  RegistrationCache getRegistrationCache(NvmfRdmaEndpoint endpoint) {
+    return registrationCaches.computeIfAbsent(endpoint.getPd(),
+        pd -> new RegistrationCache(new PdMemoryPool.PdRegistrar(pd)));
+  }
+
+  /* null if the device does not support implicit on-demand paging */
+  OnDemandRegistration getOnDemandRegistration(NvmfRdmaEndpoint endpoint) {
+    return onDemandRegistrations.computeIfAbsent(endpoint.getPd(),
+        pd -> Optional.ofNullable(OnDemandRegistration.register(pd))).orElse(null);
+  }
+
+  KeyedNativeBuffer wrapMemory(NvmfRdmaEndpoint endpoint, ByteBuffer buffer)
+      throws IOException {
+    RegistrationMode mode = registrationMode;
+    if (mode != RegistrationMode.CACHED) {
+      OnDemandRegistration onDemandRegistration = getOnDemandRegistration(endpoint);
+      if (onDemandRegistration != null) {
+        return onDemandRegistration.wrap(buffer);
+      }
+      if (mode == RegistrationMode.ON_DEMAND) {
+        throw new IOException("Device does not support implicit on-demand paging");
+      }
+    }
+    return getRegistrationCache(endpoint).register(buffer);
+  }
+
+  RegistrationMode getRegistrationMode() {
+    return registrationMode;
+  }
+
+  void setRegistrationMode(RegistrationMode registrationMode) {
+    if (registrationMode == null) {
+      throw new IllegalArgumentException("Registration mode null");
+    }
+    this.registrationMode = registrationMode;
+  }
+
+  @Override
+  public synchronized void close() throws IOException, InterruptedException {
+    closed = true;
+    /* cached registrations have to be gone before the protection domains */
+    for (RegistrationCache registrationCache : registrationCaches.values()) {
+      registrationCache.free();
+    }
+    for (Optional<OnDemandRegistration> onDemandRegistration : onDemandRegistrations.values()) {
+      if (onDemandRegistration.isPresent()) {
+        onDemandRegistration.get().free();
+      }
+    }
+    if (poolExecutor != null) {
+      /* cancels the trim tasks */
+      poolExecutor.shutdown();
+      /* a registration in progress has to finish before we free the pools */
+      poolExecutor.awaitTermination(POOL_EXECUTOR_TERMINATION_TIMEOUT_MS,
+          TimeUnit.MILLISECONDS);
+    }
+    for (PdMemoryPool bufferPool : bufferPools.values()) {
+      bufferPool.free();
+    }
+    super.close();
+  }
 }
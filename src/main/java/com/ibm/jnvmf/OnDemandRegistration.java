@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.jnvmf;
+
+import com.ibm.disni.verbs.IbvContext;
+import com.ibm.disni.verbs.IbvMr;
+import com.ibm.disni.verbs.IbvPd;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class OnDemandRegistration implements Freeable {
+
+  /*
+   * Implicit on-demand paging (ODP) memory region of a protection domain: it
+   * covers the whole address space of the process and the NIC resolves (and
+   * faults in) pages when it accesses them, i.e. any direct buffer can be used
+   * for I/O with the keys of this region without registering it and without
+   * pinning its memory. The first access to a page not yet mapped by the NIC
+   * is slower (page fault handled by the driver).
+   */
+
+  private static final int ACCESS = IbvMr.IBV_ACCESS_LOCAL_WRITE
+      | IbvMr.IBV_ACCESS_REMOTE_READ
+      | IbvMr.IBV_ACCESS_REMOTE_WRITE
+      | IbvMr.IBV_ACCESS_ON_DEMAND;
+  /* the controller reads and writes our buffers remotely */
+  private static final int REQUIRED_ODP_SUPPORT = IbvContext.IBV_ODP_SUPPORT_SEND
+      | IbvContext.IBV_ODP_SUPPORT_READ
+      | IbvContext.IBV_ODP_SUPPORT_WRITE;
+
+  private final IbvMr mr;
+  private final int localKey;
+  private final int remoteKey;
+  private volatile boolean valid;
+
+  private static class OnDemandBuffer extends NativeByteBuffer implements KeyedNativeBuffer {
+
+    private final OnDemandRegistration registration;
+    /* shared by a buffer and its slices */
+    private final AtomicBoolean released;
+
+    private OnDemandBuffer(ByteBuffer buffer, OnDemandRegistration registration,
+        AtomicBoolean released) {
+      super(buffer);
+      this.registration = registration;
+      this.released = released;
+    }
+
+    @Override
+    protected OnDemandBuffer construct(ByteBuffer buffer) {
+      return new OnDemandBuffer(buffer, registration, released);
+    }
+
+    private void checkValid() {
+      if (!isValid()) {
+        throw new IllegalStateException("Invalid state - freed");
+      }
+    }
+
+    @Override
+    public int getRemoteKey() {
+      checkValid();
+      return registration.remoteKey;
+    }
+
+    @Override
+    public int getLocalKey() {
+      checkValid();
+      return registration.localKey;
+    }
+
+    /* nothing to deregister */
+    @Override
+    public void free() {
+      if (!released.compareAndSet(false, true)) {
+        throw new IllegalStateException("Buffer already freed");
+      }
+    }
+
+    @Override
+    public boolean isValid() {
+      return !released.get() && registration.isValid();
+    }
+  }
+
+  private OnDemandRegistration(IbvMr mr) {
+    this.mr = mr;
+    this.localKey = mr.getLkey();
+    this.remoteKey = mr.getRkey();
+    this.valid = true;
+  }
+
+  /* null if the device does not support implicit on-demand paging */
+  static OnDemandRegistration register(IbvPd protectionDomain) {
+    try {
+      int odpSupport = protectionDomain.getContext().queryOdpSupport();
+      if (odpSupport < 0 || (odpSupport & REQUIRED_ODP_SUPPORT) != REQUIRED_ODP_SUPPORT) {
+        return null;
+      }
+      /* address 0 and length SIZE_MAX (-1) register the implicit region */
+      IbvMr mr = protectionDomain.regMr(0, -1, ACCESS).execute().free().getMr();
+      return mr == null ? null : new OnDemandRegistration(mr);
+    } catch (IOException exception) {
+      /* e.g. the driver supports explicit ODP only */
+      return null;
+    }
+  }
+
+  public KeyedNativeBuffer wrap(ByteBuffer buffer) {
+    if (!isValid()) {
+      throw new IllegalStateException("On-demand registration freed");
+    }
+    if (!buffer.isDirect()) {
+      throw new IllegalArgumentException("Buffer not direct");
+    }
+    return new OnDemandBuffer(buffer, this, new AtomicBoolean());
+  }
+
+  @Override
+  public synchronized void free() throws IOException {
+    if (valid) {
+      valid = false;
+      mr.deregMr().execute().free();
+    }
+  }
+
+  @Override
+  public boolean isValid() {
+    return valid;
+  }
+}
@@ -26,10 +26,18 @@ import java.util.concurrent.TimeoutException;
 public abstract class OperationFuture<O extends Operation, T> implements OperationCallback,
     Future<T> {
 
+  /*
+   * A future can be reused for every execution of its operation once the
+   * previous execution has completed, i.e. a command or response slot can keep
+   * its futures instead of allocating new ones per I/O.
+   */
+
   private final QueuePair queuePair;
   private RdmaException rdmaException;
   private final O operation;
   private volatile boolean done;
+  /* only modified by the thread posting the operation */
+  private boolean started;
 
   OperationFuture(QueuePair queuePair, O operation) {
     this.done = false;
@@ -46,7 +54,17 @@ public abstract class OperationFuture<O extends Operation, T> implements Operati
 
   @Override
   public void onStart() {
-    /* for now we don't allow reusing futures */
+    if (started && !done) {
+      throw new IllegalStateException("Operation still in flight");
+    }
+    this.rdmaException = null;
+    this.done = false;
+    this.started = true;
+  }
+
+  /* the operation was started but not posted */
+  void abort() {
+    this.started = false;
   }
 
   @Override
@@ -93,7 +111,7 @@ public abstract class OperationFuture<O extends Operation, T> implements Operati
   public T get() throws InterruptedException, ExecutionException {
     while (!done) {
       try {
-        queuePair.poll();
+        queuePair.waitForCompletions();
       } catch (IOException exception) {
         throw new ExecutionException(exception);
       }
@@ -111,7 +129,7 @@ public abstract class OperationFuture<O extends Operation, T> implements Operati
       boolean waitTimeOut;
       do {
         try {
-          queuePair.poll();
+          queuePair.waitForCompletions();
         } catch (IOException exception) {
           throw new ExecutionException(exception);
         }
@@ -23,38 +23,167 @@ import com.ibm.disni.verbs.IbvPd;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.Queue;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 class PdMemoryPool implements KeyedNativeBufferPool, Freeable {
 
+  /*
+   * Slab allocator of fixed size elements. Memory is registered in regions of
+   * numElementsRegion elements, every region keeps its own free elements.
+   * Allocations are served from the regions with free elements, the most
+   * recently used first, so elements concentrate on few regions and regions
+   * that become fully free again can be deregistered and returned to the
+   * allocator (we keep up to maxIdleRegions of them to absorb bursts).
+   * New regions are registered on demand until either the maximum number of
+   * regions or the (optionally shared) budget is reached, then allocations
+   * fail with an OutOfMemoryError.
+   * In front of the regions every thread caches free elements in a magazine
+   * which exchanges full and empty batches with a lock-free depot, i.e. the
+   * pool lock is only taken once per batch. Thread caches and depot are
+   * limited in bytes, i.e. large size classes cache fewer elements or none.
+   * Before an allocation fails, the elements cached by all threads and the idle
+   * regions of all pools on the same budget are reclaimed. Elements cached by
+   * threads keep their regions from becoming idle, so a pool that has not been
+   * used for a while should be trimmed (see trim).
+   */
+
+  static final int DEFAULT_THREAD_CACHE_SIZE = 32;
+  /* per thread and pool */
+  static final int MAXIMUM_THREAD_CACHE_BYTES = 256 * 1024;
+  /* number of full batches in the depot */
+  private static final int DEPOT_SIZE = 64;
+  private static final long MAXIMUM_DEPOT_BYTES = 4 * 1024 * 1024;
+
   private final IbvPd protectionDomain;
+  private final Registrar registrar;
   private final MemoryAllocator allocator;
   private final ByteOrder endianness;
   private final int elementSize;
   private final int numElementsRegion;
-  private final MemoryRegion[] regions;
-  private int numFreeRegions;
+  private final int maxRegions;
+  private boolean unsafeAccess;
+  private MemoryBudget budget;
+  private int maxIdleRegions;
+  private Executor prewarmExecutor;
+  private boolean prewarming;
+  /* half the thread cache size, 0 if threads do not cache elements */
+  private volatile int batchSize;
+  /* allocations since the last trim, races are benign */
+  private boolean used;
+
+  private final ThreadLocal<Magazine> magazines;
+  private final List<Magazine> allMagazines;
+  private volatile BoundedMpmcQueue<PoolElement[]> fullBatches;
+  private volatile BoundedMpmcQueue<PoolElement[]> emptyBatches;
+
+  private final List<MemoryRegion> regions;
+  /* regions with at least one free element */
+  private final Deque<MemoryRegion> availableRegions;
+  private int numIdleRegions;
+
+  /*
+   * Registers the memory of a region. Pools are backed by a protection domain,
+   * other registrars allow to use the pool without RDMA hardware (e.g. in
+   * microbenchmarks).
+   */
+  interface Registrar {
+
+    Registration register(NativeBuffer buffer) throws IOException;
+  }
 
-  private final Queue<KeyedNativeBuffer> freeElements;
+  interface Registration {
 
-  private class MemoryRegion {
+    int getLocalKey();
 
-    private final NativeBuffer buffer;
-    private final IbvMr mr;
+    int getRemoteKey();
 
-    private MemoryRegion(NativeBuffer buffer) throws IOException {
-      this.buffer = buffer;
+    void deregister() throws IOException;
+  }
+
+  static class PdRegistrar implements Registrar {
+
+    private final IbvPd protectionDomain;
+
+    PdRegistrar(IbvPd protectionDomain) {
+      this.protectionDomain = protectionDomain;
+    }
+
+    @Override
+    public Registration register(NativeBuffer buffer) throws IOException {
       /* TODO: allow to create memory pools for different access types */
       int access = IbvMr.IBV_ACCESS_LOCAL_WRITE
           | IbvMr.IBV_ACCESS_REMOTE_READ
           | IbvMr.IBV_ACCESS_REMOTE_WRITE;
-      this.mr = protectionDomain.regMr(buffer.toByteBuffer(), access).execute().free().getMr();
+      IbvMr mr = protectionDomain.regMr(buffer.toByteBuffer(), access).execute().free().getMr();
+      return new Registration() {
+        @Override
+        public int getLocalKey() {
+          return mr.getLkey();
+        }
+
+        @Override
+        public int getRemoteKey() {
+          return mr.getRkey();
+        }
+
+        @Override
+        public void deregister() throws IOException {
+          mr.deregMr().execute().free();
+        }
+      };
+    }
+  }
+
+  private class MemoryRegion {
+
+    private final NativeBuffer buffer;
+    private final Registration registration;
+    private final int localKey;
+    private final int remoteKey;
+    private final PoolElement[] freeElements;
+    private int numFreeElements;
+    private volatile boolean released;
+
+    private MemoryRegion(NativeBuffer buffer) throws IOException {
+      this.buffer = buffer;
+      this.registration = registrar.register(buffer);
+      this.localKey = registration.getLocalKey();
+      this.remoteKey = registration.getRemoteKey();
+      this.freeElements = new PoolElement[numElementsRegion];
+      for (int i = numElementsRegion - 1; i >= 0; i--) {
+        buffer.limit((i + 1) * elementSize);
+        buffer.position(i * elementSize);
+        ByteBuffer slice = buffer.sliceToByteBuffer();
+        slice.order(endianness);
+        freeElements[numFreeElements++] = unsafeAccess ? new UnsafeElement(slice, this)
+            : new Element(slice, this);
+      }
+    }
+
+    private PoolElement pop() {
+      PoolElement element = freeElements[--numFreeElements];
+      freeElements[numFreeElements] = null;
+      return element;
+    }
+
+    private void push(PoolElement element) {
+      freeElements[numFreeElements++] = element;
+    }
+
+    private boolean isIdle() {
+      return numFreeElements == numElementsRegion;
     }
 
     private void free() throws IOException {
-      mr.deregMr().execute().free();
-      buffer.free();
+      registration.deregister();
+      /* our element views are not used anymore */
+      allocator.release(buffer);
     }
 
     private PdMemoryPool getOuter() {
@@ -62,39 +191,113 @@ class PdMemoryPool implements KeyedNativeBufferPool, Freeable {
     }
   }
 
-  private static class Element extends NativeByteBuffer implements KeyedNativeBuffer {
+  /*
+   * Elements are reused, i.e. the buffer handed out by allocate is the same
+   * object every time the element is allocated, so allocate and free do not
+   * allocate. The generation of an element is incremented on every free so
+   * slices of an earlier allocation become invalid. The buffer itself cannot
+   * be told apart from the next allocation of the element: using it after free
+   * is a bug of the caller, e.g. freeing it again frees the new owner's buffer.
+   */
+  private interface PoolElement extends KeyedNativeBuffer {
+
+    MemoryRegion getRegion();
+
+    void allocated();
+  }
+
+  private static class Element extends NativeByteBuffer implements PoolElement {
 
     private final MemoryRegion region;
     private boolean valid;
+    private int generation;
 
     private Element(ByteBuffer buffer, MemoryRegion region) {
       super(buffer);
       this.region = region;
-      this.valid = true;
     }
 
-    private Element(Element element) {
-      this(element.toByteBuffer(), element.region);
-      clear();
+    @Override
+    public int getRemoteKey() {
+      return region.remoteKey;
+    }
+
+    @Override
+    public int getLocalKey() {
+      return region.localKey;
+    }
+
+    @Override
+    public MemoryRegion getRegion() {
+      return region;
+    }
+
+    @Override
+    public void allocated() {
+      valid = true;
+    }
+
+    @Override
+    public void free() throws IOException {
+      if (!isValid()) {
+        throw new IllegalStateException("double free buffer");
+      }
+      valid = false;
+      generation++;
+      region.getOuter().recycle(this);
+    }
+
+    @Override
+    public boolean isValid() {
+      return valid;
+    }
+
+    @Override
+    protected KeyedNativeBuffer construct(ByteBuffer buffer) {
+      return new ChildElement(this, buffer);
+    }
+  }
+
+  /* same as Element but with direct native memory accesses */
+  private static class UnsafeElement extends UnsafeNativeBuffer implements PoolElement {
+
+    private final MemoryRegion region;
+    private boolean valid;
+    private int generation;
+
+    private UnsafeElement(ByteBuffer buffer, MemoryRegion region) {
+      super(buffer);
+      this.region = region;
     }
 
     @Override
     public int getRemoteKey() {
-      return region.mr.getRkey();
+      return region.remoteKey;
     }
 
     @Override
     public int getLocalKey() {
-      return region.mr.getLkey();
+      return region.localKey;
+    }
+
+    @Override
+    public MemoryRegion getRegion() {
+      return region;
     }
 
     @Override
-    public void free() {
+    public void allocated() {
+      valid = true;
+    }
+
+    @Override
+    public void free() throws IOException {
       if (!isValid()) {
         throw new IllegalStateException("double free buffer");
       }
       valid = false;
-      region.getOuter().free(this);
+      generation++;
+      region.getOuter().recycle(this);
     }
 
     @Override
@@ -104,17 +307,19 @@ class PdMemoryPool implements KeyedNativeBufferPool, Freeable {
 
     @Override
     protected KeyedNativeBuffer construct(ByteBuffer buffer) {
-      return new ChildElement(this, buffer);
+      return new UnsafeChildElement(this, buffer);
     }
   }
 
   private static class ChildElement extends NativeByteBuffer implements KeyedNativeBuffer {
 
     private final Element parent;
+    private final int generation;
 
     ChildElement(Element parent, ByteBuffer buffer) {
       super(buffer);
       this.parent = parent;
+      this.generation = parent.generation;
     }
 
     @Override
@@ -129,22 +334,147 @@ class PdMemoryPool implements KeyedNativeBufferPool, Freeable {
 
 
     @Override
-    public void free() {
+    public void free() throws IOException {
+      if (generation != parent.generation) {
+        throw new IllegalStateException("double free buffer");
+      }
       parent.free();
     }
 
     @Override
     public boolean isValid() {
-      return parent.isValid();
+      return generation == parent.generation && parent.isValid();
+    }
+  }
+
+  private static class UnsafeChildElement extends UnsafeNativeBuffer
+      implements KeyedNativeBuffer {
+
+    private final UnsafeElement parent;
+    private final int generation;
+
+    UnsafeChildElement(UnsafeElement parent, ByteBuffer buffer) {
+      super(buffer);
+      this.parent = parent;
+      this.generation = parent.generation;
+    }
+
+    @Override
+    public int getRemoteKey() {
+      return parent.getRemoteKey();
+    }
+
+    @Override
+    public int getLocalKey() {
+      return parent.getLocalKey();
+    }
+
+    @Override
+    public void free() throws IOException {
+      if (generation != parent.generation) {
+        throw new IllegalStateException("double free buffer");
+      }
+      parent.free();
+    }
+
+    @Override
+    public boolean isValid() {
+      return generation == parent.generation && parent.isValid();
+    }
+  }
+
+  /*
+   * Per-thread cache of free elements in two batches, so a thread that
+   * alternates between allocate and free at a batch boundary does not go to
+   * the depot every time. Only the owner thread uses a magazine except when
+   * elements are reclaimed, i.e. its lock is practically uncontended.
+   */
+  private final class Magazine {
+
+    private final Thread owner;
+    private PoolElement[] current;
+    private int currentSize;
+    private PoolElement[] previous;
+    private int previousSize;
+
+    private Magazine(Thread owner) {
+      this.owner = owner;
+      this.current = new PoolElement[batchSize];
+      this.previous = new PoolElement[batchSize];
+    }
+
+    private void swap() {
+      PoolElement[] elements = current;
+      current = previous;
+      previous = elements;
+      int size = currentSize;
+      currentSize = previousSize;
+      previousSize = size;
+    }
+
+    private PoolElement allocate() throws IOException {
+      if (currentSize == 0) {
+        if (previousSize > 0) {
+          swap();
+        } else {
+          PoolElement[] batch = fullBatches.poll();
+          if (batch != null) {
+            emptyBatches.offer(current);
+            current = batch;
+            currentSize = batch.length;
+          } else {
+            currentSize = allocateFromRegions(current);
+          }
+        }
+      }
+      PoolElement element = current[--currentSize];
+      current[currentSize] = null;
+      return element;
+    }
+
+    private void free(PoolElement element) throws IOException {
+      if (currentSize == current.length) {
+        if (previousSize > 0) {
+          if (fullBatches.offer(previous)) {
+            PoolElement[] batch = emptyBatches.poll();
+            previous = batch != null ? batch : new PoolElement[batchSize];
+          } else {
+            /* the depot is full, the batch goes back to its regions */
+            freeToRegions(previous, previousSize);
+          }
+          previousSize = 0;
+        }
+        swap();
+      }
+      current[currentSize++] = element;
+    }
+
+    private void flush() throws IOException {
+      freeToRegions(current, currentSize);
+      currentSize = 0;
+      freeToRegions(previous, previousSize);
+      previousSize = 0;
     }
   }
 
   PdMemoryPool(IbvPd protectionDomain, MemoryAllocator allocator,
       int elementSize, int numElementsRegion, int numRegions, ByteOrder endianness) {
-    if (protectionDomain == null) {
-      throw new IllegalArgumentException("Protection domain null");
-    }
+    this(checkProtectionDomain(protectionDomain), new PdRegistrar(protectionDomain), allocator,
+        elementSize, numElementsRegion, numRegions, endianness);
+  }
+
+  PdMemoryPool(MemoryAllocator allocator, Registrar registrar,
+      int elementSize, int numElementsRegion, int numRegions, ByteOrder endianness) {
+    this(null, registrar, allocator, elementSize, numElementsRegion, numRegions, endianness);
+  }
+
+  private PdMemoryPool(IbvPd protectionDomain, Registrar registrar, MemoryAllocator allocator,
+      int elementSize, int numElementsRegion, int numRegions, ByteOrder endianness) {
     this.protectionDomain = protectionDomain;
+    if (registrar == null) {
+      throw new IllegalArgumentException("Registrar null");
+    }
+    this.registrar = registrar;
     if (allocator == null) {
       throw new IllegalArgumentException("Allocator null");
     }
@@ -158,67 +488,421 @@ class PdMemoryPool implements KeyedNativeBufferPool, Freeable {
       throw new IllegalArgumentException("Negative or zero number of freeElements per region");
     }
     this.numElementsRegion = numElementsRegion;
+    if ((long) elementSize * numElementsRegion > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Region size too large");
+    }
     if (numRegions < 1) {
       throw new IllegalArgumentException("Negative or zero number of regions");
     }
-    this.regions = new MemoryRegion[numRegions];
-    this.numFreeRegions = numRegions;
-    this.freeElements = new ArrayBlockingQueue<>(numElementsRegion * numRegions);
+    this.maxRegions = numRegions;
+    this.maxIdleRegions = numRegions;
+    this.regions = new ArrayList<>();
+    this.availableRegions = new ArrayDeque<>();
+    this.magazines = ThreadLocal.withInitial(this::newMagazine);
+    this.allMagazines = new CopyOnWriteArrayList<>();
+    configureThreadCache(DEFAULT_THREAD_CACHE_SIZE);
   }
 
-  synchronized void allocateRegion() throws IOException {
-    if (!freeElements.isEmpty()) {
-      return;
+  private static IbvPd checkProtectionDomain(IbvPd protectionDomain) {
+    if (protectionDomain == null) {
+      throw new IllegalArgumentException("Protection domain null");
+    }
+    return protectionDomain;
+  }
+
+  /*
+   * Elements access their native memory directly (see UnsafeNativeBuffer)
+   * instead of through a ByteBuffer. Has to be set before the first allocation.
+   */
+  synchronized void setUnsafeAccess(boolean unsafeAccess) {
+    if (!regions.isEmpty()) {
+      throw new IllegalStateException("Regions already allocated");
+    }
+    this.unsafeAccess = unsafeAccess;
+  }
+
+  synchronized boolean isUnsafeAccess() {
+    return unsafeAccess;
+  }
+
+  /*
+   * Regions are reserved from the budget before they are registered. If the
+   * budget is exhausted, memory cached by all pools on the budget is reclaimed.
+   */
+  synchronized void setBudget(MemoryBudget budget) {
+    if (!regions.isEmpty()) {
+      throw new IllegalStateException("Regions already allocated");
+    }
+    if (this.budget != null) {
+      this.budget.remove(this);
+    }
+    this.budget = budget;
+    if (budget != null) {
+      budget.add(this);
+    }
+  }
+
+  /*
+   * Maximum number of free elements cached per thread (rounded down to an even
+   * number and limited to MAXIMUM_THREAD_CACHE_BYTES), 0 disables the thread
+   * caches. Has to be set before the first allocation.
+   */
+  synchronized void setThreadCacheSize(int threadCacheSize) {
+    if (threadCacheSize < 0) {
+      throw new IllegalArgumentException("Negative thread cache size");
+    }
+    if (!regions.isEmpty() || !allMagazines.isEmpty()) {
+      throw new IllegalStateException("Elements already allocated");
+    }
+    configureThreadCache(threadCacheSize);
+  }
+
+  /* effective number of elements cached per thread */
+  int getThreadCacheSize() {
+    return batchSize * 2;
+  }
+
+  private void configureThreadCache(int threadCacheSize) {
+    int batchSize = Math.min(threadCacheSize, MAXIMUM_THREAD_CACHE_BYTES / elementSize) / 2;
+    long depotSize = DEPOT_SIZE;
+    if (batchSize > 0) {
+      depotSize = Math.max(1, Math.min(DEPOT_SIZE,
+          MAXIMUM_DEPOT_BYTES / ((long) batchSize * elementSize)));
     }
-    if (numFreeRegions > 0) {
-      NativeBuffer regionBuffer = allocator.allocate(elementSize * numElementsRegion);
-      if (regions[numFreeRegions - 1] != null) {
+    /* the queues need a power of two */
+    int capacity = Integer.highestOneBit((int) depotSize);
+    this.fullBatches = new BoundedMpmcQueue<>(capacity);
+    this.emptyBatches = new BoundedMpmcQueue<>(capacity);
+    this.batchSize = batchSize;
+  }
+
+  private Magazine newMagazine() {
+    Magazine magazine = new Magazine(Thread.currentThread());
+    allMagazines.add(magazine);
+    return magazine;
+  }
+
+  synchronized void setMaxIdleRegions(int maxIdleRegions) {
+    if (maxIdleRegions < 0) {
+      throw new IllegalArgumentException("Negative number of idle regions");
+    }
+    this.maxIdleRegions = maxIdleRegions;
+  }
+
+  /*
+   * If set, the next region is registered by the executor as soon as the
+   * last region with free elements has been used up, i.e. an allocation
+   * does not have to wait for the registration.
+   */
+  synchronized void setPrewarmExecutor(Executor prewarmExecutor) {
+    this.prewarmExecutor = prewarmExecutor;
+  }
+
+  synchronized int getNumRegions() {
+    return regions.size();
+  }
+
+  private long getRegionSize() {
+    return (long) elementSize * numElementsRegion;
+  }
+
+  private boolean canAllocateRegion() {
+    return regions.size() < maxRegions
+        && (budget == null || budget.getLimit() - budget.getUsed() >= getRegionSize());
+  }
+
+  private MemoryRegion allocateRegion() throws IOException {
+    assert Thread.holdsLock(this);
+    if (regions.size() >= maxRegions) {
+      throw new OutOfMemoryError("Cannot allocate new region - limit reached");
+    }
+    long regionSize = getRegionSize();
+    if (budget != null && !budget.reserve(regionSize)) {
+      throw new OutOfMemoryError("Cannot allocate new region - budget of "
+          + budget.getLimit() + " bytes exhausted");
+    }
+    MemoryRegion region;
+    try {
+      NativeBuffer regionBuffer = allocator.allocate((int) regionSize);
+      try {
+        region = new MemoryRegion(regionBuffer);
+      } catch (IOException | RuntimeException exception) {
         regionBuffer.free();
-        throw new RuntimeException("There is already a region allocated in this spot!?");
+        throw exception;
+      }
+    } catch (IOException | RuntimeException exception) {
+      if (budget != null) {
+        budget.release(regionSize);
       }
+      throw exception;
+    }
+    regions.add(region);
+    availableRegions.addFirst(region);
+    numIdleRegions++;
+    return region;
+  }
 
-      MemoryRegion region = new MemoryRegion(regionBuffer);
-      for (int i = 0; i < numElementsRegion; i++) {
-        regionBuffer.limit((i + 1) * elementSize);
-        regionBuffer.position(i * elementSize);
-        ByteBuffer buffer = regionBuffer.sliceToByteBuffer();
-        buffer.order(endianness);
-        freeElements.add(new Element(buffer, region));
+  /* registers regions until the pool has (at least) numRegions regions */
+  synchronized void prewarm(int numRegions) throws IOException {
+    while (regions.size() < Math.min(numRegions, maxRegions)) {
+      allocateRegion();
+    }
+  }
+
+  private void prewarmRegion() {
+    synchronized (this) {
+      try {
+        if (availableRegions.isEmpty() && canAllocateRegion()) {
+          allocateRegion();
+        }
+      } catch (IOException | OutOfMemoryError exception) {
+        /* the next allocation tries again and reports the error */
+        return;
+      } finally {
+        prewarming = false;
       }
-      regions[--numFreeRegions] = region;
-    } else {
-      throw new OutOfMemoryError("Cannot allocate new region - limit reached");
     }
   }
 
+  private PoolElement popFromRegions() throws IOException {
+    assert Thread.holdsLock(this);
+    MemoryRegion region = availableRegions.peekFirst();
+    if (region == null) {
+      region = allocateRegion();
+    }
+    if (region.isIdle()) {
+      numIdleRegions--;
+    }
+    PoolElement element = region.pop();
+    if (region.numFreeElements == 0) {
+      availableRegions.pollFirst();
+    }
+    return element;
+  }
+
+  /* null if no background prewarm is necessary */
+  private Executor needsPrewarm() {
+    assert Thread.holdsLock(this);
+    if (availableRegions.isEmpty() && prewarmExecutor != null && !prewarming
+        && canAllocateRegion()) {
+      prewarming = true;
+      return prewarmExecutor;
+    }
+    return null;
+  }
+
+  private void startPrewarm(Executor executor) {
+    if (executor != null) {
+      try {
+        executor.execute(this::prewarmRegion);
+      } catch (RejectedExecutionException exception) {
+        synchronized (this) {
+          prewarming = false;
+        }
+      }
+    }
+  }
+
+  private PoolElement allocateFromRegions() throws IOException {
+    PoolElement element;
+    Executor executor;
+    synchronized (this) {
+      element = popFromRegions();
+      executor = needsPrewarm();
+    }
+    startPrewarm(executor);
+    return element;
+  }
+
+  /*
+   * Fills the batch with free elements of the regions that have some, a new
+   * region is only registered if there are none. Returns the number of elements.
+   */
+  private int allocateFromRegions(PoolElement[] batch) throws IOException {
+    int count = 0;
+    Executor executor;
+    synchronized (this) {
+      do {
+        batch[count++] = popFromRegions();
+      } while (count < batch.length && !availableRegions.isEmpty());
+      executor = needsPrewarm();
+    }
+    startPrewarm(executor);
+    return count;
+  }
+
   public KeyedNativeBuffer allocate() throws IOException {
-    KeyedNativeBuffer element;
-    do {
-      if (freeElements.isEmpty()) {
-        allocateRegion();
+    PoolElement element;
+    try {
+      element = allocateElement();
+    } catch (OutOfMemoryError error) {
+      /* other threads or pools on the same budget might hold free memory */
+      MemoryBudget budget;
+      synchronized (this) {
+        budget = this.budget;
       }
-      element = freeElements.poll();
-    } while (element == null);
+      if (budget != null) {
+        budget.reclaim();
+      } else {
+        reclaim(true);
+      }
+      element = allocateElement();
+    }
+    element.allocated();
     return element;
   }
 
-  private void free(Element element) {
-    /* we create a new element since we don't want it to get valid again */
-    Element newElement = new Element(element);
-    newElement.order(endianness);
-    freeElements.add(newElement);
+  private PoolElement allocateElement() throws IOException {
+    used = true;
+    if (batchSize == 0) {
+      return allocateFromRegions();
+    }
+    Magazine magazine = magazines.get();
+    synchronized (magazine) {
+      return magazine.allocate();
+    }
+  }
+
+  private void recycle(PoolElement element) throws IOException {
+    element.clear();
+    element.order(endianness);
+    if (element.getRegion().released) {
+      /* pool has been freed */
+      return;
+    }
+    if (batchSize == 0) {
+      freeToRegion(element);
+    } else {
+      Magazine magazine = magazines.get();
+      synchronized (magazine) {
+        magazine.free(element);
+      }
+    }
+  }
+
+  private void freeToRegions(PoolElement[] batch, int count) throws IOException {
+    for (int i = 0; i < count; i++) {
+      PoolElement element = batch[i];
+      batch[i] = null;
+      freeToRegion(element);
+    }
+  }
+
+  private void freeToRegion(PoolElement element) throws IOException {
+    MemoryRegion region = element.getRegion();
+    synchronized (this) {
+      if (region.released) {
+        return;
+      }
+      region.push(element);
+      if (region.numFreeElements == 1) {
+        availableRegions.addFirst(region);
+      }
+      if (!region.isIdle()) {
+        return;
+      }
+      if (numIdleRegions < maxIdleRegions) {
+        numIdleRegions++;
+        return;
+      }
+      availableRegions.remove(region);
+      regions.remove(region);
+      region.released = true;
+    }
+    /* deregister outside of the lock, allocations can go on in the meantime */
+    releaseRegion(region);
+  }
+
+  /*
+   * Returns the elements cached by all threads and the depot to their regions,
+   * i.e. idle regions can be released. Magazines of terminated threads are
+   * dropped.
+   */
+  void reclaim() throws IOException {
+    reclaim(false);
+  }
+
+  /* as above, optionally also releases the idle regions we would keep otherwise */
+  void reclaim(boolean releaseIdleRegions) throws IOException {
+    for (Magazine magazine : allMagazines) {
+      synchronized (magazine) {
+        magazine.flush();
+      }
+      if (!magazine.owner.isAlive()) {
+        allMagazines.remove(magazine);
+      }
+    }
+    PoolElement[] batch;
+    while ((batch = fullBatches.poll()) != null) {
+      freeToRegions(batch, batch.length);
+      emptyBatches.offer(batch);
+    }
+    if (releaseIdleRegions) {
+      releaseIdleRegions();
+    }
+  }
+
+  private void releaseIdleRegions() throws IOException {
+    List<MemoryRegion> release = new ArrayList<>();
+    synchronized (this) {
+      for (MemoryRegion region : regions) {
+        if (region.isIdle()) {
+          region.released = true;
+          release.add(region);
+        }
+      }
+      regions.removeAll(release);
+      availableRegions.removeAll(release);
+      numIdleRegions = 0;
+    }
+    for (MemoryRegion region : release) {
+      releaseRegion(region);
+    }
+  }
+
+  /*
+   * Reclaims the elements cached by threads if there has been no allocation
+   * since the last call, i.e. regions of a pool that is no longer used become
+   * idle. Meant to be called periodically.
+   */
+  void trim() throws IOException {
+    if (!used) {
+      reclaim();
+    }
+    used = false;
   }
 
   @Override
   public void free() throws IOException {
-    for (int i = regions.length - 1; i >= numFreeRegions; i--) {
-      if (regions[i] == null) {
-        break;
+    synchronized (this) {
+      if (budget != null) {
+        budget.remove(this);
+      }
+    }
+    reclaim();
+    List<MemoryRegion> release;
+    synchronized (this) {
+      release = new ArrayList<>(regions);
+      for (MemoryRegion region : release) {
+        region.released = true;
+      }
+      regions.clear();
+      availableRegions.clear();
+      numIdleRegions = 0;
+    }
+    for (MemoryRegion region : release) {
+      releaseRegion(region);
+    }
+  }
+
+  private void releaseRegion(MemoryRegion region) throws IOException {
+    try {
+      region.free();
+    } finally {
+      if (budget != null) {
+        budget.release(getRegionSize());
       }
-      regions[i].free();
-      regions[i] = null;
     }
-    numFreeRegions = regions.length;
   }
 
   @Override
@@ -226,6 +910,7 @@ class PdMemoryPool implements KeyedNativeBufferPool, Freeable {
     return true;
   }
 
+  /* null if the pool is not backed by a protection domain */
   public IbvPd getProtectionDomain() {
     return protectionDomain;
   }
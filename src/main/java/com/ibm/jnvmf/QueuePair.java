@@ -19,6 +19,7 @@ package com.ibm.jnvmf;
 
 import com.ibm.disni.verbs.IbvMr;
 import com.ibm.disni.verbs.IbvSendWR;
+import com.ibm.disni.verbs.IbvSge;
 import com.ibm.disni.verbs.IbvWC;
 import com.ibm.disni.verbs.SVCPostSend;
 
@@ -26,19 +27,34 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 // TODO check valid on public methods
 
 public abstract class QueuePair implements Freeable {
 
   private static final int POLL_CQ_BATCHSIZE = 32;
+  public static final int DEFAULT_WAIT_SPIN_COUNT = 1000;
+  /* upper bound for a single blocking wait so callers can check timeouts */
+  private static final int WAIT_TIMEOUT_MS = 10;
+  public static final int MIN_DATA_BUFFER_SIZE = 512;
+  public static final int MAX_DATA_BUFFER_SIZE = 1 << 30;
+
+  public enum CompletionWait {
+    /* busy poll the completion queue */
+    POLL,
+    /* block on the completion channel after waitSpinCount empty polls */
+    EVENT
+  }
 
   private boolean valid;
 
@@ -59,9 +75,35 @@ public abstract class QueuePair implements Freeable {
   /* Command Identifier -> Command */
   private final Command[] commandMap;
 
-  private final Queue<Short> freeCommandId;
-
+  private final CommandIdentifierAllocator commandIdentifierAllocator;
+
+  /*
+   * Only every sendSignalInterval-th send is signaled. A signaled send completion
+   * implies that all sends posted before it have completed, an unsignaled send
+   * is also known to be complete once its response has been received.
+   * The work request id of a send is its sequence number and CID.
+   */
+  private volatile int sendSignalInterval;
+  private final AtomicLong postedSends;
+  private volatile long reapedSends;
+  /* send sequence number % submission queue size -> CID */
+  private final int[] sendRing;
+  /* CID -> sequence number of the send */
+  private final long[] sendSequences;
+  /* CID -> send signaled */
+  private final boolean[] sendSignaled;
+
+  private final SharedCompletionQueue sharedCompletionQueue;
   private ThreadLocal<NvmfRdmaEndpoint.PollCq> pollCq;
+  /* if set only this thread polls the queue pair */
+  private volatile Thread pollingThread;
+  private volatile CompletionWait completionWait;
+  private volatile int waitSpinCount;
+  private CqNotification cqNotification;
+  /* batch size -> chained work request list */
+  private final ThreadLocal<BatchPostSend[]> batchPostSends;
+  /* the batch templates of all threads, freed with the queue pair */
+  private final Queue<BatchPostSend[]> allBatchPostSends;
 
   FabricsConnectResponseCqe connect(long timeout, TimeUnit timeoutUnit) throws IOException {
     NativeBuffer buffer = new NativeByteBuffer(
@@ -80,15 +122,21 @@ public abstract class QueuePair implements Freeable {
     } catch (Exception exception) {
       throw new IOException(exception);
     }
-    this.commandBufferPool = endpoint.getBufferPool(maxCommandCapsuleSize);
+    this.commandBufferPool = endpoint.getBufferPool(maxCommandCapsuleSize,
+        BufferPoolConfiguration.Usage.COMMAND_CAPSULE);
     this.rdmaReceives = endpoint.getRdmaReceives();
-    pollCq = ThreadLocal.withInitial(() -> {
-      try {
-        return endpoint.new PollCq(POLL_CQ_BATCHSIZE);
-      } catch (IOException exception) {
-        throw new IllegalStateException(exception);
-      }
-    });
+    if (sharedCompletionQueue != null) {
+      sharedCompletionQueue.add(this, endpoint.getQp().getQp_num());
+    } else {
+      pollCq = ThreadLocal.withInitial(() -> {
+        try {
+          return new NvmfRdmaEndpoint.PollCq(endpoint.getCqProvider().getCQ(),
+              POLL_CQ_BATCHSIZE);
+        } catch (IOException exception) {
+          throw new IllegalStateException(exception);
+        }
+      });
+    }
 
     /* Send fabrics connect command */
     ByteBuffer dataBuffer = ByteBuffer.allocateDirect(FabricsConnectCommandData.SIZE);
@@ -124,25 +172,29 @@ public abstract class QueuePair implements Freeable {
     connectCommand.free();
     registeredDataBuffer.free();
     FabricsConnectResponseCqe cqe = responseCapsule.getCompletionQueueEntry();
-    if (!cqe.getStatusCode().equals(GenericStatusCode.getInstance().SUCCESS)) {
+    if (!cqe.isSuccess()) {
       throw new UnsuccessfulComandException(cqe);
     } /* TODO invalid parameter exception */
     return cqe;
   }
 
   QueuePair(Controller controller, QueueId queueId, short submissionQueueSize) throws IOException {
-    this(controller, queueId, submissionQueueSize, 0, 0, 0);
+    this(controller, queueId, submissionQueueSize, 0, 0, 0, null);
   }
 
   QueuePair(Controller controller, QueueId queueId, short submissionQueueSize,
-      int additionalSgls, int inCapsuleDataSize, int maxInlineSize) throws IOException {
+      int additionalSgls, int inCapsuleDataSize, int maxInlineSize,
+      SharedCompletionQueue sharedCompletionQueue) throws IOException {
     this.controller = controller;
     this.queueId = queueId;
     this.endpoint = controller.getEndpointGroup().createEndpoint();
     this.endpoint.setCqSize(2 * submissionQueueSize);
+    this.sharedCompletionQueue = sharedCompletionQueue;
+    this.endpoint.setSharedCompletionQueue(sharedCompletionQueue);
     this.endpoint.setRqSize(submissionQueueSize);
     this.endpoint.setSqSize(submissionQueueSize);
     this.endpoint.setInlineDataSize(maxInlineSize);
+    this.endpoint.setUnsafeBufferAccess(controller.isUnsafeBufferAccess());
     this.submissionQueueSize = submissionQueueSize;
 
     this.responseMap = new Response[submissionQueueSize];
@@ -154,17 +206,23 @@ public abstract class QueuePair implements Freeable {
       throw new IllegalArgumentException("inCapsuleDataSize negative");
     }
     this.inCapsuleDataSize = inCapsuleDataSize;
+    /* in-capsule data can be sent from a buffer outside of the capsule (2nd SGE) */
+    this.endpoint.setMaxSendSge(inCapsuleDataSize > 0 ? 2 : 1);
     if (maxInlineSize < 0) {
       throw new IllegalArgumentException("maxInlineSize negative");
     }
     if (additionalSgls > 0) {
       IdentifyControllerData identifyControllerData = controller.getIdentifyControllerData();
-      /* A value of 0 maximum SGL data block descriptors indicates no limit */
-      if ((additionalSgls + 1) > identifyControllerData.getMaximumSglDataBlockDescriptors()
-          && identifyControllerData.getMaximumSglDataBlockDescriptors() != 0) {
+      /*
+       * With additional SGLs SGL descriptor 1 is a last segment descriptor, i.e. all
+       * data block descriptors are additional SGLs.
+       * A value of 0 maximum SGL data block descriptors indicates no limit
+       */
+      int maximumSglDataBlockDescriptors =
+          identifyControllerData.getMaximumSglDataBlockDescriptors() & 0xFF;
+      if (additionalSgls > maximumSglDataBlockDescriptors && maximumSglDataBlockDescriptors != 0) {
         throw new IllegalArgumentException("Controller only supports "
-            + (identifyControllerData.getMaximumSglDataBlockDescriptors() - 1)
-            + " additional SGLs not " + additionalSgls);
+            + maximumSglDataBlockDescriptors + " additional SGLs not " + additionalSgls);
       }
     }
     this.additionalSgls = additionalSgls;
@@ -184,15 +242,36 @@ public abstract class QueuePair implements Freeable {
     this.maxCommandCapsuleSize = maxCommandCapsuleSize;
     this.commandMap = new Command[submissionQueueSize];
 
-    this.freeCommandId = new ArrayBlockingQueue<>(submissionQueueSize);
-    for (int i = 0; i < submissionQueueSize; i++) {
-      freeCommandId.add((short) i);
-    }
+    this.commandIdentifierAllocator = new CommandIdentifierAllocator(submissionQueueSize);
+    this.sendSignalInterval = 1;
+    this.completionWait = CompletionWait.POLL;
+    this.waitSpinCount = DEFAULT_WAIT_SPIN_COUNT;
+    this.postedSends = new AtomicLong();
+    this.sendRing = new int[submissionQueueSize];
+    this.sendSequences = new long[submissionQueueSize];
+    this.sendSignaled = new boolean[submissionQueueSize];
+    this.allBatchPostSends = new ConcurrentLinkedQueue<>();
+    this.batchPostSends = ThreadLocal.withInitial(() -> {
+      BatchPostSend[] threadBatchPostSends = new BatchPostSend[submissionQueueSize + 1];
+      allBatchPostSends.add(threadBatchPostSends);
+      return threadBatchPostSends;
+    });
 
+    if (sharedCompletionQueue != null) {
+      sharedCompletionQueue.reserve(endpoint.getCqSize());
+    }
     //FIXME: we don't want to introduce yet another argument to the constructor
     // we need to change the way the buffer management works and get rid of
     // additionalSgls and inCapsuleDataSize, then we can introduce a timeout arg
-    connect(10, TimeUnit.SECONDS);
+    try {
+      connect(10, TimeUnit.SECONDS);
+    } catch (IOException | RuntimeException exception) {
+      if (sharedCompletionQueue != null) {
+        sharedCompletionQueue.remove(this);
+        sharedCompletionQueue.release(endpoint.getCqSize());
+      }
+      throw exception;
+    }
     this.valid = true;
   }
 
@@ -202,10 +281,67 @@ public abstract class QueuePair implements Freeable {
     return new RdmaByteBuffer(buffer, mr);
   }
 
+  /* register with specific access flags (see IbvMr), e.g. remote read only */
+  public KeyedNativeBuffer registerMemory(ByteBuffer buffer, int access) throws IOException {
+    IbvMr mr = endpoint.getPd().regMr(buffer, access).execute().free().getMr();
+    return new RdmaByteBuffer(buffer, mr);
+  }
+
+  /*
+   * Like registerMemory but the registration is cached per protection domain,
+   * i.e. registering the same buffer again is cheap. Freeing the returned buffer
+   * does not deregister. Before freeing the memory of buffer explicitly (not by
+   * garbage collection) invalidate it, see RegistrationCache.invalidate.
+   */
+  public KeyedNativeBuffer registerMemoryCached(ByteBuffer buffer) throws IOException {
+    return getRegistrationCache().register(buffer);
+  }
+
+  public RegistrationCache getRegistrationCache() {
+    return endpoint.getRegistrationCache();
+  }
+
+  /*
+   * Make an arbitrary direct buffer usable for I/O without registering it
+   * explicitly, according to the registration mode of the controller: with
+   * implicit on-demand paging the buffer only gets the keys of the on-demand
+   * region, otherwise it is registered through the registration cache. Free
+   * the returned buffer when the I/O is done.
+   */
+  public KeyedNativeBuffer wrapMemory(ByteBuffer buffer) throws IOException {
+    return endpoint.wrapMemory(buffer);
+  }
+
+  /*
+   * Allocate a registered buffer of (at least) size bytes from the pool of its
+   * size class (powers of two starting at MIN_DATA_BUFFER_SIZE) on the protection
+   * domain of this queue pair. The limit is set to size. Freeing the buffer
+   * returns it to the pool.
+   */
+  public KeyedNativeBuffer allocateBuffer(int size) throws IOException {
+    if (size <= 0) {
+      throw new IllegalArgumentException("Size negative or zero");
+    }
+    if (size > MAX_DATA_BUFFER_SIZE) {
+      throw new IllegalArgumentException("Size too large (" + size + " > "
+          + MAX_DATA_BUFFER_SIZE + ")");
+    }
+    int sizeClass = size <= MIN_DATA_BUFFER_SIZE ? MIN_DATA_BUFFER_SIZE
+        : Integer.highestOneBit(size - 1) << 1;
+    KeyedNativeBuffer buffer = endpoint.getBufferPool(sizeClass,
+        BufferPoolConfiguration.Usage.DATA).allocate();
+    buffer.limit(size);
+    return buffer;
+  }
+
   int getInlineDataSize() {
     return endpoint.getInlineDataSize();
   }
 
+  public boolean isUnsafeBufferAccess() {
+    return endpoint.isUnsafeBufferAccess();
+  }
+
   SVCPostSend newPostSend(List<IbvSendWR> sendWrList) throws IOException {
     return endpoint.postSend(sendWrList);
   }
@@ -215,52 +351,260 @@ public abstract class QueuePair implements Freeable {
   }
 
   private short nextCommandIdentifier() throws IOException {
-    Short commandId;
-    boolean commandCompleted;
-    do {
-      commandId = freeCommandId.poll();
-      if (commandId == null) {
-        throw new IOException("submission queue full");
-      }
-      commandCompleted = commandMap[commandId] == null;
-      if (!commandCompleted) {
-        /*
-         * response has completed but command has not
-         * this should rarely happen
-         */
-        boolean empty = freeCommandId.isEmpty();
-        freeCommandId.add(commandId);
-        if (empty) {
-          throw new IOException("submission queue full");
-        }
-      }
-    } while (!commandCompleted);
+    int commandId = commandIdentifierAllocator.allocate();
+    if (commandId < 0) {
+      throw new IOException("submission queue full");
+    }
+    assert commandMap[commandId] == null;
     assert responseMap[commandId] == null;
-    return commandId;
+    return (short) commandId;
   }
 
-  final void post(Command command, SVCPostSend postSend, Response response) throws IOException {
+  /*
+   * Send signaling interval: only every interval-th command send generates a
+   * work completion. 1 (default) signals all sends.
+   */
+  public void setSendSignalInterval(int interval) {
+    if (interval < 1) {
+      throw new IllegalArgumentException("Send signal interval must be positive");
+    }
+    if (interval > 1 && interval > submissionQueueSize / 2) {
+      throw new IllegalArgumentException("Send signal interval " + interval
+          + " larger than half the submission queue size");
+    }
+    this.sendSignalInterval = interval;
+  }
+
+  public int getSendSignalInterval() {
+    return sendSignalInterval;
+  }
+
+  private long nextSendSequences(int count) throws IOException {
+    /* unsignaled sends occupy the send queue until a later signaled send completes */
+    if (postedSends.get() + count - reapedSends > submissionQueueSize) {
+      throw new IOException("submission queue full");
+    }
+    return postedSends.getAndAdd(count);
+  }
+
+  private void prepareSend(SVCPostSend.SendWRMod wrMod, Command command, short commandId,
+      long sequence) throws IOException {
+    int interval = sendSignalInterval;
+    boolean signaled = interval == 1 || sequence % interval == interval - 1;
+    int sendFlags = command.getWorkRequest().getSend_flags();
+    if (signaled) {
+      sendFlags |= IbvSendWR.IBV_SEND_SIGNALED;
+    } else {
+      sendFlags &= ~IbvSendWR.IBV_SEND_SIGNALED;
+    }
+    sendRing[(int) (sequence % submissionQueueSize)] = commandId;
+    sendSequences[commandId] = sequence;
+    sendSignaled[commandId] = signaled;
+    wrMod.setWr_id((sequence << Short.SIZE) | (commandId & 0xFFFF));
+    wrMod.setSend_flags(sendFlags);
+  }
+
+  /* a future that is still in flight cannot be started again */
+  private static void start(Command command, Response response) {
     command.getCallback().onStart();
-    response.getCallback().onStart();
-    short commandId = nextCommandIdentifier();
+    try {
+      response.getCallback().onStart();
+    } catch (RuntimeException exception) {
+      abort(command);
+      throw exception;
+    }
+  }
+
+  /* the operation has been started but was not posted */
+  private static void abort(Operation operation) {
+    OperationCallback callback = operation.getCallback();
+    if (callback instanceof OperationFuture) {
+      ((OperationFuture<?, ?>) callback).abort();
+    }
+  }
+
+  private static void abort(Command[] commands, Response[] responses, int count) {
+    for (int i = 0; i < count; i++) {
+      abort(commands[i]);
+      abort(responses[i]);
+    }
+  }
+
+  final void post(Command command, SVCPostSend postSend, Response response) throws IOException {
+    start(command, response);
+    final long sequence;
+    short commandId;
+    try {
+      sequence = nextSendSequences(1);
+      try {
+        commandId = nextCommandIdentifier();
+      } catch (IOException exception) {
+        postedSends.decrementAndGet();
+        throw exception;
+      }
+    } catch (IOException exception) {
+      abort(command);
+      abort(response);
+      throw exception;
+    }
     command.setCommandId(commandId);
     responseMap[commandId] = response;
     commandMap[commandId] = command;
-    postSend.getWrMod(0).setWr_id(commandId);
+    prepareSend(postSend.getWrMod(0), command, commandId, sequence);
     postSend.execute();
   }
 
+  private static class BatchPostSend {
+
+    private final SVCPostSend postSend;
+    private final int[] numSges;
+
+    BatchPostSend(SVCPostSend postSend, int[] numSges) {
+      this.postSend = postSend;
+      this.numSges = numSges;
+    }
+  }
+
+  private BatchPostSend getBatchPostSend(Command[] commands, int count) throws IOException {
+    BatchPostSend[] batchPostSends = this.batchPostSends.get();
+    BatchPostSend batchPostSend = batchPostSends[count];
+    if (batchPostSend != null) {
+      int matching = 0;
+      while (matching < count
+          && batchPostSend.numSges[matching] == commands[matching].getWorkRequest().getNum_sge()) {
+        matching++;
+      }
+      if (matching == count) {
+        return batchPostSend;
+      }
+      batchPostSend.postSend.free();
+    }
+    /* The number of SGEs of a work request cannot be modified, so we build
+     * a new template whenever the SGE layout of the batch changes */
+    List<IbvSendWR> sendWrList = new ArrayList<>(count);
+    int[] numSges = new int[count];
+    for (int i = 0; i < count; i++) {
+      IbvSendWR commandWr = commands[i].getWorkRequest();
+      LinkedList<IbvSge> sgList = new LinkedList<>();
+      for (int j = 0; j < commandWr.getNum_sge(); j++) {
+        sgList.add(new IbvSge());
+      }
+      IbvSendWR wr = new IbvSendWR();
+      wr.setSg_list(sgList);
+      wr.setNum_sge(commandWr.getNum_sge());
+      wr.setOpcode(commandWr.getOpcode());
+      wr.setSend_flags(commandWr.getSend_flags());
+      sendWrList.add(wr);
+      numSges[i] = commandWr.getNum_sge();
+    }
+    batchPostSend = new BatchPostSend(newPostSend(sendWrList), numSges);
+    batchPostSends[count] = batchPostSend;
+    return batchPostSend;
+  }
+
+  private void rollbackCommandIdentifier(Command command) {
+    short commandId = command.getCommandCapsule().getSubmissionQueueEntry().getCommandIdentifier();
+    if (commandMap[commandId] == command) {
+      commandMap[commandId] = null;
+      responseMap[commandId] = null;
+      commandIdentifierAllocator.complete(commandId, CommandIdentifierAllocator.SEND);
+      commandIdentifierAllocator.complete(commandId, CommandIdentifierAllocator.RESPONSE);
+    }
+  }
+
+  /*
+   * Post the first count commands with a single post send, i.e. one doorbell for
+   * all commands. Command i is completed with response i.
+   */
+  public final void postBatch(Command[] commands, Response[] responses, int count)
+      throws IOException {
+    if (count <= 0 || count > commands.length || count > responses.length) {
+      throw new IllegalArgumentException("Invalid count " + count);
+    }
+    if (count > submissionQueueSize) {
+      throw new IllegalArgumentException("Batch larger than submission queue size");
+    }
+    SVCPostSend postSend = getBatchPostSend(commands, count).postSend;
+    int started = 0;
+    try {
+      for (; started < count; started++) {
+        start(commands[started], responses[started]);
+      }
+    } catch (RuntimeException exception) {
+      abort(commands, responses, started);
+      throw exception;
+    }
+    long sequence;
+    try {
+      sequence = nextSendSequences(count);
+    } catch (IOException exception) {
+      abort(commands, responses, count);
+      throw exception;
+    }
+    for (int i = 0; i < count; i++) {
+      Command command = commands[i];
+      Response response = responses[i];
+      short commandId;
+      try {
+        commandId = nextCommandIdentifier();
+      } catch (IOException exception) {
+        /* nothing has been posted yet, give back the CIDs we already got */
+        for (int j = 0; j < i; j++) {
+          rollbackCommandIdentifier(commands[j]);
+        }
+        postedSends.addAndGet(-count);
+        abort(commands, responses, count);
+        throw exception;
+      }
+      command.setCommandId(commandId);
+      responseMap[commandId] = response;
+      commandMap[commandId] = command;
+
+      IbvSendWR commandWr = command.getWorkRequest();
+      SVCPostSend.SendWRMod wrMod = postSend.getWrMod(i);
+      prepareSend(wrMod, command, commandId, sequence + i);
+      for (int j = 0; j < commandWr.getNum_sge(); j++) {
+        IbvSge sge = commandWr.getSge(j);
+        SVCPostSend.SgeMod sgeMod = wrMod.getSgeMod(j);
+        sgeMod.setAddr(sge.getAddr());
+        sgeMod.setLength(sge.getLength());
+        sgeMod.setLkey(sge.getLkey());
+      }
+    }
+    postSend.execute();
+  }
+
+  private void completeSend(int commandId) {
+    Command command = commandMap[commandId];
+    commandMap[commandId] = null;
+    commandIdentifierAllocator.complete(commandId, CommandIdentifierAllocator.SEND);
+    command.getCallback().onComplete();
+  }
+
   private final void handleSendWc(IbvWC wc) throws IOException {
-    int wrId = (int) wc.getWr_id();
-    Command command = commandMap[wrId];
+    long wrId = wc.getWr_id();
+    int commandId = (int) (wrId & 0xFFFF);
+    long sequence = wrId >>> Short.SIZE;
+    /* all unsignaled sends posted before this one are complete */
+    for (long reaped = reapedSends; reaped < sequence; reaped++) {
+      int unsignaledId = sendRing[(int) (reaped % submissionQueueSize)];
+      if (sendSequences[unsignaledId] == reaped && commandMap[unsignaledId] != null) {
+        completeSend(unsignaledId);
+      }
+    }
+    if (sequence >= reapedSends) {
+      reapedSends = sequence + 1;
+    }
+    Command command = commandMap[commandId];
     if (command == null) {
-      throw new IOException("No command with CID " + wrId);
+      throw new IOException("No command with CID " + commandId);
     }
-    commandMap[wrId] = null;
     if (wc.getStatus() != IbvWC.IbvWcStatus.IBV_WC_SUCCESS.ordinal()) {
+      commandMap[commandId] = null;
+      commandIdentifierAllocator.complete(commandId, CommandIdentifierAllocator.SEND);
       command.getCallback().onFailure(RdmaException.fromInteger(wc.getOpcode(), wc.getStatus()));
     } else {
-      command.getCallback().onComplete();
+      completeSend(commandId);
     }
   }
 
@@ -278,7 +622,7 @@ public abstract class QueuePair implements Freeable {
       RdmaRecv receive = rdmaReceives[(int) wc.getWr_id()];
       KeyedNativeBuffer buffer = receive.getBuffer();
       /* 1) extract CID */
-      short commandId = CompletionQueueEntry.getCommandIdentifier(buffer);
+      int commandId = CompletionQueueEntry.getCommandIdentifier(buffer) & 0xFFFF;
       /* 2) remove response and update */
       Response response = responseMap[commandId];
       if (response == null) {
@@ -288,27 +632,134 @@ public abstract class QueuePair implements Freeable {
       response.update(buffer);
       /* 3) Resubmit and add to free receives */
       receive.execute();
-      freeCommandId.add(commandId);
+      /* 4) the target received the command so an unsignaled send is complete */
+      if (!sendSignaled[commandId] && commandMap[commandId] != null) {
+        completeSend(commandId);
+      }
+      commandIdentifierAllocator.complete(commandId, CommandIdentifierAllocator.RESPONSE);
       response.getCallback().onComplete();
     }
   }
 
+  final void handleWorkCompletion(IbvWC wc) throws IOException {
+    int opcode = wc.getOpcode();
+    if (opcode == IbvWC.IbvWcOpcode.IBV_WC_SEND.getOpcode()) {
+      handleSendWc(wc);
+    } else if (opcode == IbvWC.IbvWcOpcode.IBV_WC_RECV.getOpcode()) {
+      handleReceiveWc(wc);
+    }
+  }
+
+  /*
+   * If the queue pair uses a shared completion queue this polls the shared
+   * completion queue, i.e. completions of other queue pairs are processed as well.
+   */
   public int poll() throws IOException {
+    Thread pollingThread = this.pollingThread;
+    if (pollingThread != null && pollingThread != Thread.currentThread()) {
+      return 0;
+    }
+    if (sharedCompletionQueue != null) {
+      return sharedCompletionQueue.poll();
+    }
     NvmfRdmaEndpoint.PollCq pollCq = this.pollCq.get();
     int polls = pollCq.execute().getPolls();
     IbvWC[] wcs = pollCq.getWorkCompletions();
     for (int i = 0; i < polls; i++) {
-      IbvWC wc = wcs[i];
-      int opcode = wc.getOpcode();
-      if (opcode == IbvWC.IbvWcOpcode.IBV_WC_SEND.getOpcode()) {
-        handleSendWc(wc);
-      } else if (opcode == IbvWC.IbvWcOpcode.IBV_WC_RECV.getOpcode()) {
-        handleReceiveWc(wc);
-      }
+      handleWorkCompletion(wcs[i]);
     }
     return polls;
   }
 
+  private synchronized CqNotification getCqNotification() {
+    if (sharedCompletionQueue != null) {
+      return sharedCompletionQueue.getCqNotification();
+    }
+    if (cqNotification == null) {
+      cqNotification = new CqNotification(endpoint.getCqProvider().getCQ());
+    }
+    return cqNotification;
+  }
+
+  /*
+   * Poll for completions. With CompletionWait.EVENT block on the completion
+   * channel if there still are no completions after waitSpinCount polls.
+   * Returns the number of completions processed which can be 0 if the wait
+   * timed out. Futures wait for completions with this method.
+   */
+  public int waitForCompletions() throws IOException {
+    int polls = poll();
+    if (polls > 0 || completionWait == CompletionWait.POLL) {
+      return polls;
+    }
+    Thread pollingThread = this.pollingThread;
+    if (pollingThread != null && pollingThread != Thread.currentThread()) {
+      /* completions are processed by another thread */
+      return 0;
+    }
+    for (int i = 0; i < waitSpinCount; i++) {
+      polls = poll();
+      if (polls > 0) {
+        return polls;
+      }
+    }
+    CqNotification cqNotification = getCqNotification();
+    synchronized (cqNotification) {
+      cqNotification.arm();
+      /* completions might have arrived before the notification was armed */
+      polls = poll();
+      if (polls > 0) {
+        return polls;
+      }
+      cqNotification.await(WAIT_TIMEOUT_MS);
+    }
+    return poll();
+  }
+
+  public void setCompletionWait(CompletionWait completionWait) {
+    if (completionWait == null) {
+      throw new IllegalArgumentException("Completion wait null");
+    }
+    this.completionWait = completionWait;
+  }
+
+  public CompletionWait getCompletionWait() {
+    return completionWait;
+  }
+
+  /* number of empty polls before blocking with CompletionWait.EVENT */
+  public void setWaitSpinCount(int waitSpinCount) {
+    if (waitSpinCount < 0) {
+      throw new IllegalArgumentException("Wait spin count negative");
+    }
+    this.waitSpinCount = waitSpinCount;
+  }
+
+  public int getWaitSpinCount() {
+    return waitSpinCount;
+  }
+
+  void setPollingThread(Thread pollingThread) {
+    this.pollingThread = pollingThread;
+  }
+
+  Thread getPollingThread() {
+    return pollingThread;
+  }
+
+  boolean hasOutstandingCommands() {
+    return commandIdentifierAllocator.getNumInUse() > 0;
+  }
+
+  /* fail all outstanding asynchronous commands, e.g. if polling failed */
+  void failAsyncResponses(Throwable throwable) {
+    for (Response response : responseMap) {
+      if (response != null && response.getCallback() instanceof AsyncCompletion) {
+        ((AsyncCompletion) response.getCallback()).fail(throwable);
+      }
+    }
+  }
+
   public Controller getController() {
     return controller;
   }
@@ -327,10 +778,34 @@ public abstract class QueuePair implements Freeable {
       }
       Arrays.fill(commandMap, null);
       Arrays.fill(responseMap, null);
+      freeBatchPostSends();
+      /*
+       * leave the shared completion queue before closing, the flushed work
+       * completions of our receives are dropped by the shared completion queue
+       */
+      if (sharedCompletionQueue != null) {
+        sharedCompletionQueue.remove(this);
+      }
       try {
         endpoint.close();
       } catch (InterruptedException exception) {
         throw new IOException(exception);
+      } finally {
+        if (sharedCompletionQueue != null) {
+          sharedCompletionQueue.release(endpoint.getCqSize());
+        }
+      }
+    }
+  }
+
+  private void freeBatchPostSends() throws IOException {
+    BatchPostSend[] threadBatchPostSends;
+    while ((threadBatchPostSends = allBatchPostSends.poll()) != null) {
+      for (int i = 0; i < threadBatchPostSends.length; i++) {
+        if (threadBatchPostSends[i] != null) {
+          threadBatchPostSends[i].postSend.free();
+          threadBatchPostSends[i] = null;
+        }
       }
     }
   }
@@ -347,5 +822,9 @@ public abstract class QueuePair implements Freeable {
   public short getSubmissionQueueSize() {
     return submissionQueueSize;
   }
+
+  public SharedCompletionQueue getSharedCompletionQueue() {
+    return sharedCompletionQueue;
+  }
 }
 
@@ -0,0 +1,407 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.jnvmf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class RegistrationCache implements Freeable {
+
+  /*
+   * Caches memory registrations of user buffers per protection domain, i.e.
+   * registering the same buffer (or a slice of it) again does not register
+   * memory. A registration covers the whole buffer (address to capacity) and
+   * keeps a reference to it, so the memory cannot be reused while registered.
+   * Registrations which are not in use are deregistered in least recently used
+   * order to stay within a budget of registered (pinned) bytes. If the budget
+   * does not allow caching, the buffer is registered uncached.
+   * Since the cache references registered buffers, their memory is not freed by
+   * the garbage collector. Memory freed explicitly (e.g. with Netty's
+   * PlatformDependent.freeDirectBuffer or by unmapping a file mapping) however
+   * stays registered, and a buffer later allocated at the same address would
+   * hit the stale registration. Such memory has to be invalidated before it is
+   * freed.
+   */
+
+  public static final long DEFAULT_PINNED_BYTES_BUDGET = 1L << 30;
+
+  private final PdMemoryPool.Registrar registrar;
+  /* registrations by start address */
+  private final TreeMap<Long, Entry> entries;
+  /* registrations not in use, least recently used first */
+  private final LinkedHashSet<Entry> unused;
+  /* invalidated registrations still in use, deregistered once released */
+  private final Set<Entry> invalidated;
+  /* size of the largest registration ever cached, bounds the lookup */
+  private long maximumEntrySize;
+  private long pinnedBytes;
+  /* bytes of the registrations not in use, i.e. which can be evicted */
+  private long unusedBytes;
+  private long pinnedBytesBudget;
+  private long hits;
+  private long misses;
+  private boolean valid;
+
+  private static class Entry {
+
+    private final ByteBuffer buffer;
+    private final long start;
+    private final long end;
+    private final PdMemoryPool.Registration registration;
+    private final int localKey;
+    private final int remoteKey;
+    private int references;
+
+    private Entry(ByteBuffer buffer, long start, long end,
+        PdMemoryPool.Registration registration) {
+      this.buffer = buffer;
+      this.start = start;
+      this.end = end;
+      this.registration = registration;
+      this.localKey = registration.getLocalKey();
+      this.remoteKey = registration.getRemoteKey();
+    }
+
+    private long size() {
+      return end - start;
+    }
+  }
+
+  /* shared by a buffer and its slices */
+  private class Handle {
+
+    private final Entry entry;
+    /* registration if not cached */
+    private final PdMemoryPool.Registration registration;
+    private final int localKey;
+    private final int remoteKey;
+    private final AtomicBoolean released;
+
+    private Handle(Entry entry) {
+      this.entry = entry;
+      this.registration = null;
+      this.localKey = entry.localKey;
+      this.remoteKey = entry.remoteKey;
+      this.released = new AtomicBoolean();
+    }
+
+    private Handle(PdMemoryPool.Registration registration) {
+      this.entry = null;
+      this.registration = registration;
+      this.localKey = registration.getLocalKey();
+      this.remoteKey = registration.getRemoteKey();
+      this.released = new AtomicBoolean();
+    }
+
+    private void release() throws IOException {
+      if (!released.compareAndSet(false, true)) {
+        throw new IllegalStateException("Buffer already freed");
+      }
+      if (entry != null) {
+        RegistrationCache.this.release(entry);
+      } else {
+        registration.deregister();
+      }
+    }
+  }
+
+  private static class CachedBuffer extends NativeByteBuffer implements KeyedNativeBuffer {
+
+    private final Handle handle;
+
+    private CachedBuffer(ByteBuffer buffer, Handle handle) {
+      super(buffer);
+      this.handle = handle;
+    }
+
+    @Override
+    protected CachedBuffer construct(ByteBuffer buffer) {
+      return new CachedBuffer(buffer, handle);
+    }
+
+    private void checkValid() {
+      if (!isValid()) {
+        throw new IllegalStateException("Invalid state - freed");
+      }
+    }
+
+    @Override
+    public int getRemoteKey() {
+      checkValid();
+      return handle.remoteKey;
+    }
+
+    @Override
+    public int getLocalKey() {
+      checkValid();
+      return handle.localKey;
+    }
+
+    /* the registration stays cached */
+    @Override
+    public void free() throws IOException {
+      handle.release();
+    }
+
+    @Override
+    public boolean isValid() {
+      return !handle.released.get();
+    }
+  }
+
+  RegistrationCache(PdMemoryPool.Registrar registrar) {
+    if (registrar == null) {
+      throw new IllegalArgumentException("Registrar null");
+    }
+    this.registrar = registrar;
+    this.entries = new TreeMap<>();
+    this.unused = new LinkedHashSet<>();
+    this.invalidated = new HashSet<>();
+    this.pinnedBytesBudget = DEFAULT_PINNED_BYTES_BUDGET;
+    this.valid = true;
+  }
+
+  /*
+   * Returns a registered buffer sharing content, position and limit with buffer.
+   * Freeing it releases the registration which stays cached until evicted.
+   */
+  public synchronized KeyedNativeBuffer register(ByteBuffer buffer) throws IOException {
+    if (!valid) {
+      throw new IllegalStateException("Registration cache freed");
+    }
+    if (!buffer.isDirect()) {
+      throw new IllegalArgumentException("Buffer not direct");
+    }
+    NativeByteBuffer nativeBuffer = new NativeByteBuffer(buffer);
+    long start = nativeBuffer.getAddress();
+    long end = start + buffer.capacity();
+    Entry entry = lookup(start, end);
+    if (entry != null) {
+      hits++;
+    } else {
+      misses++;
+      entry = add(nativeBuffer, start, end);
+      if (entry == null) {
+        return new CachedBuffer(buffer, new Handle(registrar.register(nativeBuffer)));
+      }
+    }
+    if (entry.references++ == 0 && unused.remove(entry)) {
+      unusedBytes -= entry.size();
+    }
+    return new CachedBuffer(buffer, new Handle(entry));
+  }
+
+  /*
+   * Registrations can overlap, e.g. a slice registered before its parent buffer,
+   * so the closest registration starting at or below start does not necessarily
+   * cover the range. Walk down until no registration could reach end anymore.
+   */
+  private Entry lookup(long start, long end) {
+    long lowestStart = end - maximumEntrySize;
+    for (Map.Entry<Long, Entry> candidate : entries.headMap(start, true)
+        .descendingMap().entrySet()) {
+      if (candidate.getKey() < lowestStart) {
+        break;
+      }
+      if (candidate.getValue().end >= end) {
+        return candidate.getValue();
+      }
+    }
+    return null;
+  }
+
+  /* returns null if the registration cannot be cached within the budget */
+  private Entry add(NativeByteBuffer buffer, long start, long end) throws IOException {
+    long size = end - start;
+    /* do not evict anything if the registrations in use leave no room */
+    if (size > pinnedBytesBudget || pinnedBytes - unusedBytes > pinnedBytesBudget - size) {
+      return null;
+    }
+    Entry existing = entries.get(start);
+    if (existing != null) {
+      /* a smaller buffer at the same address */
+      if (existing.references > 0) {
+        return null;
+      }
+      evict(existing);
+    }
+    if (!evictUntil(pinnedBytesBudget - size)) {
+      return null;
+    }
+    Entry entry = new Entry(buffer.toByteBuffer(), start, end, registrar.register(buffer));
+    entries.put(start, entry);
+    maximumEntrySize = Math.max(maximumEntrySize, size);
+    pinnedBytes += size;
+    return entry;
+  }
+
+  /* evict unused registrations until at most pinnedBytes are registered */
+  private boolean evictUntil(long pinnedBytes) throws IOException {
+    Iterator<Entry> iterator = unused.iterator();
+    while (this.pinnedBytes > pinnedBytes && iterator.hasNext()) {
+      Entry entry = iterator.next();
+      iterator.remove();
+      entries.remove(entry.start);
+      this.pinnedBytes -= entry.size();
+      unusedBytes -= entry.size();
+      entry.registration.deregister();
+    }
+    return this.pinnedBytes <= pinnedBytes;
+  }
+
+  /* entry must not be in use */
+  private void evict(Entry entry) throws IOException {
+    unused.remove(entry);
+    entries.remove(entry.start);
+    pinnedBytes -= entry.size();
+    unusedBytes -= entry.size();
+    entry.registration.deregister();
+  }
+
+  /*
+   * Deregister all cached registrations overlapping address to address + length,
+   * registrations in use once they are released. Has to be called before
+   * registered memory is freed explicitly, see above.
+   */
+  public synchronized void invalidate(long address, long length) throws IOException {
+    if (length < 0) {
+      throw new IllegalArgumentException("Length negative");
+    }
+    long end = address + length;
+    IOException exception = null;
+    /* a registration overlapping the range starts less than maximumEntrySize before it */
+    Iterator<Entry> iterator = entries.subMap(address - maximumEntrySize, false, end, false)
+        .values().iterator();
+    while (iterator.hasNext()) {
+      Entry entry = iterator.next();
+      if (entry.end <= address) {
+        continue;
+      }
+      iterator.remove();
+      if (entry.references > 0) {
+        invalidated.add(entry);
+        continue;
+      }
+      unused.remove(entry);
+      pinnedBytes -= entry.size();
+      unusedBytes -= entry.size();
+      try {
+        entry.registration.deregister();
+      } catch (IOException deregisterException) {
+        exception = deregisterException;
+      }
+    }
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
+  /* invalidate the memory of buffer, address to capacity */
+  public void invalidate(ByteBuffer buffer) throws IOException {
+    if (!buffer.isDirect()) {
+      throw new IllegalArgumentException("Buffer not direct");
+    }
+    invalidate(new NativeByteBuffer(buffer).getAddress(), buffer.capacity());
+  }
+
+  private synchronized void release(Entry entry) throws IOException {
+    if (--entry.references == 0) {
+      if (!valid) {
+        return;
+      }
+      if (!invalidated.isEmpty() && invalidated.remove(entry)) {
+        pinnedBytes -= entry.size();
+        entry.registration.deregister();
+        return;
+      }
+      unused.add(entry);
+      unusedBytes += entry.size();
+      if (pinnedBytes > pinnedBytesBudget) {
+        evictUntil(pinnedBytesBudget);
+      }
+    }
+  }
+
+  public synchronized long getPinnedBytesBudget() {
+    return pinnedBytesBudget;
+  }
+
+  /* lowering the budget evicts unused registrations */
+  public synchronized void setPinnedBytesBudget(long pinnedBytesBudget) throws IOException {
+    if (pinnedBytesBudget < 0) {
+      throw new IllegalArgumentException("Pinned bytes budget negative");
+    }
+    this.pinnedBytesBudget = pinnedBytesBudget;
+    evictUntil(pinnedBytesBudget);
+  }
+
+  public synchronized long getPinnedBytes() {
+    return pinnedBytes;
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  /* deregister all cached registrations, also the ones in use */
+  @Override
+  public synchronized void free() throws IOException {
+    if (valid) {
+      valid = false;
+      IOException exception = null;
+      for (Entry entry : entries.values()) {
+        try {
+          entry.registration.deregister();
+        } catch (IOException deregisterException) {
+          exception = deregisterException;
+        }
+      }
+      for (Entry entry : invalidated) {
+        try {
+          entry.registration.deregister();
+        } catch (IOException deregisterException) {
+          exception = deregisterException;
+        }
+      }
+      entries.clear();
+      unused.clear();
+      invalidated.clear();
+      pinnedBytes = 0;
+      unusedBytes = 0;
+      if (exception != null) {
+        throw exception;
+      }
+    }
+  }
+
+  @Override
+  public synchronized boolean isValid() {
+    return valid;
+  }
+}
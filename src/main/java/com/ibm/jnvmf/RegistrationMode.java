@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.jnvmf;
+
+/* how QueuePair.wrapMemory makes arbitrary direct buffers usable for I/O */
+public enum RegistrationMode {
+  /* implicit on-demand paging if the device supports it, otherwise CACHED */
+  AUTOMATIC,
+  /* implicit on-demand paging only, fails if the device does not support it */
+  ON_DEMAND,
+  /* explicit registration through the registration cache */
+  CACHED
+}
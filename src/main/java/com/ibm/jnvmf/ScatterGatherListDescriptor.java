@@ -50,6 +50,10 @@ abstract class ScatterGatherListDescriptor extends NativeData<NativeBuffer> {
 
     public final Value SGL_DATABLOCK = new Value(0x0);
 
+    public final Value SGL_SEGMENT = new Value(0x2);
+
+    public final Value SGL_LAST_SEGMENT = new Value(0x3);
+
     public final Value KEYED_SGL_DATABLOCK = new Value(0x4);
 
     // CHECKSTYLE_ON: MemberNameCheck
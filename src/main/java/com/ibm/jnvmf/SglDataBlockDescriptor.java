@@ -21,6 +21,7 @@ public class SglDataBlockDescriptor extends ScatterGatherListDescriptor {
 
   private static final int ADDRESS_OFFSET = 0;
   private static final int LENGTH_OFFSET = 8;
+  private static final int RESERVED_OFFSET = 12;
 
   static class SubType extends ScatterGatherListDescriptor.SubType {
 
@@ -69,6 +70,9 @@ public class SglDataBlockDescriptor extends ScatterGatherListDescriptor {
 
   void setLength(int length) {
     getBuffer().putInt(LENGTH_OFFSET, length);
+    /* clear key bytes left by a previous keyed descriptor */
+    getBuffer().putShort(RESERVED_OFFSET, (short) 0);
+    getBuffer().put(RESERVED_OFFSET + Short.BYTES, (byte) 0);
   }
 
   @Override
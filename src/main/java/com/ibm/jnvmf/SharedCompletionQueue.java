@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.jnvmf;
+
+import com.ibm.disni.RdmaCqProvider;
+import com.ibm.disni.verbs.IbvCQ;
+import com.ibm.disni.verbs.IbvContext;
+import com.ibm.disni.verbs.IbvWC;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public class SharedCompletionQueue implements Freeable {
+
+  /*
+   * A completion queue shared by multiple queue pairs (possibly of different
+   * controllers) on the same RDMA device. A single poll serves all queue pairs,
+   * work completions are dispatched to their queue pair by QP number.
+   * Like a queue pair, a shared completion queue should only be polled by one
+   * thread at a time.
+   */
+
+  private static final int POLL_CQ_BATCHSIZE = 32;
+
+  private static class Members {
+
+    private final int[] queuePairNumbers;
+    private final QueuePair[] queuePairs;
+
+    private Members(int[] queuePairNumbers, QueuePair[] queuePairs) {
+      this.queuePairNumbers = queuePairNumbers;
+      this.queuePairs = queuePairs;
+    }
+  }
+
+  private final int size;
+  private int reservedSize;
+  private volatile RdmaCqProvider cqProvider;
+  private volatile ThreadLocal<NvmfRdmaEndpoint.PollCq> pollCq;
+  private volatile Members members;
+  /* if set only this thread polls the completion queue */
+  private volatile Thread pollingThread;
+  /* work completions of queue pairs which are no (longer) members */
+  private long droppedCompletions;
+  private CqNotification cqNotification;
+  private boolean valid;
+
+  public SharedCompletionQueue(int size) {
+    if (size <= 0) {
+      throw new IllegalArgumentException("Size negative or zero");
+    }
+    this.size = size;
+    this.members = new Members(new int[0], new QueuePair[0]);
+    this.valid = true;
+  }
+
+  synchronized void reserve(int entries) {
+    if (!isValid()) {
+      throw new IllegalStateException("Completion queue freed");
+    }
+    if (reservedSize + entries > size) {
+      throw new IllegalArgumentException("Not enough completion queue entries left ("
+          + (size - reservedSize) + " < " + entries + ")");
+    }
+    reservedSize += entries;
+  }
+
+  synchronized void release(int entries) {
+    reservedSize -= entries;
+  }
+
+  synchronized RdmaCqProvider getCqProvider(IbvContext context) throws IOException {
+    if (cqProvider == null) {
+      RdmaCqProvider cqProvider = new RdmaCqProvider(context, size);
+      pollCq = ThreadLocal.withInitial(() -> {
+        try {
+          return new NvmfRdmaEndpoint.PollCq(cqProvider.getCQ(), POLL_CQ_BATCHSIZE);
+        } catch (IOException exception) {
+          throw new IllegalStateException(exception);
+        }
+      });
+      /* publish after the poll verb is ready, poll() checks cqProvider */
+      this.cqProvider = cqProvider;
+    } else if (cqProvider.getCQ().getContext().getCmd_fd() != context.getCmd_fd()) {
+      throw new IllegalArgumentException("Queue pairs sharing a completion queue "
+          + "have to be on the same device");
+    }
+    return cqProvider;
+  }
+
+  /* null if no queue pair has been connected yet */
+  IbvCQ getCq() {
+    RdmaCqProvider cqProvider = this.cqProvider;
+    return cqProvider == null ? null : cqProvider.getCQ();
+  }
+
+  synchronized CqNotification getCqNotification() {
+    if (cqNotification == null) {
+      IbvCQ cq = getCq();
+      if (cq == null) {
+        throw new IllegalStateException("No queue pair connected");
+      }
+      cqNotification = new CqNotification(cq);
+    }
+    return cqNotification;
+  }
+
+  synchronized void add(QueuePair queuePair, int queuePairNumber) {
+    Members current = members;
+    int length = current.queuePairs.length;
+    int[] queuePairNumbers = Arrays.copyOf(current.queuePairNumbers, length + 1);
+    QueuePair[] queuePairs = Arrays.copyOf(current.queuePairs, length + 1);
+    queuePairNumbers[length] = queuePairNumber;
+    queuePairs[length] = queuePair;
+    members = new Members(queuePairNumbers, queuePairs);
+  }
+
+  synchronized void remove(QueuePair queuePair) {
+    Members current = members;
+    int length = current.queuePairs.length;
+    for (int i = 0; i < length; i++) {
+      if (current.queuePairs[i] == queuePair) {
+        int[] queuePairNumbers = new int[length - 1];
+        QueuePair[] queuePairs = new QueuePair[length - 1];
+        System.arraycopy(current.queuePairNumbers, 0, queuePairNumbers, 0, i);
+        System.arraycopy(current.queuePairs, 0, queuePairs, 0, i);
+        System.arraycopy(current.queuePairNumbers, i + 1, queuePairNumbers, i, length - i - 1);
+        System.arraycopy(current.queuePairs, i + 1, queuePairs, i, length - i - 1);
+        members = new Members(queuePairNumbers, queuePairs);
+        return;
+      }
+    }
+  }
+
+  QueuePair[] getQueuePairs() {
+    return members.queuePairs.clone();
+  }
+
+  private static QueuePair lookup(Members members, int queuePairNumber) {
+    /* we only expect a handful of queue pairs per completion queue */
+    int[] queuePairNumbers = members.queuePairNumbers;
+    for (int i = 0; i < queuePairNumbers.length; i++) {
+      if (queuePairNumbers[i] == queuePairNumber) {
+        return members.queuePairs[i];
+      }
+    }
+    return null;
+  }
+
+  void setPollingThread(Thread pollingThread) {
+    this.pollingThread = pollingThread;
+  }
+
+  public int poll() throws IOException {
+    Thread pollingThread = this.pollingThread;
+    if (pollingThread != null && pollingThread != Thread.currentThread()) {
+      return 0;
+    }
+    if (cqProvider == null) {
+      /* no queue pair connected yet */
+      return 0;
+    }
+    NvmfRdmaEndpoint.PollCq pollCq = this.pollCq.get();
+    int polls = pollCq.execute().getPolls();
+    if (polls == 0) {
+      return 0;
+    }
+    IbvWC[] wcs = pollCq.getWorkCompletions();
+    Members members = this.members;
+    for (int i = 0; i < polls; i++) {
+      IbvWC wc = wcs[i];
+      QueuePair queuePair = lookup(members, wc.getQp_num());
+      if (queuePair == null) {
+        /* e.g. flushed receives of a queue pair being freed */
+        droppedCompletions++;
+        continue;
+      }
+      queuePair.handleWorkCompletion(wc);
+    }
+    return polls;
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  /* only consistent when read by the polling thread */
+  public long getDroppedCompletions() {
+    return droppedCompletions;
+  }
+
+  @Override
+  public synchronized void free() throws IOException {
+    if (isValid()) {
+      if (members.queuePairs.length > 0) {
+        throw new IllegalStateException("Completion queue still in use by "
+            + members.queuePairs.length + " queue pair(s)");
+      }
+      valid = false;
+      if (cqProvider != null) {
+        try {
+          cqProvider.close();
+        } catch (InterruptedException exception) {
+          throw new IOException(exception);
+        }
+      }
+    }
+  }
+
+  @Override
+  public synchronized boolean isValid() {
+    return valid;
+  }
+}
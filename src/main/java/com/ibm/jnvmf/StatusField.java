@@ -12,65 +12,78 @@ public class StatusField extends Updatable<NativeBuffer> {
    *
    */
 
-  private final int offset;
-
-  private static final int STATUS_CODE_OFFSET = 0;
-  private static final int STATUS_CODE_BITOFFSET_START = 1;
-  private static final int STATUS_CODE_BITOFFSET_END = 8;
-  private int rawStatusCode;
+  /*
+   * NVMe Spec 1.3a - 4.6.1.2
+   *
+   * 00    Phase Tag (reserved in NVMf)
+   * 08:01 Status Code (SC)
+   * 11:09 Status Code Type (SCT)
+   * 13:12 Reserved
+   * 14    More (M)
+   * 15    Do Not Retry (DNR)
+   *
+   * Only the raw status field is read on update, the typed status code type and
+   * status code are resolved on request. A successful completion (SCT and SC 0)
+   * is checked with a single compare.
+   */
 
-  private static final int STATUS_CODE_TYPE_OFFSET = 1;
-  private static final int STATUS_CODE_TYPE_BITOFFSET_START = 1;
-  private static final int STATUS_CODE_TYPE_BITOFFSET_END = 3;
-  private StatusCodeType.Value statusCodeType;
+  private final int offset;
 
-  private static final int MORE_OFFSET = 1;
-  private static final int MORE_BITOFFSET = 6;
-  private boolean more;
+  private static final int STATUS_CODE_BITOFFSET = 1;
+  private static final int STATUS_CODE_MASK = 0xFF;
+  private static final int STATUS_CODE_TYPE_BITOFFSET = 9;
+  private static final int STATUS_CODE_TYPE_MASK = 0x7;
+  private static final int MORE_BITOFFSET = 14;
+  private static final int DO_NOT_RETRY_BITOFFSET = 15;
+  private static final int STATUS_MASK = (STATUS_CODE_MASK << STATUS_CODE_BITOFFSET)
+      | (STATUS_CODE_TYPE_MASK << STATUS_CODE_TYPE_BITOFFSET);
 
-  private static final int DO_NOT_RETRY_OFFSET = 1;
-  private static final int DO_NOT_RETRY_BITOFFSET = 7;
-  private boolean doNotRetry;
+  private int rawStatusField;
 
   StatusField(int offset) {
     this.offset = offset;
   }
 
+  public final boolean isSuccess() {
+    return (rawStatusField & STATUS_MASK) == 0;
+  }
+
+  final int getRawStatusField() {
+    return rawStatusField;
+  }
+
+  private int getRawStatusCode() {
+    return (rawStatusField >>> STATUS_CODE_BITOFFSET) & STATUS_CODE_MASK;
+  }
+
   public final StatusCodeType.Value getStatusCodeType() {
-    return statusCodeType;
+    return StatusCodeType.getInstance().valueOf(
+        (rawStatusField >>> STATUS_CODE_TYPE_BITOFFSET) & STATUS_CODE_TYPE_MASK);
   }
 
   final StatusCode.Value getAdminStatusCode() {
-    return getStatusCodeType().adminValueOf(rawStatusCode);
+    return getStatusCodeType().adminValueOf(getRawStatusCode());
   }
 
   final StatusCode.Value getFabricsStatusCode() {
-    return getStatusCodeType().fabricsValueOf(rawStatusCode);
+    return getStatusCodeType().fabricsValueOf(getRawStatusCode());
   }
 
   final StatusCode.Value getNvmStatusCode() {
-    return getStatusCodeType().nvmValueOf(rawStatusCode);
+    return getStatusCodeType().nvmValueOf(getRawStatusCode());
   }
 
   public final boolean getMore() {
-    return more;
+    return BitUtil.getBit(rawStatusField, MORE_BITOFFSET);
   }
 
   public final boolean getDoNotRetry() {
-    return doNotRetry;
+    return BitUtil.getBit(rawStatusField, DO_NOT_RETRY_BITOFFSET);
   }
 
   @Override
   void update(NativeBuffer buffer) {
-    int b1 = buffer.get(offset + STATUS_CODE_OFFSET);
-    rawStatusCode = BitUtil.getBits(b1, STATUS_CODE_BITOFFSET_START, STATUS_CODE_BITOFFSET_END);
-    int b2 = buffer.get(offset + STATUS_CODE_TYPE_OFFSET);
-    statusCodeType =
-        StatusCodeType.getInstance().valueOf(BitUtil.getBits(b2, STATUS_CODE_TYPE_BITOFFSET_START,
-        STATUS_CODE_TYPE_BITOFFSET_END));
-    assert (MORE_OFFSET == STATUS_CODE_TYPE_OFFSET);
-    more = BitUtil.getBit(b1, MORE_BITOFFSET);
-    assert (DO_NOT_RETRY_OFFSET == STATUS_CODE_TYPE_OFFSET);
-    doNotRetry = BitUtil.getBit(b1, DO_NOT_RETRY_BITOFFSET);
+    /* the buffer is little endian (NVMf Spec 1.0 - 1.3 conventions) */
+    rawStatusField = buffer.getShort(offset) & 0xFFFF;
   }
 }
@@ -54,6 +54,10 @@ public abstract class SubmissionQueueEntry extends NativeData<NativeBuffer> {
     getBuffer().putShort(COMMAND_IDENTIFIER_OFFSET, commandIdentifier);
   }
 
+  final short getCommandIdentifier() {
+    return getBuffer().getShort(COMMAND_IDENTIFIER_OFFSET);
+  }
+
   @Override
   void initialize() {
     if (LegacySupport.ENABLED) {
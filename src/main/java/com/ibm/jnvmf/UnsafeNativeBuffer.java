@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.jnvmf;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+
+public class UnsafeNativeBuffer extends NativeByteBuffer {
+
+  /*
+   * Primitive loads and stores go directly to the native address of the
+   * direct buffer instead of through the ByteBuffer. Bounds are only checked
+   * when assertions are enabled. Position, limit, slicing and bulk puts are
+   * still handled by the ByteBuffer.
+   * Fields are not necessarily aligned (e.g. the 3 byte SGL length), the
+   * platform has to support unaligned accesses (x86, POWER, ARMv8).
+   */
+
+  private static final Unsafe UNSAFE = getUnsafe();
+
+  private final long address;
+  /* byte order differs from the native order */
+  private boolean swap;
+
+  public UnsafeNativeBuffer(ByteBuffer buffer) {
+    super(buffer);
+    if (buffer.isReadOnly()) {
+      throw new IllegalArgumentException("Read-only buffer");
+    }
+    this.address = getAddress();
+    this.swap = buffer.order() != ByteOrder.nativeOrder();
+  }
+
+  private static Unsafe getUnsafe() {
+    try {
+      Field field = Unsafe.class.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      return (Unsafe) field.get(null);
+    } catch (NoSuchFieldException | IllegalAccessException exception) {
+      throw new IllegalStateException(exception);
+    }
+  }
+
+  @Override
+  protected NativeBuffer construct(ByteBuffer buffer) {
+    return new UnsafeNativeBuffer(buffer);
+  }
+
+  @Override
+  public NativeBuffer order(ByteOrder order) {
+    super.order(order);
+    swap = order != ByteOrder.nativeOrder();
+    return this;
+  }
+
+  private boolean checkIndex(int index, int size) {
+    if (index < 0 || size > limit() - index) {
+      throw new IndexOutOfBoundsException("Index " + index + ", size " + size
+          + ", limit " + limit());
+    }
+    return true;
+  }
+
+  @Override
+  public NativeBuffer putShort(int index, short value)
+      throws IndexOutOfBoundsException, ReadOnlyBufferException {
+    assert checkIndex(index, Short.BYTES);
+    UNSAFE.putShort(address + index, swap ? Short.reverseBytes(value) : value);
+    return this;
+  }
+
+  @Override
+  public NativeBuffer putInt(int index, int value)
+      throws IndexOutOfBoundsException, ReadOnlyBufferException {
+    assert checkIndex(index, Integer.BYTES);
+    UNSAFE.putInt(address + index, swap ? Integer.reverseBytes(value) : value);
+    return this;
+  }
+
+  @Override
+  public NativeBuffer putLong(int index, long value)
+      throws IndexOutOfBoundsException, ReadOnlyBufferException {
+    assert checkIndex(index, Long.BYTES);
+    UNSAFE.putLong(address + index, swap ? Long.reverseBytes(value) : value);
+    return this;
+  }
+
+  @Override
+  public NativeBuffer putLong(long value) throws BufferOverflowException, ReadOnlyBufferException {
+    int current = position();
+    if (Long.BYTES > limit() - current) {
+      throw new BufferOverflowException();
+    }
+    putLong(current, value);
+    position(current + Long.BYTES);
+    return this;
+  }
+
+  @Override
+  public NativeBuffer put(int index, byte value)
+      throws IndexOutOfBoundsException, ReadOnlyBufferException {
+    assert checkIndex(index, Byte.BYTES);
+    UNSAFE.putByte(address + index, value);
+    return this;
+  }
+
+  @Override
+  public NativeBuffer put(byte value) throws BufferOverflowException, ReadOnlyBufferException {
+    int current = position();
+    if (current >= limit()) {
+      throw new BufferOverflowException();
+    }
+    put(current, value);
+    position(current + Byte.BYTES);
+    return this;
+  }
+
+  @Override
+  public byte get(int index) {
+    assert checkIndex(index, Byte.BYTES);
+    return UNSAFE.getByte(address + index);
+  }
+
+  @Override
+  public short getShort(int index) throws IndexOutOfBoundsException {
+    assert checkIndex(index, Short.BYTES);
+    short value = UNSAFE.getShort(address + index);
+    return swap ? Short.reverseBytes(value) : value;
+  }
+
+  @Override
+  public int getInt(int index) throws IndexOutOfBoundsException {
+    assert checkIndex(index, Integer.BYTES);
+    int value = UNSAFE.getInt(address + index);
+    return swap ? Integer.reverseBytes(value) : value;
+  }
+
+  @Override
+  public long getLong(int index) throws IndexOutOfBoundsException {
+    assert checkIndex(index, Long.BYTES);
+    long value = UNSAFE.getLong(address + index);
+    return swap ? Long.reverseBytes(value) : value;
+  }
+}
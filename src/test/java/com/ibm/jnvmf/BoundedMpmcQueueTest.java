@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.jnvmf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class BoundedMpmcQueueTest {
+
+  @Test
+  void argumentCheck() {
+    assertThrows(IllegalArgumentException.class, () -> new BoundedMpmcQueue<Integer>(0));
+    assertThrows(IllegalArgumentException.class, () -> new BoundedMpmcQueue<Integer>(3));
+    assertThrows(IllegalArgumentException.class, () -> new BoundedMpmcQueue<Integer>(4).offer(null));
+  }
+
+  @Test
+  void fifo() {
+    BoundedMpmcQueue<Integer> queue = new BoundedMpmcQueue<>(4);
+    assertNull(queue.poll());
+    for (int lap = 0; lap < 3; lap++) {
+      for (int i = 0; i < queue.capacity(); i++) {
+        assertTrue(queue.offer(i));
+      }
+      assertFalse(queue.offer(42));
+      for (int i = 0; i < queue.capacity(); i++) {
+        assertEquals(i, (int) queue.poll());
+      }
+      assertNull(queue.poll());
+    }
+  }
+
+  @Test
+  void multiThreaded() throws Exception {
+    final BoundedMpmcQueue<Long> queue = new BoundedMpmcQueue<>(64);
+    final int numThreads = 4;
+    final int iterations = 100000;
+    final AtomicLong sum = new AtomicLong();
+    Thread threads[] = new Thread[2 * numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      threads[i] = new Thread(() -> {
+        for (long j = 1; j <= iterations; j++) {
+          while (!queue.offer(j)) {
+            Thread.yield();
+          }
+        }
+      });
+      threads[numThreads + i] = new Thread(() -> {
+        for (int j = 0; j < iterations; j++) {
+          Long element;
+          while ((element = queue.poll()) == null) {
+            Thread.yield();
+          }
+          sum.addAndGet(element);
+        }
+      });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(queue.poll());
+    assertEquals((long) numThreads * iterations * (iterations + 1) / 2, sum.get());
+  }
+}
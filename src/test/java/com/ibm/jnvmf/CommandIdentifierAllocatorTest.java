@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.jnvmf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.BitSet;
+import java.util.concurrent.ThreadLocalRandom;
+import org.junit.jupiter.api.Test;
+
+class CommandIdentifierAllocatorTest {
+
+  @Test
+  void argumentCheck() {
+    assertThrows(IllegalArgumentException.class, () -> new CommandIdentifierAllocator(0));
+    assertThrows(IllegalArgumentException.class, () -> new CommandIdentifierAllocator(-1));
+    assertThrows(IllegalArgumentException.class,
+        () -> new CommandIdentifierAllocator((1 << Short.SIZE) + 1));
+  }
+
+  @Test
+  void allocateAll() {
+    int sizes[] = new int[]{1, 31, 63, 64, 65, 128, 1000};
+    for (int size : sizes) {
+      CommandIdentifierAllocator allocator = new CommandIdentifierAllocator(size);
+      BitSet allocated = new BitSet(size);
+      for (int i = 0; i < size; i++) {
+        int commandId = allocator.allocate();
+        assertTrue(commandId >= 0 && commandId < size, "CID " + commandId);
+        assertFalse(allocated.get(commandId), "CID " + commandId + " allocated twice");
+        allocated.set(commandId);
+      }
+      assertEquals(-1, allocator.allocate());
+    }
+  }
+
+  @Test
+  void freeAfterBothHalves() {
+    CommandIdentifierAllocator allocator = new CommandIdentifierAllocator(1);
+    int commandId = allocator.allocate();
+    assertTrue(allocator.isPending(commandId, CommandIdentifierAllocator.SEND));
+    assertTrue(allocator.isPending(commandId, CommandIdentifierAllocator.RESPONSE));
+
+    assertFalse(allocator.complete(commandId, CommandIdentifierAllocator.SEND));
+    assertFalse(allocator.isPending(commandId, CommandIdentifierAllocator.SEND));
+    assertEquals(-1, allocator.allocate());
+    assertTrue(allocator.complete(commandId, CommandIdentifierAllocator.RESPONSE));
+    assertEquals(commandId, allocator.allocate());
+
+    /* response before send */
+    assertFalse(allocator.complete(commandId, CommandIdentifierAllocator.RESPONSE));
+    assertEquals(-1, allocator.allocate());
+    assertTrue(allocator.complete(commandId, CommandIdentifierAllocator.SEND));
+    assertEquals(commandId, allocator.allocate());
+  }
+
+  @Test
+  void doubleComplete() {
+    CommandIdentifierAllocator allocator = new CommandIdentifierAllocator(4);
+    int commandId = allocator.allocate();
+    allocator.complete(commandId, CommandIdentifierAllocator.SEND);
+    assertThrows(IllegalStateException.class,
+        () -> allocator.complete(commandId, CommandIdentifierAllocator.SEND));
+    allocator.complete(commandId, CommandIdentifierAllocator.RESPONSE);
+    assertThrows(IllegalStateException.class,
+        () -> allocator.complete(commandId, CommandIdentifierAllocator.RESPONSE));
+  }
+
+  @Test
+  void multiThreadedAllocateComplete() throws Exception {
+    final int size = 128;
+    final int iterations = 100000;
+    final CommandIdentifierAllocator allocator = new CommandIdentifierAllocator(size);
+    final int numThreads = 4;
+    Thread threads[] = new Thread[numThreads];
+    Exception es[] = new Exception[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      final int x = i;
+      threads[i] = new Thread(() -> {
+        try {
+          ThreadLocalRandom random = ThreadLocalRandom.current();
+          for (int j = 0; j < iterations; j++) {
+            int commandId;
+            do {
+              commandId = allocator.allocate();
+            } while (commandId < 0);
+            int first = random.nextBoolean() ? CommandIdentifierAllocator.SEND
+                : CommandIdentifierAllocator.RESPONSE;
+            int second = first ^ (CommandIdentifierAllocator.SEND
+                | CommandIdentifierAllocator.RESPONSE);
+            if (allocator.complete(commandId, first)) {
+              throw new IllegalStateException("CID freed after first half");
+            }
+            if (!allocator.complete(commandId, second)) {
+              throw new IllegalStateException("CID not freed after second half");
+            }
+          }
+        } catch (Exception e) {
+          es[x] = e;
+        }
+      });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    for (Exception e : es) {
+      if (e != null) {
+        throw e;
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      assertTrue(allocator.allocate() >= 0);
+    }
+    assertEquals(-1, allocator.allocate());
+  }
+}
@@ -20,11 +20,13 @@ package com.ibm.jnvmf;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -305,4 +307,73 @@ class ControllerTest {
     assertNotEquals(ControllerId.ADMIN_DYNAMIC, controller.getControllerId());
     assertNotEquals(ControllerId.ADMIN_STATIC, controller.getControllerId());
   }
-}
\ No newline at end of file
+
+  @Tag("rdma")
+  @Test
+  void completionEngine() throws Exception {
+    for (CompletionEngine.IdlePolicy idlePolicy : CompletionEngine.IdlePolicy.values()) {
+      Controller controller = QueuePairTest.connectController();
+      IoQueuePair privateCqQueuePair = controller.createIoQueuePair(32);
+      CompletionEngine engine = controller.startCompletionEngine(idlePolicy,
+          CompletionEngine.DEFAULT_COMPLETION_QUEUE_SIZE);
+      assertEquals(idlePolicy, engine.getIdlePolicy());
+      assertThrows(IllegalStateException.class,
+          () -> controller.startCompletionEngine(idlePolicy));
+      engine.setSpinCount(10);
+      IoQueuePair sharedCqQueuePair = controller.createIoQueuePair(32);
+      assertEquals(engine.getCompletionQueue(), sharedCqQueuePair.getSharedCompletionQueue());
+      Namespace namespace = controller.getActiveNamespaces().get(0);
+      for (IoQueuePair ioQueuePair : new IoQueuePair[]{privateCqQueuePair, sharedCqQueuePair}) {
+        NvmReadCommand command = new NvmReadCommand(ioQueuePair);
+        KeyedNativeBuffer buffer = ioQueuePair.registerMemory(ByteBuffer.allocateDirect(
+            namespace.getIdentifyNamespaceData().getFormattedLbaSize().getLbaDataSize().toInt()));
+        command.getCommandCapsule().setSglDescriptor(buffer);
+        NvmIoCommandSqe sqe = command.getCommandCapsule().getSubmissionQueueEntry();
+        sqe.setStartingLba(0);
+        sqe.setNumberOfLogicalBlocks(1);
+        sqe.setNamespaceIdentifier(namespace.getIdentifier());
+        for (int i = 0; i < 10; i++) {
+          /* give the engine time to go idle */
+          Thread.sleep(10);
+          assertEquals(GenericStatusCode.getInstance().SUCCESS,
+              command.executeAsync().get().getStatusCode());
+        }
+        buffer.free();
+      }
+      controller.free();
+      assertFalse(engine.isValid());
+    }
+  }
+
+  @Tag("rdma")
+  @Test
+  void completionEnginePrivateCompletionQueues() throws Exception {
+    Controller controller = QueuePairTest.connectController();
+    assertThrows(IllegalArgumentException.class,
+        () -> controller.startCompletionEngine(CompletionEngine.IdlePolicy.SPIN_BLOCK));
+    CompletionEngine engine = controller.startCompletionEngine(
+        CompletionEngine.IdlePolicy.SPIN_YIELD);
+    assertNull(engine.getCompletionQueue());
+    IoQueuePair ioQueuePair = controller.createIoQueuePair(32);
+    assertNull(ioQueuePair.getSharedCompletionQueue());
+    Namespace namespace = controller.getActiveNamespaces().get(0);
+    NvmReadCommand command = new NvmReadCommand(ioQueuePair);
+    KeyedNativeBuffer buffer = ioQueuePair.registerMemory(ByteBuffer.allocateDirect(
+        namespace.getIdentifyNamespaceData().getFormattedLbaSize().getLbaDataSize().toInt()));
+    command.getCommandCapsule().setSglDescriptor(buffer);
+    NvmIoCommandSqe sqe = command.getCommandCapsule().getSubmissionQueueEntry();
+    sqe.setStartingLba(0);
+    sqe.setNumberOfLogicalBlocks(1);
+    sqe.setNamespaceIdentifier(namespace.getIdentifier());
+    for (int i = 0; i < 10; i++) {
+      /* completions on the private completion queue must not be delayed */
+      Thread.sleep(10);
+      long start = System.nanoTime();
+      assertEquals(GenericStatusCode.getInstance().SUCCESS,
+          command.executeAsync().get().getStatusCode());
+      assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+    }
+    buffer.free();
+    controller.free();
+  }
+}
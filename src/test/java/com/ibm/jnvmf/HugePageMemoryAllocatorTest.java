@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.jnvmf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+class HugePageMemoryAllocatorTest {
+
+  private static final int PAGE_SIZE = 64 * 1024;
+
+  @Test
+  void argumentCheck() {
+    assertThrows(IllegalArgumentException.class, () -> new HugePageMemoryAllocator(null, 4096));
+    assertThrows(IllegalArgumentException.class, () -> new HugePageMemoryAllocator("/", 0));
+    assertThrows(IllegalArgumentException.class, () -> new HugePageMemoryAllocator("/", 3000));
+    assertThrows(IllegalArgumentException.class,
+        () -> new HugePageMemoryAllocator("/", 4096).allocate(-1));
+  }
+
+  @Test
+  void mapped() throws IOException {
+    /* any file system will do to test the mapping */
+    Path directory = Files.createTempDirectory("jnvmf");
+    try {
+      HugePageMemoryAllocator allocator =
+          new HugePageMemoryAllocator(directory.toString(), PAGE_SIZE);
+      final int size = PAGE_SIZE + 1;
+      NativeBuffer buffer = allocator.allocate(size);
+      assertEquals(1, allocator.getHugePageAllocations());
+      assertEquals(0, allocator.getFallbackAllocations());
+      assertEquals(size, buffer.capacity());
+      byte[] b = new byte[size];
+      ThreadLocalRandom.current().nextBytes(b);
+      buffer.put(b);
+      assertThrows(BufferOverflowException.class, () -> buffer.put((byte) 0));
+      for (int i = 0; i < size; i++) {
+        assertEquals(b[i], buffer.get(i));
+      }
+      /* the backing file is gone, the mapping keeps the memory */
+      try (Stream<Path> files = Files.list(directory)) {
+        assertEquals(0, files.count());
+      }
+      buffer.position(PAGE_SIZE);
+      NativeBuffer slice = buffer.slice();
+      assertTrue(buffer.isValid());
+      assertTrue(slice.isValid());
+      buffer.free();
+      assertFalse(buffer.isValid());
+      assertFalse(slice.isValid());
+      buffer.free();
+      slice.free();
+    } finally {
+      Files.delete(directory);
+    }
+  }
+
+  @Test
+  void byteBufferView() throws IOException {
+    Path directory = Files.createTempDirectory("jnvmf");
+    try {
+      HugePageMemoryAllocator allocator =
+          new HugePageMemoryAllocator(directory.toString(), PAGE_SIZE);
+      NativeBuffer buffer = allocator.allocate(PAGE_SIZE);
+      ByteBuffer view = buffer.toByteBuffer();
+      buffer.free();
+      assertFalse(buffer.isValid());
+      /* the view keeps the mapping until it is garbage collected */
+      view.put(0, (byte) 42);
+      assertEquals(42, view.get(0));
+    } finally {
+      Files.delete(directory);
+    }
+  }
+
+  private static boolean isMapped(Path directory) throws IOException {
+    try (Stream<String> mappings = Files.lines(Paths.get("/proc/self/maps"))) {
+      return mappings.anyMatch(mapping -> mapping.contains(directory.toString()));
+    }
+  }
+
+  @Test
+  void release() throws IOException {
+    assumeTrue(Files.exists(Paths.get("/proc/self/maps")));
+    Path directory = Files.createTempDirectory("jnvmf");
+    try {
+      HugePageMemoryAllocator allocator =
+          new HugePageMemoryAllocator(directory.toString(), PAGE_SIZE);
+      NativeBuffer buffer = allocator.allocate(PAGE_SIZE);
+      buffer.toByteBuffer();
+      buffer.sliceToByteBuffer();
+      assertTrue(isMapped(directory));
+      /* unlike free, release unmaps although views have been handed out */
+      allocator.release(buffer);
+      assertFalse(buffer.isValid());
+      assertFalse(isMapped(directory));
+      allocator.release(buffer);
+    } finally {
+      Files.delete(directory);
+    }
+  }
+
+  @Test
+  void fallback() {
+    HugePageMemoryAllocator allocator =
+        new HugePageMemoryAllocator("/nonexistent/jnvmf", PAGE_SIZE);
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (int i = 0; i < 10; i++) {
+      int size = random.nextInt(0, 1024 * 1024);
+      NativeBuffer buffer = allocator.allocate(size);
+      assertEquals(size, buffer.capacity());
+      if (size >= PAGE_SIZE) {
+        assertEquals(0, buffer.getAddress() % PAGE_SIZE);
+      }
+    }
+    assertEquals(0, allocator.getHugePageAllocations());
+    assertEquals(10, allocator.getFallbackAllocations());
+  }
+}
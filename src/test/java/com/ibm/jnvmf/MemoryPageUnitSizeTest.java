@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.jnvmf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class MemoryPageUnitSizeTest {
+
+  @Test
+  void toLong() {
+    /* MDTS of 2^19 and 2^20 4KiB pages overflow an int */
+    assertEquals(1L << 31, new MemoryPageUnitSize(new Pow2Size(19)).toLong());
+    assertEquals(1L << 32, new MemoryPageUnitSize(new Pow2Size(20)).toLong());
+    assertEquals(1L << 33, new MemoryPageUnitSize(new Pow2Size(21)).toLong());
+    assertEquals(4096L * 4096, new MemoryPageUnitSize(new Pow2Size(12)).toLong());
+    assertEquals(4096 * 4096, new MemoryPageUnitSize(new Pow2Size(12)).toInt());
+  }
+
+  @Test
+  void saturate() {
+    MemoryPageUnitSize size = new MemoryPageUnitSize(new Pow2Size(Integer.SIZE),
+        new Pow2Size(Integer.SIZE));
+    assertEquals(Long.MAX_VALUE, size.toLong());
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.jnvmf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class NvmIoCommandCapsuleTest {
+
+  private static final int ADDITIONAL_SGLS = 4;
+  private static final int SGL_DESCRIPTOR1_OFFSET = 24;
+
+  private PdMemoryPool memoryPool;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    memoryPool = new PdMemoryPool(new OffHeapMemoryAllocator(),
+        PdMemoryPoolTest.fakeRegistrar(7), 512, 8, 1, ByteOrder.LITTLE_ENDIAN);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    memoryPool.free();
+  }
+
+  private static void assertKeyed(NativeBuffer capsule, int offset, KeyedNativeBuffer data) {
+    assertEquals(data.getAddress(), capsule.getLong(offset));
+    assertEquals(data.remaining(), capsule.getInt(offset + 8) & 0xFFFFFF);
+    assertEquals(data.getRemoteKey(), capsule.getInt(offset + 11));
+    assertEquals(0x40, capsule.get(offset + 15));
+  }
+
+  @Test
+  void singleBuffer() throws IOException {
+    KeyedNativeBuffer buffer = memoryPool.allocate();
+    NvmReadCommandCapsule capsule = new NvmReadCommandCapsule(buffer, ADDITIONAL_SGLS);
+    KeyedNativeBuffer data = memoryPool.allocate();
+    capsule.setSglDescriptors(new KeyedNativeBuffer[]{data});
+    assertKeyed(buffer, SGL_DESCRIPTOR1_OFFSET, data);
+  }
+
+  @Test
+  void additionalSgls() throws IOException {
+    KeyedNativeBuffer buffer = memoryPool.allocate();
+    NvmReadCommandCapsule capsule = new NvmReadCommandCapsule(buffer, ADDITIONAL_SGLS);
+    KeyedNativeBuffer[] data = new KeyedNativeBuffer[3];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = memoryPool.allocate();
+      data[i].limit(128 * (i + 1));
+    }
+    /* previous keyed descriptor must not leave any key bytes */
+    capsule.setSglDescriptor(data[0]);
+    capsule.setSglDescriptors(data);
+    assertEquals(0, buffer.getLong(SGL_DESCRIPTOR1_OFFSET));
+    assertEquals(data.length * ScatterGatherListDescriptor.SIZE,
+        buffer.getInt(SGL_DESCRIPTOR1_OFFSET + 8));
+    assertEquals(0, buffer.getShort(SGL_DESCRIPTOR1_OFFSET + 12));
+    assertEquals(0, buffer.get(SGL_DESCRIPTOR1_OFFSET + 14));
+    /* last segment, offset subtype */
+    assertEquals(0x31, buffer.get(SGL_DESCRIPTOR1_OFFSET + 15));
+    for (int i = 0; i < data.length; i++) {
+      assertKeyed(buffer, SubmissionQueueEntry.SIZE + i * ScatterGatherListDescriptor.SIZE,
+          data[i]);
+    }
+  }
+
+  @Test
+  void tooManyBuffers() throws IOException {
+    NvmReadCommandCapsule capsule = new NvmReadCommandCapsule(memoryPool.allocate(),
+        ADDITIONAL_SGLS);
+    KeyedNativeBuffer data = memoryPool.allocate();
+    assertThrows(IllegalArgumentException.class,
+        () -> capsule.setSglDescriptors(new KeyedNativeBuffer[0]));
+    KeyedNativeBuffer[] tooMany = new KeyedNativeBuffer[ADDITIONAL_SGLS + 1];
+    for (int i = 0; i < tooMany.length; i++) {
+      tooMany[i] = data;
+    }
+    assertThrows(IllegalArgumentException.class, () -> capsule.setSglDescriptors(tooMany));
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.jnvmf;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.ExecutionException;
+import org.junit.jupiter.api.Test;
+
+class OperationFutureTest {
+
+  private static ResponseFuture<NvmResponseCapsule> newFuture() {
+    /* the queue pair is only used to wait for completions */
+    return new ResponseFuture<>(null, new Response<>(new NvmResponseCapsule()));
+  }
+
+  @Test
+  void reuse() throws Exception {
+    ResponseFuture<NvmResponseCapsule> future = newFuture();
+    for (int i = 0; i < 3; i++) {
+      future.onStart();
+      assertFalse(future.isDone());
+      future.onComplete();
+      assertTrue(future.isDone());
+      assertSame(future.getOperation().getResponseCapsule(), future.get());
+    }
+  }
+
+  @Test
+  void inFlight() {
+    ResponseFuture<NvmResponseCapsule> future = newFuture();
+    future.onStart();
+    assertThrows(IllegalStateException.class, () -> future.onStart());
+    future.abort();
+    future.onStart();
+    future.onComplete();
+    assertThrows(IllegalStateException.class, () -> future.onComplete());
+  }
+
+  @Test
+  void resetFailure() throws Exception {
+    ResponseFuture<NvmResponseCapsule> future = newFuture();
+    future.onStart();
+    future.onFailure(RdmaException.fromInteger(0, 1));
+    assertThrows(ExecutionException.class, () -> future.get());
+    future.onStart();
+    future.onComplete();
+    future.get();
+  }
+}
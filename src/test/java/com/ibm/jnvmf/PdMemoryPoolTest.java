@@ -34,7 +34,10 @@ import java.net.InetSocketAddress;
 import java.nio.ByteOrder;
 import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
@@ -85,6 +88,244 @@ class PdMemoryPoolTest {
         () -> new PdMemoryPool(null, memoryAllocator, 1, 1, 1, ByteOrder.LITTLE_ENDIAN));
   }
 
+  static PdMemoryPool.Registrar fakeRegistrar(int key) {
+    return buffer -> new PdMemoryPool.Registration() {
+      @Override
+      public int getLocalKey() {
+        return key;
+      }
+
+      @Override
+      public int getRemoteKey() {
+        return ~key;
+      }
+
+      @Override
+      public void deregister() {
+      }
+    };
+  }
+
+  @Test
+  void elementWithoutRdma() throws IOException {
+    MemoryAllocator memoryAllocator = new OffHeapMemoryAllocator();
+    assertThrows(IllegalArgumentException.class, () -> new PdMemoryPool(memoryAllocator,
+        null, 1, 1, 1, ByteOrder.LITTLE_ENDIAN));
+    int size = 512;
+    PdMemoryPool memoryPool = new PdMemoryPool(memoryAllocator, fakeRegistrar(42), size, 2, 1,
+        ByteOrder.LITTLE_ENDIAN);
+    KeyedNativeBuffer buffer = memoryPool.allocate();
+    assertEquals(size, buffer.capacity());
+    assertEquals(42, buffer.getLocalKey());
+    assertEquals(~42, buffer.getRemoteKey());
+    KeyedNativeBuffer buffer2 = memoryPool.allocate();
+    assertThrows(OutOfMemoryError.class, () -> memoryPool.allocate());
+    buffer.free();
+    buffer2.free();
+    assertFalse(buffer.isValid());
+    assertTrue(memoryPool.allocate().isValid());
+    memoryPool.free();
+  }
+
+  @Test
+  void idleRegions() throws IOException {
+    MemoryAllocator memoryAllocator = new OffHeapMemoryAllocator();
+    PdMemoryPool memoryPool = new PdMemoryPool(memoryAllocator, fakeRegistrar(42), 512, 2, 4,
+        ByteOrder.LITTLE_ENDIAN);
+    memoryPool.setThreadCacheSize(0);
+    memoryPool.setMaxIdleRegions(1);
+    KeyedNativeBuffer[] buffers = new KeyedNativeBuffer[8];
+    for (int i = 0; i < buffers.length; i++) {
+      buffers[i] = memoryPool.allocate();
+    }
+    assertEquals(4, memoryPool.getNumRegions());
+    for (KeyedNativeBuffer buffer : buffers) {
+      buffer.free();
+    }
+    assertEquals(1, memoryPool.getNumRegions());
+    /* the idle region is used before a new one is registered */
+    buffers[0] = memoryPool.allocate();
+    buffers[1] = memoryPool.allocate();
+    assertEquals(1, memoryPool.getNumRegions());
+    buffers[2] = memoryPool.allocate();
+    assertEquals(2, memoryPool.getNumRegions());
+    /* freeing the element of the second region makes it idle but we keep it */
+    buffers[2].free();
+    assertEquals(2, memoryPool.getNumRegions());
+    buffers[0].free();
+    buffers[1].free();
+    assertEquals(1, memoryPool.getNumRegions());
+    memoryPool.free();
+    assertEquals(0, memoryPool.getNumRegions());
+  }
+
+  @Test
+  void budget() throws IOException {
+    MemoryAllocator memoryAllocator = new OffHeapMemoryAllocator();
+    MemoryBudget budget = new MemoryBudget(() -> 2 * 1024);
+    PdMemoryPool memoryPool = new PdMemoryPool(memoryAllocator, fakeRegistrar(42), 512, 2,
+        Integer.MAX_VALUE, ByteOrder.LITTLE_ENDIAN);
+    memoryPool.setBudget(budget);
+    memoryPool.setThreadCacheSize(0);
+    memoryPool.setMaxIdleRegions(0);
+    PdMemoryPool memoryPool2 = new PdMemoryPool(memoryAllocator, fakeRegistrar(43), 1024, 1,
+        Integer.MAX_VALUE, ByteOrder.LITTLE_ENDIAN);
+    memoryPool2.setBudget(budget);
+    memoryPool2.setThreadCacheSize(0);
+    memoryPool2.setMaxIdleRegions(0);
+
+    KeyedNativeBuffer buffer = memoryPool.allocate();
+    KeyedNativeBuffer buffer2 = memoryPool.allocate();
+    KeyedNativeBuffer buffer3 = memoryPool2.allocate();
+    assertEquals(2 * 1024, budget.getUsed());
+    assertThrows(OutOfMemoryError.class, () -> memoryPool2.allocate());
+    assertThrows(OutOfMemoryError.class, () -> memoryPool.allocate());
+    buffer.free();
+    assertThrows(OutOfMemoryError.class, () -> memoryPool2.allocate());
+    buffer2.free();
+    assertEquals(1024, budget.getUsed());
+    KeyedNativeBuffer buffer4 = memoryPool2.allocate();
+    assertEquals(2 * 1024, budget.getUsed());
+    buffer3.free();
+    buffer4.free();
+    assertEquals(0, budget.getUsed());
+    memoryPool.free();
+    memoryPool2.free();
+  }
+
+  @Test
+  void threadCache() throws Exception {
+    MemoryAllocator memoryAllocator = new OffHeapMemoryAllocator();
+    PdMemoryPool memoryPool = new PdMemoryPool(memoryAllocator, fakeRegistrar(42), 512, 8, 1,
+        ByteOrder.LITTLE_ENDIAN);
+    memoryPool.setThreadCacheSize(4);
+    memoryPool.setMaxIdleRegions(0);
+    KeyedNativeBuffer buffer = memoryPool.allocate();
+    buffer.position(10);
+    NativeBuffer slice = buffer.slice();
+    buffer.free();
+    assertFalse(slice.isValid());
+    assertThrows(IllegalStateException.class, () -> slice.free());
+    /* the element is reused from the thread cache */
+    KeyedNativeBuffer buffer2 = memoryPool.allocate();
+    assertTrue(buffer == buffer2);
+    assertTrue(buffer2.isValid());
+    assertEquals(0, buffer2.position());
+    assertFalse(slice.isValid());
+    buffer2.free();
+    /* cached elements keep the region */
+    assertEquals(1, memoryPool.getNumRegions());
+    memoryPool.reclaim();
+    assertEquals(0, memoryPool.getNumRegions());
+
+    /* elements cached by another thread are reclaimed before we run out of memory */
+    KeyedNativeBuffer[] buffers = new KeyedNativeBuffer[8];
+    Thread thread = new Thread(() -> {
+      try {
+        for (int i = 0; i < buffers.length; i++) {
+          buffers[i] = memoryPool.allocate();
+        }
+        for (KeyedNativeBuffer element : buffers) {
+          element.free();
+        }
+      } catch (IOException exception) {
+        throw new IllegalStateException(exception);
+      }
+    });
+    thread.start();
+    thread.join();
+    for (int i = 0; i < buffers.length; i++) {
+      buffers[i] = memoryPool.allocate();
+    }
+    assertThrows(OutOfMemoryError.class, () -> memoryPool.allocate());
+    memoryPool.free();
+  }
+
+  @Test
+  void prewarm() throws Exception {
+    MemoryAllocator memoryAllocator = new OffHeapMemoryAllocator();
+    PdMemoryPool memoryPool = new PdMemoryPool(memoryAllocator, fakeRegistrar(42), 512, 2, 4,
+        ByteOrder.LITTLE_ENDIAN);
+    memoryPool.prewarm(2);
+    assertEquals(2, memoryPool.getNumRegions());
+    memoryPool.prewarm(8);
+    assertEquals(4, memoryPool.getNumRegions());
+    memoryPool.free();
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    PdMemoryPool memoryPool2 = new PdMemoryPool(memoryAllocator, fakeRegistrar(42), 512, 2, 2,
+        ByteOrder.LITTLE_ENDIAN);
+    memoryPool2.setPrewarmExecutor(executor);
+    memoryPool2.allocate();
+    memoryPool2.allocate();
+    /* the last region is used up, the next one is registered in the background */
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(2, memoryPool2.getNumRegions());
+    memoryPool2.allocate();
+    memoryPool2.allocate();
+    assertEquals(2, memoryPool2.getNumRegions());
+    memoryPool2.free();
+  }
+
+  @Test
+  void threadCacheBytes() throws IOException {
+    MemoryAllocator memoryAllocator = new OffHeapMemoryAllocator();
+    PdMemoryPool memoryPool = new PdMemoryPool(memoryAllocator, fakeRegistrar(42), 512, 2, 1,
+        ByteOrder.LITTLE_ENDIAN);
+    assertEquals(PdMemoryPool.DEFAULT_THREAD_CACHE_SIZE, memoryPool.getThreadCacheSize());
+    memoryPool.free();
+    int elementSize = PdMemoryPool.MAXIMUM_THREAD_CACHE_BYTES / 4;
+    memoryPool = new PdMemoryPool(memoryAllocator, fakeRegistrar(42), elementSize, 1, 1,
+        ByteOrder.LITTLE_ENDIAN);
+    assertEquals(4, memoryPool.getThreadCacheSize());
+    memoryPool.free();
+    /* large elements are not cached at all */
+    memoryPool = new PdMemoryPool(memoryAllocator, fakeRegistrar(42),
+        PdMemoryPool.MAXIMUM_THREAD_CACHE_BYTES, 1, 1, ByteOrder.LITTLE_ENDIAN);
+    assertEquals(0, memoryPool.getThreadCacheSize());
+    memoryPool.free();
+  }
+
+  @Test
+  void budgetReclaim() throws IOException {
+    MemoryAllocator memoryAllocator = new OffHeapMemoryAllocator();
+    MemoryBudget budget = new MemoryBudget(() -> 1024);
+    PdMemoryPool memoryPool = new PdMemoryPool(memoryAllocator, fakeRegistrar(42), 512, 2,
+        Integer.MAX_VALUE, ByteOrder.LITTLE_ENDIAN);
+    memoryPool.setBudget(budget);
+    memoryPool.setThreadCacheSize(4);
+    PdMemoryPool memoryPool2 = new PdMemoryPool(memoryAllocator, fakeRegistrar(43), 1024, 1,
+        Integer.MAX_VALUE, ByteOrder.LITTLE_ENDIAN);
+    memoryPool2.setBudget(budget);
+
+    memoryPool.allocate().free();
+    /* the element is cached and the region would be kept as idle region */
+    assertEquals(1, memoryPool.getNumRegions());
+    assertEquals(1024, budget.getUsed());
+    KeyedNativeBuffer buffer = memoryPool2.allocate();
+    assertEquals(0, memoryPool.getNumRegions());
+    assertEquals(1024, budget.getUsed());
+    buffer.free();
+    memoryPool.free();
+    memoryPool2.free();
+  }
+
+  @Test
+  void trim() throws IOException {
+    MemoryAllocator memoryAllocator = new OffHeapMemoryAllocator();
+    PdMemoryPool memoryPool = new PdMemoryPool(memoryAllocator, fakeRegistrar(42), 512, 2, 4,
+        ByteOrder.LITTLE_ENDIAN);
+    memoryPool.setMaxIdleRegions(0);
+    memoryPool.allocate().free();
+    /* used since the last trim */
+    memoryPool.trim();
+    assertEquals(1, memoryPool.getNumRegions());
+    memoryPool.trim();
+    assertEquals(0, memoryPool.getNumRegions());
+    memoryPool.free();
+  }
+
   @Tag("rdma")
   @Test
   void argumentCheckRdma() throws IOException {
@@ -22,6 +22,14 @@ import static org.junit.jupiter.api.Assertions.*;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
@@ -93,4 +101,496 @@ class QueuePairTest {
     IoQueuePair ioQueuePair = connectController().createIoQueuePair(32);
     assertEquals(32, ioQueuePair.getSubmissionQueueSize());
   }
-}
\ No newline at end of file
+
+  @Tag("rdma")
+  @Test
+  public void postBatch() throws Exception {
+    Controller controller = connectController();
+    IoQueuePair ioQueuePair = controller.createIoQueuePair(32);
+    Namespace namespace = controller.getActiveNamespaces().get(0);
+    int sectorSize = namespace.getIdentifyNamespaceData().getFormattedLbaSize()
+        .getLbaDataSize().toInt();
+    final int batchSize = 16;
+    Command[] commands = new Command[batchSize];
+    Response[] responses = new Response[batchSize];
+    CommandFuture[] commandFutures = new CommandFuture[batchSize];
+    ResponseFuture<NvmResponseCapsule>[] responseFutures = new ResponseFuture[batchSize];
+    KeyedNativeBuffer[] buffers = new KeyedNativeBuffer[batchSize];
+    for (int i = 0; i < batchSize; i++) {
+      NvmReadCommand command = new NvmReadCommand(ioQueuePair);
+      buffers[i] = ioQueuePair.registerMemory(ByteBuffer.allocateDirect(sectorSize));
+      command.getCommandCapsule().setSglDescriptor(buffers[i]);
+      NvmIoCommandSqe sqe = command.getCommandCapsule().getSubmissionQueueEntry();
+      sqe.setStartingLba(i);
+      sqe.setNumberOfLogicalBlocks(1);
+      sqe.setNamespaceIdentifier(namespace.getIdentifier());
+      commands[i] = command;
+      commandFutures[i] = command.newCommandFuture();
+      responseFutures[i] = command.newResponseFuture();
+      responses[i] = responseFutures[i].getOperation();
+    }
+    assertThrows(IllegalArgumentException.class,
+        () -> ioQueuePair.postBatch(commands, responses, 0));
+    assertThrows(IllegalArgumentException.class,
+        () -> ioQueuePair.postBatch(commands, responses, batchSize + 1));
+    for (int run = 0; run < 2; run++) {
+      ioQueuePair.postBatch(commands, responses, batchSize);
+      for (int i = 0; i < batchSize; i++) {
+        commandFutures[i].get();
+        NvmResponseCapsule responseCapsule = responseFutures[i].get();
+        assertEquals(GenericStatusCode.getInstance().SUCCESS,
+            responseCapsule.getCompletionQueueEntry().getStatusCode());
+      }
+      for (int i = 0; i < batchSize; i++) {
+        commandFutures[i] = commands[i].newCommandFuture();
+        responseFutures[i] = ((NvmReadCommand) commands[i]).newResponseFuture();
+        responses[i] = responseFutures[i].getOperation();
+      }
+    }
+    for (KeyedNativeBuffer buffer : buffers) {
+      buffer.free();
+    }
+  }
+
+  @Tag("rdma")
+  @Test
+  public void sendSignalInterval() throws Exception {
+    Controller controller = connectController();
+    IoQueuePair ioQueuePair = controller.createIoQueuePair(32);
+    assertEquals(1, ioQueuePair.getSendSignalInterval());
+    assertThrows(IllegalArgumentException.class, () -> ioQueuePair.setSendSignalInterval(0));
+    assertThrows(IllegalArgumentException.class, () -> ioQueuePair.setSendSignalInterval(17));
+    ioQueuePair.setSendSignalInterval(4);
+    Namespace namespace = controller.getActiveNamespaces().get(0);
+    int sectorSize = namespace.getIdentifyNamespaceData().getFormattedLbaSize()
+        .getLbaDataSize().toInt();
+    KeyedNativeBuffer buffer = ioQueuePair.registerMemory(ByteBuffer.allocateDirect(sectorSize));
+    NvmReadCommand command = new NvmReadCommand(ioQueuePair);
+    command.getCommandCapsule().setSglDescriptor(buffer);
+    NvmIoCommandSqe sqe = command.getCommandCapsule().getSubmissionQueueEntry();
+    sqe.setStartingLba(0);
+    sqe.setNumberOfLogicalBlocks(1);
+    sqe.setNamespaceIdentifier(namespace.getIdentifier());
+    /* more commands than the submission queue size to make sure unsignaled sends are reaped */
+    for (int i = 0; i < 100; i++) {
+      CommandFuture commandFuture = command.newCommandFuture();
+      ResponseFuture<NvmResponseCapsule> responseFuture = command.newResponseFuture();
+      command.execute(responseFuture);
+      assertEquals(GenericStatusCode.getInstance().SUCCESS,
+          responseFuture.get().getCompletionQueueEntry().getStatusCode());
+      commandFuture.get();
+    }
+    buffer.free();
+  }
+
+  @Tag("rdma")
+  @Test
+  public void executeAsync() throws Exception {
+    Controller controller = connectController();
+    IoQueuePair ioQueuePair = controller.createIoQueuePair(32);
+    Namespace namespace = controller.getActiveNamespaces().get(0);
+    int sectorSize = namespace.getIdentifyNamespaceData().getFormattedLbaSize()
+        .getLbaDataSize().toInt();
+    KeyedNativeBuffer buffer = ioQueuePair.registerMemory(ByteBuffer.allocateDirect(sectorSize));
+    NvmReadCommand command = new NvmReadCommand(ioQueuePair);
+    command.getCommandCapsule().setSglDescriptor(buffer);
+    NvmIoCommandSqe sqe = command.getCommandCapsule().getSubmissionQueueEntry();
+    sqe.setStartingLba(0);
+    sqe.setNumberOfLogicalBlocks(1);
+    sqe.setNamespaceIdentifier(namespace.getIdentifier());
+    for (int i = 0; i < 100; i++) {
+      CompletableFuture<NvmCompletionQueueEntry> future = command.executeAsync();
+      assertEquals(GenericStatusCode.getInstance().SUCCESS, future.get().getStatusCode());
+    }
+    /* the poller owns the queue pair */
+    assertEquals(0, ioQueuePair.poll());
+    buffer.free();
+    ioQueuePair.free();
+  }
+
+  private static NvmReadCommand newReadCommand(IoQueuePair ioQueuePair, Namespace namespace,
+      KeyedNativeBuffer buffer) throws IOException {
+    NvmReadCommand command = new NvmReadCommand(ioQueuePair);
+    command.getCommandCapsule().setSglDescriptor(buffer);
+    NvmIoCommandSqe sqe = command.getCommandCapsule().getSubmissionQueueEntry();
+    sqe.setStartingLba(0);
+    sqe.setNumberOfLogicalBlocks(1);
+    sqe.setNamespaceIdentifier(namespace.getIdentifier());
+    return command;
+  }
+
+  @Tag("rdma")
+  @Test
+  public void sharedCompletionQueue() throws Exception {
+    Controller controller = connectController();
+    Namespace namespace = controller.getActiveNamespaces().get(0);
+    int sectorSize = namespace.getIdentifyNamespaceData().getFormattedLbaSize()
+        .getLbaDataSize().toInt();
+    SharedCompletionQueue completionQueue = new SharedCompletionQueue(256);
+    IoQueuePair ioQueuePair = controller.createIoQueuePair(32, 0, 0, 0, completionQueue);
+    IoQueuePair ioQueuePair2 = controller.createIoQueuePair(32, 0, 0, 0, completionQueue);
+    assertEquals(completionQueue, ioQueuePair.getSharedCompletionQueue());
+    assertEquals(completionQueue, ioQueuePair2.getSharedCompletionQueue());
+    KeyedNativeBuffer buffer = ioQueuePair.registerMemory(ByteBuffer.allocateDirect(sectorSize));
+    KeyedNativeBuffer buffer2 =
+        ioQueuePair2.registerMemory(ByteBuffer.allocateDirect(sectorSize));
+    NvmReadCommand command = newReadCommand(ioQueuePair, namespace, buffer);
+    NvmReadCommand command2 = newReadCommand(ioQueuePair2, namespace, buffer2);
+    for (int i = 0; i < 10; i++) {
+      /* both commands use the same CID, completions have to be dispatched by QP number */
+      ResponseFuture<NvmResponseCapsule> future = command.execute(command.newResponseFuture());
+      ResponseFuture<NvmResponseCapsule> future2 =
+          command2.execute(command2.newResponseFuture());
+      while (!future.isDone() || !future2.isDone()) {
+        /* only ever poll through the first queue pair */
+        ioQueuePair.poll();
+      }
+      assertEquals(GenericStatusCode.getInstance().SUCCESS,
+          future.get().getCompletionQueueEntry().getStatusCode());
+      assertEquals(GenericStatusCode.getInstance().SUCCESS,
+          future2.get().getCompletionQueueEntry().getStatusCode());
+    }
+    assertEquals(0, completionQueue.getDroppedCompletions());
+
+    /* completions of a queue pair which is no longer a member are dropped */
+    completionQueue.remove(ioQueuePair2);
+    ResponseFuture<NvmResponseCapsule> future2 = command2.execute(command2.newResponseFuture());
+    long start = System.nanoTime();
+    while (completionQueue.getDroppedCompletions() == 0) {
+      ioQueuePair.poll();
+      assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+    }
+    assertFalse(future2.isDone());
+    buffer.free();
+    buffer2.free();
+    ioQueuePair2.free();
+    ioQueuePair.free();
+    completionQueue.free();
+  }
+
+  @Tag("rdma")
+  @Test
+  public void completionWait() throws Exception {
+    Controller controller = connectController();
+    IoQueuePair ioQueuePair = controller.createIoQueuePair(32);
+    assertEquals(QueuePair.CompletionWait.POLL, ioQueuePair.getCompletionWait());
+    assertThrows(IllegalArgumentException.class, () -> ioQueuePair.setWaitSpinCount(-1));
+    ioQueuePair.setCompletionWait(QueuePair.CompletionWait.EVENT);
+    ioQueuePair.setWaitSpinCount(0);
+    /* nothing outstanding: wait times out */
+    assertEquals(0, ioQueuePair.waitForCompletions());
+    Namespace namespace = controller.getActiveNamespaces().get(0);
+    int sectorSize = namespace.getIdentifyNamespaceData().getFormattedLbaSize()
+        .getLbaDataSize().toInt();
+    KeyedNativeBuffer buffer = ioQueuePair.registerMemory(ByteBuffer.allocateDirect(sectorSize));
+    NvmReadCommand command = new NvmReadCommand(ioQueuePair);
+    command.getCommandCapsule().setSglDescriptor(buffer);
+    NvmIoCommandSqe sqe = command.getCommandCapsule().getSubmissionQueueEntry();
+    sqe.setStartingLba(0);
+    sqe.setNumberOfLogicalBlocks(1);
+    sqe.setNamespaceIdentifier(namespace.getIdentifier());
+    for (int i = 0; i < 10; i++) {
+      CommandFuture commandFuture = command.newCommandFuture();
+      ResponseFuture<NvmResponseCapsule> responseFuture = command.newResponseFuture();
+      command.execute(responseFuture);
+      assertEquals(GenericStatusCode.getInstance().SUCCESS,
+          responseFuture.get().getCompletionQueueEntry().getStatusCode());
+      commandFuture.get();
+    }
+    buffer.free();
+  }
+
+  @Tag("rdma")
+  @Test
+  public void commandPool() throws Exception {
+    Controller controller = connectController();
+    final int queueSize = 32;
+    IoQueuePair ioQueuePair = controller.createIoQueuePair(queueSize);
+    Namespace namespace = controller.getActiveNamespaces().get(0);
+    int sectorSize = namespace.getIdentifyNamespaceData().getFormattedLbaSize()
+        .getLbaDataSize().toInt();
+    KeyedNativeBuffer buffer = ioQueuePair.registerMemory(ByteBuffer.allocateDirect(sectorSize));
+    int[] completed = new int[1];
+    IoCompletionHandler<int[]> handler = new IoCompletionHandler<int[]>() {
+      @Override
+      public void completed(NvmCompletionQueueEntry completionQueueEntry, int[] attachment) {
+        assertTrue(completionQueueEntry.isSuccess());
+        attachment[0]++;
+      }
+
+      @Override
+      public void failed(Throwable exception, int[] attachment) {
+        fail(exception);
+      }
+    };
+    for (int i = 0; i < 100; i++) {
+      if (i % 2 == 0) {
+        ioQueuePair.write(namespace.getIdentifier(), 0, 1, buffer, handler, completed);
+      } else {
+        ioQueuePair.read(namespace.getIdentifier(), 0, 1, buffer, handler, completed);
+      }
+      while (completed[0] <= i) {
+        ioQueuePair.poll();
+      }
+    }
+    /* at most one command per submission queue entry */
+    int posted = 0;
+    try {
+      while (true) {
+        ioQueuePair.read(namespace.getIdentifier(), 0, 1, buffer, handler, completed);
+        posted++;
+        assertTrue(posted <= queueSize);
+      }
+    } catch (IOException exception) {
+      assertTrue(posted > 0);
+    }
+    while (completed[0] < 100 + posted) {
+      ioQueuePair.poll();
+    }
+    buffer.free();
+    ioQueuePair.free();
+  }
+
+  @Tag("rdma")
+  @Test
+  public void incapsuleDataBuffer() throws Exception {
+    Controller controller = connectController();
+    Namespace namespace = controller.getActiveNamespaces().get(0);
+    int sectorSize = namespace.getIdentifyNamespaceData().getFormattedLbaSize()
+        .getLbaDataSize().toInt();
+    IoQueuePair ioQueuePair = controller.createIoQueuePair(32, 0, sectorSize, 0);
+    KeyedNativeBuffer data = ioQueuePair.registerMemory(ByteBuffer.allocateDirect(sectorSize));
+    KeyedNativeBuffer readBuffer =
+        ioQueuePair.registerMemory(ByteBuffer.allocateDirect(sectorSize));
+    NvmWriteCommand writeCommand = new NvmWriteCommand(ioQueuePair);
+    NvmIoCommandSqe writeSqe = writeCommand.getCommandCapsule().getSubmissionQueueEntry();
+    writeSqe.setStartingLba(0);
+    writeSqe.setNumberOfLogicalBlocks(1);
+    writeSqe.setNamespaceIdentifier(namespace.getIdentifier());
+    NvmReadCommand readCommand = new NvmReadCommand(ioQueuePair);
+    readCommand.getCommandCapsule().setSglDescriptor(readBuffer);
+    NvmIoCommandSqe readSqe = readCommand.getCommandCapsule().getSubmissionQueueEntry();
+    readSqe.setStartingLba(0);
+    readSqe.setNumberOfLogicalBlocks(1);
+    readSqe.setNamespaceIdentifier(namespace.getIdentifier());
+    /* the same buffer is reused for multiple commands */
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < sectorSize; j++) {
+        data.put(j, (byte) (i + j));
+      }
+      writeCommand.setIncapsuleDataBuffer(data);
+      CommandFuture commandFuture = writeCommand.newCommandFuture();
+      ResponseFuture<NvmResponseCapsule> responseFuture = writeCommand.newResponseFuture();
+      writeCommand.execute(responseFuture);
+      assertTrue(responseFuture.get().getCompletionQueueEntry().isSuccess());
+      commandFuture.get();
+
+      commandFuture = readCommand.newCommandFuture();
+      responseFuture = readCommand.newResponseFuture();
+      readCommand.execute(responseFuture);
+      assertTrue(responseFuture.get().getCompletionQueueEntry().isSuccess());
+      commandFuture.get();
+      for (int j = 0; j < sectorSize; j++) {
+        assertEquals((byte) (i + j), readBuffer.get(j));
+      }
+    }
+    KeyedNativeBuffer tooLarge =
+        ioQueuePair.registerMemory(ByteBuffer.allocateDirect(sectorSize + 1));
+    assertThrows(IllegalArgumentException.class,
+        () -> writeCommand.setIncapsuleDataBuffer(tooLarge));
+    data.free();
+    readBuffer.free();
+    tooLarge.free();
+    ioQueuePair.free();
+  }
+
+  @Tag("rdma")
+  @Test
+  public void inCapsuleWriteThreshold() throws Exception {
+    Controller controller = connectController();
+    Namespace namespace = controller.getActiveNamespaces().get(0);
+    int sectorSize = namespace.getIdentifyNamespaceData().getFormattedLbaSize()
+        .getLbaDataSize().toInt();
+    final int inCapsuleDataSize = 4 * sectorSize;
+    IoQueuePair ioQueuePair = controller.createIoQueuePair(32, 0, inCapsuleDataSize, 0);
+    assertEquals(inCapsuleDataSize, ioQueuePair.getInCapsuleWriteThreshold());
+    assertThrows(IllegalArgumentException.class,
+        () -> ioQueuePair.setInCapsuleWriteThreshold(-1));
+    assertThrows(IllegalArgumentException.class,
+        () -> ioQueuePair.setInCapsuleWriteThreshold(inCapsuleDataSize + 1));
+    KeyedNativeBuffer scratch =
+        ioQueuePair.registerMemory(ByteBuffer.allocateDirect(2 * inCapsuleDataSize));
+    int threshold = ioQueuePair.calibrateInCapsuleWriteThreshold(namespace, 0, scratch);
+    assertTrue(threshold >= 0 && threshold <= inCapsuleDataSize);
+    assertEquals(0, threshold % sectorSize);
+    assertEquals(threshold, ioQueuePair.getInCapsuleWriteThreshold());
+    assertEquals(2 * inCapsuleDataSize, scratch.limit());
+    scratch.free();
+    ioQueuePair.free();
+  }
+
+  @Tag("rdma")
+  @Test
+  public void largeTransfer() throws Exception {
+    Controller controller = connectController();
+    Namespace namespace = controller.getActiveNamespaces().get(0);
+    int sectorSize = namespace.getIdentifyNamespaceData().getFormattedLbaSize()
+        .getLbaDataSize().toInt();
+    int maximumTransferSize = (int) Math.min(1024 * 1024,
+        controller.getIdentifyControllerData().getMaximumDataTransferSize().toLong());
+    IoQueuePair ioQueuePair = controller.createIoQueuePair(4);
+    /* more chunks than queue entries and a partial last chunk */
+    final int numberOfLogicalBlocks = 6 * (maximumTransferSize / sectorSize) + 1;
+    int size = numberOfLogicalBlocks * sectorSize;
+    KeyedNativeBuffer writeBuffer = ioQueuePair.registerMemory(ByteBuffer.allocateDirect(size));
+    KeyedNativeBuffer readBuffer = ioQueuePair.registerMemory(ByteBuffer.allocateDirect(size));
+    for (int i = 0; i < size; i++) {
+      writeBuffer.put(i, (byte) (i * 31));
+    }
+    NamespaceIdentifier namespaceIdentifier = namespace.getIdentifier();
+    assertThrows(IllegalArgumentException.class,
+        () -> ioQueuePair.writeAsync(namespaceIdentifier, 0, size + 1, writeBuffer));
+    assertThrows(IllegalArgumentException.class,
+        () -> ioQueuePair.writeAsync(namespaceIdentifier, 0, 0, writeBuffer));
+    ioQueuePair.writeAsync(namespaceIdentifier, 0, numberOfLogicalBlocks, writeBuffer).get();
+    ioQueuePair.readAsync(namespaceIdentifier, 0, numberOfLogicalBlocks, readBuffer).get();
+    assertEquals(0, readBuffer.position());
+    assertEquals(size, readBuffer.limit());
+    for (int i = 0; i < size; i++) {
+      assertEquals((byte) (i * 31), readBuffer.get(i));
+    }
+    /* concurrent transfers wait for each other's command slots */
+    KeyedNativeBuffer secondReadBuffer = ioQueuePair.registerMemory(
+        ByteBuffer.allocateDirect(size));
+    CompletableFuture<Void> first = ioQueuePair.readAsync(namespaceIdentifier, 0,
+        numberOfLogicalBlocks, readBuffer);
+    CompletableFuture<Void> second = ioQueuePair.readAsync(namespaceIdentifier, 0,
+        numberOfLogicalBlocks, secondReadBuffer);
+    first.get(10, TimeUnit.SECONDS);
+    second.get(10, TimeUnit.SECONDS);
+    for (int i = 0; i < size; i++) {
+      assertEquals((byte) (i * 31), secondReadBuffer.get(i));
+    }
+    writeBuffer.free();
+    readBuffer.free();
+    secondReadBuffer.free();
+    ioQueuePair.free();
+  }
+
+  @Tag("rdma")
+  @Test
+  public void fileTransfer() throws Exception {
+    Controller controller = connectController();
+    Namespace namespace = controller.getActiveNamespaces().get(0);
+    int sectorSize = namespace.getIdentifyNamespaceData().getFormattedLbaSize()
+        .getLbaDataSize().toInt();
+    IoQueuePair ioQueuePair = controller.createIoQueuePair(4);
+    /* several windows and a partial last window */
+    ioQueuePair.setFileTransferWindowSize(64 * sectorSize);
+    final int size = 3 * 64 * sectorSize + 5 * sectorSize;
+    byte[] data = new byte[size];
+    for (int i = 0; i < size; i++) {
+      data[i] = (byte) (i * 31);
+    }
+    Path source = Files.createTempFile("jnvmf", null);
+    Path destination = Files.createTempFile("jnvmf", null);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      /* unaligned file position */
+      Files.write(source, new byte[7]);
+      Files.write(source, data, StandardOpenOption.APPEND);
+      try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+        assertThrows(IllegalArgumentException.class,
+            () -> ioQueuePair.writeFromFileAsync(channel, 7, size + 1, namespace, 0));
+        /* beyond the end of the file */
+        assertThrows(IllegalArgumentException.class,
+            () -> ioQueuePair.writeFromFileAsync(channel, 7, size + sectorSize, namespace, 0));
+        ioQueuePair.writeFromFileAsync(channel, 7, size, namespace, 0).get();
+      }
+      try (FileChannel channel = FileChannel.open(destination, StandardOpenOption.READ,
+          StandardOpenOption.WRITE)) {
+        ioQueuePair.readToFileAsync(namespace, 0, size, channel, 0, executor).get();
+      }
+      assertArrayEquals(data, Files.readAllBytes(destination));
+    } finally {
+      Files.delete(source);
+      Files.delete(destination);
+      executor.shutdown();
+    }
+    ioQueuePair.free();
+  }
+
+  @Tag("rdma")
+  @Test
+  public void fileTransferLargeWindow() throws Exception {
+    Controller controller = connectController();
+    Namespace namespace = controller.getActiveNamespaces().get(0);
+    int sectorSize = namespace.getIdentifyNamespaceData().getFormattedLbaSize()
+        .getLbaDataSize().toInt();
+    final int queueDepth = 4;
+    IoQueuePair ioQueuePair = controller.createIoQueuePair(queueDepth);
+    /* a chunk is limited by MDTS, the keyed SGL length and the number of logical blocks */
+    long chunkSize = Math.min(Math.min(
+        controller.getIdentifyControllerData().getMaximumDataTransferSize().toLong(),
+        (1 << 24) - 1), (long) sectorSize << Short.SIZE) / sectorSize * sectorSize;
+    /* the windows in flight need more chunks than the queue has entries */
+    int windowSize = (int) (queueDepth * chunkSize) + sectorSize;
+    ioQueuePair.setFileTransferWindowSize(windowSize);
+    final int size = 2 * windowSize + 3 * sectorSize;
+    byte[] data = new byte[size];
+    for (int i = 0; i < size; i++) {
+      data[i] = (byte) (i * 31);
+    }
+    Path source = Files.createTempFile("jnvmf", null);
+    Path destination = Files.createTempFile("jnvmf", null);
+    try {
+      Files.write(source, data);
+      try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+        ioQueuePair.writeFromFileAsync(channel, 0, size, namespace, 0).get(60, TimeUnit.SECONDS);
+      }
+      try (FileChannel channel = FileChannel.open(destination, StandardOpenOption.READ,
+          StandardOpenOption.WRITE)) {
+        ioQueuePair.readToFileAsync(namespace, 0, size, channel, 0).get(60, TimeUnit.SECONDS);
+      }
+      assertArrayEquals(data, Files.readAllBytes(destination));
+    } finally {
+      Files.delete(source);
+      Files.delete(destination);
+    }
+    ioQueuePair.free();
+  }
+
+  @Tag("rdma")
+  @Test
+  public void wrapMemory() throws Exception {
+    Controller controller = connectController();
+    Namespace namespace = controller.getActiveNamespaces().get(0);
+    int sectorSize = namespace.getIdentifyNamespaceData().getFormattedLbaSize()
+        .getLbaDataSize().toInt();
+    IoQueuePair ioQueuePair = controller.createIoQueuePair(4);
+    NamespaceIdentifier namespaceIdentifier = namespace.getIdentifier();
+    final int numberOfLogicalBlocks = 8;
+    final int size = numberOfLogicalBlocks * sectorSize;
+    assertThrows(IllegalArgumentException.class, () -> controller.setRegistrationMode(null));
+    for (RegistrationMode mode : new RegistrationMode[]{RegistrationMode.AUTOMATIC,
+        RegistrationMode.CACHED}) {
+      controller.setRegistrationMode(mode);
+      ByteBuffer writeBuffer = ByteBuffer.allocateDirect(size);
+      ByteBuffer readBuffer = ByteBuffer.allocateDirect(size);
+      for (int i = 0; i < size; i++) {
+        writeBuffer.put(i, (byte) (i * 31 + mode.ordinal()));
+      }
+      ioQueuePair.writeAsync(namespaceIdentifier, 0, numberOfLogicalBlocks, writeBuffer).get();
+      ioQueuePair.readAsync(namespaceIdentifier, 0, numberOfLogicalBlocks, readBuffer).get();
+      assertEquals(writeBuffer, readBuffer);
+
+      KeyedNativeBuffer buffer = ioQueuePair.wrapMemory(writeBuffer);
+      assertTrue(buffer.isValid());
+      buffer.free();
+      assertFalse(buffer.isValid());
+      assertThrows(IllegalStateException.class, () -> buffer.free());
+    }
+    ioQueuePair.free();
+    controller.free();
+  }
+}
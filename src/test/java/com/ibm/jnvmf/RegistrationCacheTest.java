@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.jnvmf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+class RegistrationCacheTest {
+
+  private static class CountingRegistrar implements PdMemoryPool.Registrar {
+
+    private int registered;
+    private int deregistered;
+
+    @Override
+    public PdMemoryPool.Registration register(NativeBuffer buffer) {
+      final int key = ++registered;
+      return new PdMemoryPool.Registration() {
+        @Override
+        public int getLocalKey() {
+          return key;
+        }
+
+        @Override
+        public int getRemoteKey() {
+          return ~key;
+        }
+
+        @Override
+        public void deregister() {
+          deregistered++;
+        }
+      };
+    }
+  }
+
+  @Test
+  void hit() throws IOException {
+    CountingRegistrar registrar = new CountingRegistrar();
+    RegistrationCache cache = new RegistrationCache(registrar);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+    KeyedNativeBuffer registered = cache.register(buffer);
+    assertEquals(1, registered.getLocalKey());
+    assertEquals(~1, registered.getRemoteKey());
+    registered.free();
+    assertFalse(registered.isValid());
+    assertThrows(IllegalStateException.class, () -> registered.free());
+
+    KeyedNativeBuffer again = cache.register(buffer);
+    assertEquals(1, again.getLocalKey());
+    /* a slice is covered by the registration of its buffer */
+    buffer.position(1024);
+    KeyedNativeBuffer slice = cache.register(buffer.slice());
+    assertEquals(1, slice.getLocalKey());
+    assertEquals(1, registrar.registered);
+    assertEquals(2, cache.getHits());
+    assertEquals(1, cache.getMisses());
+    assertEquals(4096, cache.getPinnedBytes());
+    again.free();
+    slice.free();
+    assertEquals(0, registrar.deregistered);
+
+    cache.free();
+    assertEquals(1, registrar.deregistered);
+    assertEquals(0, cache.getPinnedBytes());
+    assertThrows(IllegalStateException.class, () -> cache.register(buffer));
+  }
+
+  @Test
+  void overlapping() throws IOException {
+    CountingRegistrar registrar = new CountingRegistrar();
+    RegistrationCache cache = new RegistrationCache(registrar);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+    buffer.position(1024).limit(2048);
+    KeyedNativeBuffer slice = cache.register(buffer.slice());
+    buffer.clear();
+    KeyedNativeBuffer parent = cache.register(buffer);
+    assertEquals(2, registrar.registered);
+    /* the closest registration below (the first slice) does not cover this one */
+    buffer.position(1536).limit(3072);
+    KeyedNativeBuffer other = cache.register(buffer.slice());
+    assertEquals(parent.getLocalKey(), other.getLocalKey());
+    assertEquals(2, registrar.registered);
+    assertEquals(1, cache.getHits());
+    slice.free();
+    parent.free();
+    other.free();
+    cache.free();
+  }
+
+  @Test
+  void leastRecentlyUsedEviction() throws IOException {
+    CountingRegistrar registrar = new CountingRegistrar();
+    RegistrationCache cache = new RegistrationCache(registrar);
+    assertThrows(IllegalArgumentException.class, () -> cache.setPinnedBytesBudget(-1));
+    cache.setPinnedBytesBudget(3 * 1024);
+    ByteBuffer[] buffers = new ByteBuffer[4];
+    for (int i = 0; i < buffers.length; i++) {
+      buffers[i] = ByteBuffer.allocateDirect(1024);
+    }
+    for (int i = 0; i < 3; i++) {
+      cache.register(buffers[i]).free();
+    }
+    /* buffer 0 is now the most recently used */
+    cache.register(buffers[0]).free();
+    cache.register(buffers[3]).free();
+    assertEquals(4, registrar.registered);
+    assertEquals(1, registrar.deregistered);
+    assertEquals(3 * 1024, cache.getPinnedBytes());
+    /* buffer 1 has been evicted */
+    cache.register(buffers[0]).free();
+    assertEquals(4, registrar.registered);
+    cache.register(buffers[1]).free();
+    assertEquals(5, registrar.registered);
+
+    cache.setPinnedBytesBudget(1024);
+    assertEquals(1024, cache.getPinnedBytes());
+    cache.free();
+  }
+
+  @Test
+  void budgetExceeded() throws IOException {
+    CountingRegistrar registrar = new CountingRegistrar();
+    RegistrationCache cache = new RegistrationCache(registrar);
+    cache.setPinnedBytesBudget(1024);
+    KeyedNativeBuffer inUse = cache.register(ByteBuffer.allocateDirect(1024));
+    /* registrations in use are not evicted, the buffer is registered uncached */
+    KeyedNativeBuffer uncached = cache.register(ByteBuffer.allocateDirect(512));
+    assertEquals(2, registrar.registered);
+    assertEquals(1024, cache.getPinnedBytes());
+    uncached.free();
+    assertEquals(1, registrar.deregistered);
+    assertTrue(inUse.isValid());
+    inUse.free();
+    /* a buffer larger than the budget does not evict the unused registration */
+    cache.register(ByteBuffer.allocateDirect(2048)).free();
+    assertEquals(3, registrar.registered);
+    assertEquals(2, registrar.deregistered);
+    assertEquals(1024, cache.getPinnedBytes());
+    assertThrows(IllegalArgumentException.class,
+        () -> cache.register(ByteBuffer.allocate(16)));
+    cache.free();
+  }
+
+  @Test
+  void invalidate() throws IOException {
+    CountingRegistrar registrar = new CountingRegistrar();
+    RegistrationCache cache = new RegistrationCache(registrar);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+    ByteBuffer other = ByteBuffer.allocateDirect(4096);
+    cache.register(buffer).free();
+    KeyedNativeBuffer inUse = cache.register(other);
+    assertEquals(2 * 4096, cache.getPinnedBytes());
+    /* a slice overlaps the registration of its buffer */
+    buffer.position(1024);
+    buffer.limit(2048);
+    cache.invalidate(buffer.slice());
+    assertEquals(1, registrar.deregistered);
+    assertEquals(4096, cache.getPinnedBytes());
+    buffer.clear();
+    assertEquals(3, cache.register(buffer).getLocalKey());
+    /* registrations in use are deregistered once released */
+    cache.invalidate(other);
+    assertEquals(1, registrar.deregistered);
+    assertTrue(inUse.isValid());
+    inUse.free();
+    assertEquals(2, registrar.deregistered);
+    assertEquals(4096, cache.getPinnedBytes());
+    assertEquals(4, cache.register(other).getLocalKey());
+    assertThrows(IllegalArgumentException.class, () -> cache.invalidate(0, -1));
+    assertThrows(IllegalArgumentException.class, () -> cache.invalidate(ByteBuffer.allocate(16)));
+    cache.free();
+    assertEquals(4, registrar.deregistered);
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.jnvmf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+class StatusFieldTest {
+
+  private static NvmCompletionQueueEntry update(int statusField) {
+    NativeBuffer buffer = new NativeByteBuffer(
+        ByteBuffer.allocateDirect(CompletionQueueEntry.SIZE));
+    NvmCompletionQueueEntry cqe = new NvmCompletionQueueEntry();
+    cqe.update(buffer);
+    buffer.putShort(14, (short) statusField);
+    cqe.update(buffer);
+    return cqe;
+  }
+
+  @Test
+  void success() {
+    NvmCompletionQueueEntry cqe = update(0);
+    assertTrue(cqe.isSuccess());
+    assertEquals(GenericStatusCode.getInstance().SUCCESS, cqe.getStatusCode());
+    assertEquals(StatusCodeType.getInstance().GENERIC, cqe.getStatusCodeType());
+    /* phase tag does not matter */
+    assertTrue(update(1).isSuccess());
+  }
+
+  @Test
+  void statusCode() {
+    /* LBA out of range: SCT 0, SC 0x80 */
+    NvmCompletionQueueEntry cqe = update(0x80 << 1);
+    assertFalse(cqe.isSuccess());
+    assertEquals(NvmGenericStatusCode.getInstance().LBA_OUT_OF_RANGE, cqe.getStatusCode());
+    assertFalse(cqe.getMore());
+    assertFalse(cqe.getDoNotRetry());
+
+    /* conflicting attributes: SCT 1, SC 0x80, more and do not retry set */
+    cqe = update((1 << 15) | (1 << 14) | (1 << 9) | (0x80 << 1));
+    assertFalse(cqe.isSuccess());
+    assertEquals(StatusCodeType.getInstance().COMMAND_SPECIFIC, cqe.getStatusCodeType());
+    assertEquals(NvmCommandStatusCode.getInstance().CONFLICTING_ATTRIBUTES,
+        cqe.getStatusCode());
+    assertTrue(cqe.getMore());
+    assertTrue(cqe.getDoNotRetry());
+  }
+
+  @Test
+  void lazyResolution() {
+    /* unknown status code type only fails when resolved */
+    NvmCompletionQueueEntry cqe = update(0x5 << 9);
+    assertFalse(cqe.isSuccess());
+    assertThrows(IllegalArgumentException.class, () -> cqe.getStatusCodeType());
+  }
+}
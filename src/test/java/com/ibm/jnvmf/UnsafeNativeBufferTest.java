@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.ibm.jnvmf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ThreadLocalRandom;
+import org.junit.jupiter.api.Test;
+
+class UnsafeNativeBufferTest {
+
+  private static void assertSameContent(ByteOrder order) {
+    final int size = 64;
+    ByteBuffer expected = ByteBuffer.allocateDirect(size).order(order);
+    NativeBuffer buffer = new UnsafeNativeBuffer(ByteBuffer.allocateDirect(size));
+    buffer.order(order);
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (int i = 0; i < 1000; i++) {
+      int index;
+      switch (random.nextInt(4)) {
+        case 0:
+          index = random.nextInt(size);
+          byte b = (byte) random.nextInt();
+          expected.put(index, b);
+          buffer.put(index, b);
+          assertEquals(expected.get(index), buffer.get(index));
+          break;
+        case 1:
+          index = random.nextInt(size - Short.BYTES + 1);
+          short s = (short) random.nextInt();
+          expected.putShort(index, s);
+          buffer.putShort(index, s);
+          assertEquals(expected.getShort(index), buffer.getShort(index));
+          break;
+        case 2:
+          index = random.nextInt(size - Integer.BYTES + 1);
+          int x = random.nextInt();
+          expected.putInt(index, x);
+          buffer.putInt(index, x);
+          assertEquals(expected.getInt(index), buffer.getInt(index));
+          break;
+        default:
+          index = random.nextInt(size - Long.BYTES + 1);
+          long l = random.nextLong();
+          expected.putLong(index, l);
+          buffer.putLong(index, l);
+          assertEquals(expected.getLong(index), buffer.getLong(index));
+          break;
+      }
+    }
+    assertEquals(expected, buffer.toByteBuffer());
+  }
+
+  @Test
+  void littleEndian() {
+    assertSameContent(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  @Test
+  void bigEndian() {
+    assertSameContent(ByteOrder.BIG_ENDIAN);
+  }
+
+  @Test
+  void slice() {
+    NativeBuffer buffer = new UnsafeNativeBuffer(ByteBuffer.allocateDirect(64));
+    buffer.position(16);
+    NativeBuffer slice = buffer.slice();
+    assertTrue(slice instanceof UnsafeNativeBuffer);
+    assertEquals(buffer.getAddress() + 16, slice.getAddress());
+    slice.order(ByteOrder.LITTLE_ENDIAN);
+    slice.putLong(0, 0x0102030405060708L);
+    assertEquals(0x08, buffer.get(16));
+  }
+
+  @Test
+  void relativePut() {
+    NativeBuffer buffer = new UnsafeNativeBuffer(ByteBuffer.allocateDirect(9));
+    buffer.putLong(-1L);
+    assertEquals(Long.BYTES, buffer.position());
+    assertThrows(BufferOverflowException.class, () -> buffer.putLong(0));
+    buffer.put((byte) 1);
+    assertThrows(BufferOverflowException.class, () -> buffer.put((byte) 1));
+    assertEquals(-1L, buffer.getLong(0));
+    assertEquals(1, buffer.get(8));
+  }
+
+  @Test
+  void bounds() {
+    /* bounds are checked with assertions enabled */
+    NativeBuffer buffer = new UnsafeNativeBuffer(ByteBuffer.allocateDirect(16));
+    assertThrows(IndexOutOfBoundsException.class, () -> buffer.putLong(9, 0));
+    assertThrows(IndexOutOfBoundsException.class, () -> buffer.getInt(-1));
+    buffer.limit(8);
+    assertThrows(IndexOutOfBoundsException.class, () -> buffer.put(8, (byte) 0));
+  }
+
+  @Test
+  void readOnly() {
+    assertThrows(IllegalArgumentException.class,
+        () -> new UnsafeNativeBuffer(ByteBuffer.allocateDirect(8).asReadOnlyBuffer()));
+  }
+
+  @Test
+  void poolElement() throws IOException {
+    PdMemoryPool memoryPool = new PdMemoryPool(new OffHeapMemoryAllocator(),
+        PdMemoryPoolTest.fakeRegistrar(1), 128, 1, 1, ByteOrder.LITTLE_ENDIAN);
+    memoryPool.setUnsafeAccess(true);
+    KeyedNativeBuffer buffer = memoryPool.allocate();
+    assertTrue(buffer instanceof UnsafeNativeBuffer);
+    assertThrows(IllegalStateException.class, () -> memoryPool.setUnsafeAccess(false));
+    buffer.position(64);
+    NativeBuffer slice = buffer.slice();
+    assertTrue(slice instanceof UnsafeNativeBuffer);
+    assertEquals(1, ((KeyedNativeBuffer) slice).getLocalKey());
+    buffer.free();
+    buffer = memoryPool.allocate();
+    assertTrue(buffer instanceof UnsafeNativeBuffer);
+    assertEquals(ByteOrder.LITTLE_ENDIAN, buffer.order());
+  }
+}
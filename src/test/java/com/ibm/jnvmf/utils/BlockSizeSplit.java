@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.jnvmf.utils;
+
+import java.util.Random;
+
+/*
+ * fio style block size distribution, e.g. "4k/70:128k/30" for 70% 4KiB and
+ * 30% 128KiB transfers. Sizes are in bytes with optional k/m suffix.
+ */
+class BlockSizeSplit {
+
+  private final int[] sizes;
+  /* cumulative percentages */
+  private final int[] percentiles;
+
+  BlockSizeSplit(int size) {
+    this.sizes = new int[]{size};
+    this.percentiles = new int[]{100};
+  }
+
+  BlockSizeSplit(String split) {
+    String[] entries = split.split(":");
+    this.sizes = new int[entries.length];
+    this.percentiles = new int[entries.length];
+    int sum = 0;
+    for (int i = 0; i < entries.length; i++) {
+      String[] entry = entries[i].split("/");
+      if (entry.length != 2) {
+        throw new IllegalArgumentException("Invalid block size split entry " + entries[i]);
+      }
+      sizes[i] = parseSize(entry[0]);
+      sum += Integer.parseInt(entry[1]);
+      percentiles[i] = sum;
+    }
+    if (sum != 100) {
+      throw new IllegalArgumentException("Block size split percentages add up to " + sum);
+    }
+  }
+
+  static int parseSize(String size) {
+    String lowerCase = size.trim().toLowerCase();
+    int multiplier = 1;
+    if (lowerCase.endsWith("k")) {
+      multiplier = 1024;
+    } else if (lowerCase.endsWith("m")) {
+      multiplier = 1024 * 1024;
+    }
+    if (multiplier != 1) {
+      lowerCase = lowerCase.substring(0, lowerCase.length() - 1);
+    }
+    return Math.multiplyExact(Integer.parseInt(lowerCase), multiplier);
+  }
+
+  int next(Random random) {
+    if (sizes.length == 1) {
+      return sizes[0];
+    }
+    int percent = random.nextInt(100);
+    int i = 0;
+    while (percent >= percentiles[i]) {
+      i++;
+    }
+    return sizes[i];
+  }
+
+  int getMaximumSize() {
+    int max = 0;
+    for (int size : sizes) {
+      max = Math.max(max, size);
+    }
+    return max;
+  }
+
+  int[] getSizes() {
+    return sizes.clone();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    int previous = 0;
+    for (int i = 0; i < sizes.length; i++) {
+      if (i > 0) {
+        builder.append(':');
+      }
+      builder.append(sizes[i]).append('/').append(percentiles[i] - previous);
+      previous = percentiles[i];
+    }
+    return builder.toString();
+  }
+}
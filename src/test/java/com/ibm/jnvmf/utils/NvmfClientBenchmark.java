@@ -20,7 +20,6 @@ package com.ibm.jnvmf.utils;
 import com.ibm.jnvmf.Command;
 import com.ibm.jnvmf.Controller;
 import com.ibm.jnvmf.ControllerCapabilities;
-import com.ibm.jnvmf.GenericStatusCode;
 import com.ibm.jnvmf.IoQueuePair;
 import com.ibm.jnvmf.IdentifyControllerData;
 import com.ibm.jnvmf.IdentifyNamespaceData;
@@ -40,9 +39,9 @@ import com.ibm.jnvmf.Nvme;
 import com.ibm.jnvmf.NvmeQualifiedName;
 import com.ibm.jnvmf.NvmfTransportId;
 import com.ibm.jnvmf.OperationCallback;
+import com.ibm.jnvmf.QueuePair;
 import com.ibm.jnvmf.RdmaException;
 import com.ibm.jnvmf.Response;
-import com.ibm.jnvmf.StatusCode;
 import com.ibm.jnvmf.SubmissionQueueEntry;
 import com.ibm.jnvmf.UnsuccessfulComandException;
 import java.io.File;
@@ -55,11 +54,14 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -70,39 +72,58 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
 
 public class NvmfClientBenchmark {
 
+  /* latencies above are recorded as MAX_LATENCY_NS */
+  private static final long MAX_LATENCY_NS = TimeUnit.NANOSECONDS.convert(1, TimeUnit.MINUTES);
+
   private Controller controller;
-  private IoQueuePair queuePair;
+  private Worker[] workers;
+  private Namespace namespace;
   private Nvme nvme;
 
-  private final List<Long> stats;
+  /* latencies of the last run and of all runs */
+  private final Histogram histogram;
+  private final Histogram cumulativeHistogram;
+  private HistogramLogWriter histogramLogWriter;
   private int interval;
   private long runs;
   private int queueDepth;
   private int transferSize;
   private AccessPattern accessPattern;
-  private boolean write;
+  /* percentage of reads, 0 = write only, 100 = read only */
+  private int readPercent;
+  private BlockSizeSplit blockSizeSplit;
+  private double zipfTheta;
+  /* target IOPS of all threads, 0 = closed loop */
+  private long rate;
   private final boolean doStats;
   private int align;
   private final boolean inline;
   private int queueSize;
   private final boolean incapsuleData;
+  private int sendSignalInterval;
+  private int waitSpinCount;
+  private boolean unsafeBufferAccess;
+  private int threads;
+  private int queuesPerThread;
+  private int namespaceId;
   private PrintWriter logWriter;
 
-  private final ThreadLocalRandom random;
-
   enum AccessPattern {
     SEQUENTIAL,
     RANDOM,
-    SAME
+    SAME,
+    ZIPF
   }
 
   NvmfClientBenchmark(String[] args)
       throws IOException, ExecutionException, InterruptedException, TimeoutException {
-    this.stats = new ArrayList<>();
-    this.random = ThreadLocalRandom.current();
+    this.histogram = newHistogram();
+    this.cumulativeHistogram = newHistogram();
 
     Options options = new Options();
     Option address = Option.builder("a").required().desc("ip address").hasArg().build();
@@ -117,17 +138,20 @@ public class NvmfClientBenchmark {
         .type(Number.class).build();
     Option queueSizeOption = Option.builder("qs").desc("submission queue size").hasArg()
         .type(Number.class).build();
-    Option sizeOption = Option.builder("s").required().desc("size (bytes)").hasArg()
+    Option sizeOption = Option.builder("s").desc("size (bytes)").hasArg()
         .type(Number.class).build();
     Option accessPatternOption = Option.builder("m").required()
-        .desc("access pattern: SEQUENTIAL/RANDOM/SAME").hasArg().build();
-    Option readWrite = Option.builder("rw").required().desc("read/write").hasArg().build();
+        .desc("access pattern: SEQUENTIAL/RANDOM/SAME/ZIPF").hasArg().build();
+    Option readWrite = Option.builder("rw").required().desc("read/write/rw (mixed)").hasArg()
+        .build();
     Option alignOption = Option.builder("g").desc("align to (default 1)").hasArg()
         .type(Number.class).build();
-    Option histogram = Option.builder("H").desc("print historgram").build();
+    Option histogramOption = Option.builder("H").desc("print historgram").build();
     Option inlineOption = Option.builder("I").desc("use RDMA inline data").build();
     Option incapsuleOption = Option.builder("ic").desc("use incapsule data").build();
     Option logOption = Option.builder("o").desc("log results to file").hasArg().build();
+    Option sendSignalIntervalOption = Option.builder("si")
+        .desc("signal every n-th send (default 1)").hasArg().type(Number.class).build();
 
     options.addOption(address);
     options.addOption(port);
@@ -140,10 +164,43 @@ public class NvmfClientBenchmark {
     options.addOption(accessPatternOption);
     options.addOption(readWrite);
     options.addOption(alignOption);
-    options.addOption(histogram);
+    options.addOption(histogramOption);
     options.addOption(inlineOption);
     options.addOption(incapsuleOption);
     options.addOption(logOption);
+    options.addOption(sendSignalIntervalOption);
+    Option eventWaitOption = Option.builder("w")
+        .desc("wait for completion events after n empty polls instead of busy polling").hasArg()
+        .type(Number.class).build();
+    options.addOption(eventWaitOption);
+    Option threadsOption = Option.builder("t").desc("number of threads (default 1)").hasArg()
+        .type(Number.class).build();
+    options.addOption(threadsOption);
+    Option queuesOption = Option.builder("q").desc("queue pairs per thread (default 1)")
+        .hasArg().type(Number.class).build();
+    options.addOption(queuesOption);
+    Option namespaceOption = Option.builder("nsid").desc("namespace identifier (default 1)")
+        .hasArg().type(Number.class).build();
+    options.addOption(namespaceOption);
+    Option readMixOption = Option.builder("rwmixread")
+        .desc("percentage of reads with -rw rw (default 50)").hasArg().type(Number.class).build();
+    options.addOption(readMixOption);
+    Option blockSizeSplitOption = Option.builder("bssplit")
+        .desc("block size distribution, e.g. 4k/70:128k/30 (instead of -s)").hasArg().build();
+    options.addOption(blockSizeSplitOption);
+    Option zipfOption = Option.builder("zipf").desc("zipf theta for -m ZIPF (default 1.2)")
+        .hasArg().build();
+    options.addOption(zipfOption);
+    Option rateOption = Option.builder("rate")
+        .desc("target IOPS of all threads (open loop), latency includes queueing").hasArg()
+        .type(Number.class).build();
+    options.addOption(rateOption);
+    Option histogramLogOption = Option.builder("hlog")
+        .desc("write HdrHistogram interval log to file (implies -H)").hasArg().build();
+    options.addOption(histogramLogOption);
+    Option unsafeOption = Option.builder("U")
+        .desc("access command and response capsules with Unsafe instead of ByteBuffer").build();
+    options.addOption(unsafeOption);
 
     CommandLineParser parser = new DefaultParser();
     CommandLine line = null;
@@ -153,11 +210,24 @@ public class NvmfClientBenchmark {
     interval = 0;
     align = 1;
     queueSize = 128;
+    sendSignalInterval = 1;
+    waitSpinCount = -1;
+    threads = 1;
+    queuesPerThread = 1;
+    namespaceId = 1;
     try {
       line = parser.parse(options, args);
       runs = ((Number) line.getParsedOptionValue(runsOption.getOpt())).intValue();
       queueDepth = ((Number) line.getParsedOptionValue(queueDepthOption.getOpt())).intValue();
-      transferSize = ((Number) line.getParsedOptionValue(sizeOption.getOpt())).intValue();
+      if (line.hasOption(blockSizeSplitOption.getOpt())) {
+        blockSizeSplit = new BlockSizeSplit(line.getOptionValue(blockSizeSplitOption.getOpt()));
+      } else if (line.hasOption(sizeOption.getOpt())) {
+        blockSizeSplit = new BlockSizeSplit(
+            ((Number) line.getParsedOptionValue(sizeOption.getOpt())).intValue());
+      } else {
+        throw new ParseException("-s or -bssplit required");
+      }
+      transferSize = blockSizeSplit.getMaximumSize();
       interval = ((Number) line.getParsedOptionValue(intervalOption.getOpt())).intValue();
       if (line.hasOption(alignOption.getOpt())) {
         align = ((Number) line.getParsedOptionValue(alignOption.getOpt())).intValue();
@@ -165,6 +235,35 @@ public class NvmfClientBenchmark {
       if (line.hasOption(queueSizeOption.getOpt())) {
         queueSize = ((Number) line.getParsedOptionValue(queueSizeOption.getOpt())).intValue();
       }
+      if (line.hasOption(sendSignalIntervalOption.getOpt())) {
+        sendSignalInterval = ((Number) line.getParsedOptionValue(
+            sendSignalIntervalOption.getOpt())).intValue();
+      }
+      if (line.hasOption(eventWaitOption.getOpt())) {
+        waitSpinCount = ((Number) line.getParsedOptionValue(
+            eventWaitOption.getOpt())).intValue();
+      }
+      unsafeBufferAccess = line.hasOption(unsafeOption.getOpt());
+      if (line.hasOption(threadsOption.getOpt())) {
+        threads = ((Number) line.getParsedOptionValue(threadsOption.getOpt())).intValue();
+      }
+      if (line.hasOption(queuesOption.getOpt())) {
+        queuesPerThread = ((Number) line.getParsedOptionValue(queuesOption.getOpt())).intValue();
+      }
+      readPercent = 50;
+      if (line.hasOption(readMixOption.getOpt())) {
+        readPercent = ((Number) line.getParsedOptionValue(readMixOption.getOpt())).intValue();
+      }
+      zipfTheta = 1.2;
+      if (line.hasOption(zipfOption.getOpt())) {
+        zipfTheta = Double.parseDouble(line.getOptionValue(zipfOption.getOpt()));
+      }
+      if (line.hasOption(rateOption.getOpt())) {
+        rate = ((Number) line.getParsedOptionValue(rateOption.getOpt())).longValue();
+      }
+      if (line.hasOption(namespaceOption.getOpt())) {
+        namespaceId = ((Number) line.getParsedOptionValue(namespaceOption.getOpt())).intValue();
+      }
     } catch (ParseException e) {
       formatter.printHelp("nvmf", options);
       System.exit(-1);
@@ -179,16 +278,20 @@ public class NvmfClientBenchmark {
     accessPattern = AccessPattern.valueOf(line.getOptionValue(accessPatternOption.getOpt()));
     String str = line.getOptionValue("rw");
     if (str.compareTo("write") == 0) {
-      write = true;
+      readPercent = 0;
     } else if (str.compareTo("read") == 0) {
-      write = false;
-    } else {
-      throw new IllegalArgumentException("rw can only be \"read\" or \"write\"");
+      readPercent = 100;
+    } else if (str.compareTo("rw") != 0) {
+      throw new IllegalArgumentException("rw can only be \"read\", \"write\" or \"rw\"");
     }
-    doStats = line.hasOption(histogram.getOpt());
+    if (readPercent < 0 || readPercent > 100) {
+      throw new IllegalArgumentException("rwmixread has to be between 0 and 100");
+    }
+    doStats = line.hasOption(histogramOption.getOpt())
+        || line.hasOption(histogramLogOption.getOpt());
     inline = line.hasOption(inlineOption.getOpt());
     incapsuleData = line.hasOption(incapsuleOption.getOpt());
-    if (!write && incapsuleData) {
+    if (readPercent == 100 && incapsuleData) {
       throw new IllegalArgumentException("read does not support incapsule data");
     }
 
@@ -196,14 +299,48 @@ public class NvmfClientBenchmark {
       String path = line.getOptionValue(logOption.getOpt());
       logWriter = new PrintWriter(new FileOutputStream(new File(path), true));
     }
+    if (line.hasOption(histogramLogOption.getOpt())) {
+      String path = line.getOptionValue(histogramLogOption.getOpt());
+      histogramLogWriter = new HistogramLogWriter(new File(path));
+      histogramLogWriter.outputLogFormatVersion();
+      long now = System.currentTimeMillis();
+      histogramLogWriter.outputStartTime(now);
+      histogramLogWriter.setBaseTime(now);
+      histogramLogWriter.outputLegend();
+    }
 
     System.out
-        .println((write ? "write" : "read") + " " + transferSize + "bytes with QD = " + queueDepth +
-            ", time[s] = " + interval + ", pattern = " + accessPattern.name() + ", runs = " + runs);
+        .println(getWorkloadName() + " " + blockSizeSplit + " bytes with QD = " + queueDepth +
+            ", time[s] = " + interval + ", pattern = " + accessPattern.name() + ", runs = " + runs
+            + ", send signal interval = " + sendSignalInterval
+            + ", completion wait = " + (waitSpinCount < 0 ? "poll" : "event after "
+            + waitSpinCount + " polls") + ", unsafe buffers = " + unsafeBufferAccess
+            + ", threads = " + threads + ", queues/thread = "
+            + queuesPerThread + ", namespace = " + namespaceId
+            + (accessPattern == AccessPattern.ZIPF ? ", zipf theta = " + zipfTheta : "")
+            + (rate > 0 ? ", target iops = " + rate : ""));
     connect(transportId);
   }
 
+  private String getWorkloadName() {
+    if (readPercent == 100) {
+      return "read";
+    } else if (readPercent == 0) {
+      return "write";
+    } else {
+      return "rw" + readPercent;
+    }
+  }
+
+  /* fixed size, recording does not allocate */
+  static Histogram newHistogram() {
+    return new Histogram(MAX_LATENCY_NS, 3);
+  }
+
   void close() throws IOException {
+    if (histogramLogWriter != null) {
+      histogramLogWriter.close();
+    }
     if (logWriter != null) {
       logWriter.flush();
       logWriter.close();
@@ -217,6 +354,7 @@ public class NvmfClientBenchmark {
     controller.getControllerConfiguration().setEnable(true);
     controller.syncConfiguration();
     controller.waitUntilReady();
+    controller.setUnsafeBufferAccess(unsafeBufferAccess);
 
     IdentifyControllerData identifyControllerData = controller.getIdentifyControllerData();
     System.out.println("Identify Controller Data: \n" +
@@ -237,33 +375,64 @@ public class NvmfClientBenchmark {
     if (incapsuleData) {
       incapsuleDataSize = transferSize;
     }
-    queuePair = controller.createIoQueuePair(queueSize, 0, incapsuleDataSize, inlineDataSize);
+    NamespaceIdentifier namespaceIdentifier = new NamespaceIdentifier(namespaceId);
+    for (Namespace activeNamespace : controller.getActiveNamespaces()) {
+      if (activeNamespace.getIdentifier().equals(namespaceIdentifier)) {
+        namespace = activeNamespace;
+      }
+    }
+    if (namespace == null) {
+      throw new IllegalArgumentException("Namespace " + namespaceId + " not active");
+    }
+    /* every thread gets its own equally sized LBA range */
+    final long totalSizeSector = namespace.getIdentifyNamespaceData().getNamespaceCapacity();
+    final long rangeSizeSector = totalSizeSector / threads;
+    workers = new Worker[threads];
+    for (int i = 0; i < threads; i++) {
+      IoQueuePair[] queuePairs = new IoQueuePair[queuesPerThread];
+      for (int j = 0; j < queuesPerThread; j++) {
+        IoQueuePair queuePair = controller.createIoQueuePair(queueSize, 0, incapsuleDataSize,
+            inlineDataSize);
+        queuePair.setSendSignalInterval(sendSignalInterval);
+        if (waitSpinCount >= 0) {
+          queuePair.setCompletionWait(QueuePair.CompletionWait.EVENT);
+          queuePair.setWaitSpinCount(waitSpinCount);
+        }
+        queuePairs[j] = queuePair;
+      }
+      workers[i] = new Worker(queuePairs, i * rangeSizeSector, rangeSizeSector);
+    }
   }
 
-  void printRunStats(long operations, long actualTime) throws IOException {
+  private static void printPercentiles(Histogram histogram) {
+    System.out.print(", min[ns] " + histogram.getMinValue() +
+        ", max[ns] " + histogram.getMaxValue());
+    double percentiles[] = new double[]{
+        1, 10, 20, 30, 40, 50, 75, 90, 95, 98, 99, 99.9, 99.99
+    };
+    for (double percentile : percentiles) {
+      System.out.print(", p" + percentile + "% " + histogram.getValueAtPercentile(percentile));
+    }
+  }
+
+  void printRunStats(long operations, long bytes, long actualTime) throws IOException {
     long iops = (operations * TimeUnit.NANOSECONDS.convert(1, TimeUnit.SECONDS)) / actualTime;
     long meanNs;
     if (doStats) {
-      Collections.sort(stats);
-      long sum = 0;
-      for (long x : stats) {
-        sum += x;
-      }
-      meanNs = sum / operations;
+      meanNs = (long) histogram.getMean();
     } else {
       meanNs = actualTime / operations;
     }
 
     if (logWriter != null) {
       IdentifyControllerData identifyControllerData = controller.getIdentifyControllerData();
-      List<Namespace> namespaces = controller.getActiveNamespaces();
       DateFormat dateFormat = new SimpleDateFormat("dd.MM.yyyy");
       Date date = new Date();
       logWriter.print(dateFormat.format(date));
       logWriter.print(",");
       logWriter.print(identifyControllerData.getModelNumber());
       logWriter.print(",");
-      IdentifyNamespaceData identifyNamespaceData = namespaces.get(0).getIdentifyNamespaceData();
+      IdentifyNamespaceData identifyNamespaceData = namespace.getIdentifyNamespaceData();
       logWriter.print(identifyNamespaceData.getNamespaceCapacity());
       logWriter.print(",");
       LbaFormat lbaFormat = identifyNamespaceData.getFormattedLbaSize();
@@ -278,11 +447,7 @@ public class NvmfClientBenchmark {
       if (accessPattern == AccessPattern.RANDOM) {
         logWriter.print("rand");
       }
-      if (write) {
-        logWriter.print("write");
-      } else {
-        logWriter.print("read");
-      }
+      logWriter.print(getWorkloadName());
       logWriter.print(",");
       logWriter.print(interval);
       logWriter.print(",");
@@ -294,28 +459,19 @@ public class NvmfClientBenchmark {
         ", #ops " + operations +
         ", iops " + iops +
         ", mean[ns] " + meanNs);
-    double tpMBs = iops * transferSize / (1024.0 * 1024.0);
+    double tpMBs = (bytes * (double) TimeUnit.NANOSECONDS.convert(1, TimeUnit.SECONDS))
+        / actualTime / (1024.0 * 1024.0);
     System.out.printf(", tp[MB/s] %.2f", tpMBs);
     if (doStats) {
-      long min = stats.get(0);
-      long max = stats.get(stats.size() - 1);
-      System.out.print(", min[ns] " + min +
-          ", max[ns] " + max);
-      double percentiles[] = new double[]{
-          0.01, 0.1, 0.2, 0.3, 0.4, 0.5, 0.75, 0.90, 0.95, 0.98, 0.99, 0.999, 0.9999
-      };
-      for (double percentile : percentiles) {
-        System.out.print(
-            ", p" + (percentile * 100.0) + "% " + stats.get((int) (stats.size() * percentile)));
-      }
+      printPercentiles(histogram);
       if (logWriter != null) {
-        logWriter.print(stats.get((int) (stats.size() * 0.5)) / 1000.0);
+        logWriter.print(histogram.getValueAtPercentile(50) / 1000.0);
         logWriter.print(",");
-        logWriter.print(stats.get((int) (stats.size() * 0.9)) / 1000.0);
+        logWriter.print(histogram.getValueAtPercentile(90) / 1000.0);
         logWriter.print(",");
-        logWriter.print(stats.get((int) (stats.size() * 0.99)) / 1000.0);
+        logWriter.print(histogram.getValueAtPercentile(99) / 1000.0);
         logWriter.print(",");
-        logWriter.print(stats.get((int) (stats.size() * 0.999)) / 1000.0);
+        logWriter.print(histogram.getValueAtPercentile(99.9) / 1000.0);
         logWriter.print(",");
       }
     } else if (logWriter != null) {
@@ -338,158 +494,366 @@ public class NvmfClientBenchmark {
     System.out.println();
   }
 
-  void run() throws IOException, ExecutionException, InterruptedException, RdmaException {
-    KeyedNativeBuffer buffers[] = null;
-    if (!incapsuleData) {
-      buffers = new KeyedNativeBuffer[queueDepth];
-      for (int i = 0; i < queueDepth; i++) {
-        ByteBuffer buffer = ByteBuffer.allocateDirect(transferSize);
-        KeyedNativeBuffer registeredBuffer = queuePair.registerMemory(buffer);
-        byte bytes[] = new byte[registeredBuffer.capacity()];
-        random.nextBytes(bytes);
+  /* a slot can execute a read or a write at a time */
+  private class Slot {
+
+    private final NvmReadCommand readCommand;
+    private final NvmWriteCommand writeCommand;
+    private final KeyedNativeBuffer buffer;
+    private final NativeBuffer incapsuleBuffer;
+    private final Response<NvmResponseCapsule> response;
+    private boolean commandDone;
+    private boolean responseDone;
+    private long startTime;
+
+    Slot(IoQueuePair queuePair, QueueState queue, ThreadLocalRandom random) throws IOException {
+      byte bytes[] = new byte[transferSize];
+      random.nextBytes(bytes);
+      if (readPercent > 0 || !incapsuleData) {
+        KeyedNativeBuffer registeredBuffer = queuePair.registerMemory(
+            ByteBuffer.allocateDirect(transferSize));
         registeredBuffer.put(bytes);
         registeredBuffer.clear();
-        buffers[i] = registeredBuffer;
-      }
-    }
-
-    final Queue<RdmaException> rdmaException = new ArrayDeque<>(queueDepth);
-    final Queue<Command> commands = new ArrayDeque<>(queueDepth);
-    final Queue<Response> responses = new ArrayDeque<>(queueDepth);
-    for (int i = 0; i < queueDepth; i++) {
-      NvmIoCommand<? extends NvmIoCommandCapsule> command;
-      if (write) {
-        NvmWriteCommand writeCommand = new NvmWriteCommand(queuePair);
-        if (incapsuleData) {
-          NativeBuffer buffer = writeCommand.getIncapsuleData();
-          byte bytes[] = new byte[transferSize];
-          random.nextBytes(bytes);
-          buffer.put(bytes);
-          buffer.flip();
-          writeCommand.setIncapsuleData(buffer);
-        }
-        command = writeCommand;
+        buffer = registeredBuffer;
       } else {
-        command = new NvmReadCommand(queuePair);
-      }
-      command.setSendInline(inline);
-      NvmIoCommandCapsule commandCapsule = command.getCommandCapsule();
-      if (!incapsuleData) {
-        commandCapsule.setSglDescriptor(buffers[i]);
+        buffer = null;
       }
-      command.setCallback(new OperationCallback() {
+      OperationCallback commandCallback = new OperationCallback() {
         @Override
         public void onStart() {
         }
 
         @Override
         public void onComplete() {
-          commands.add(command);
+          commandDone = true;
+          if (responseDone) {
+            queue.freeSlots.add(Slot.this);
+          }
         }
 
         @Override
         public void onFailure(RdmaException e) {
-          rdmaException.add(e);
+          queue.rdmaException.add(e);
         }
-      });
-      commands.add(command);
-      Response<NvmResponseCapsule> response = command.newResponse();
+      };
+      if (readPercent > 0) {
+        readCommand = new NvmReadCommand(queuePair);
+        readCommand.setSendInline(inline);
+        readCommand.setCallback(commandCallback);
+      } else {
+        readCommand = null;
+      }
+      if (readPercent < 100) {
+        writeCommand = new NvmWriteCommand(queuePair);
+        if (incapsuleData) {
+          incapsuleBuffer = writeCommand.getIncapsuleData();
+          incapsuleBuffer.put(bytes);
+          incapsuleBuffer.clear();
+        } else {
+          incapsuleBuffer = null;
+        }
+        writeCommand.setSendInline(inline);
+        writeCommand.setCallback(commandCallback);
+      } else {
+        writeCommand = null;
+        incapsuleBuffer = null;
+      }
+      response = (readCommand != null ? readCommand : writeCommand).newResponse();
       response.setCallback(new OperationCallback() {
-        long startTime;
-
         @Override
         public void onStart() {
-          if (doStats) {
-            startTime = System.nanoTime();
-          }
         }
 
         @Override
         public void onComplete() {
           if (doStats) {
-            stats.add(System.nanoTime() - startTime);
+            queue.histogram.recordValue(
+                Math.min(System.nanoTime() - startTime, MAX_LATENCY_NS));
+          }
+          responseDone = true;
+          if (commandDone) {
+            queue.freeSlots.add(Slot.this);
           }
-          responses.add(response);
         }
 
         @Override
         public void onFailure(RdmaException e) {
-          rdmaException.add(e);
+          queue.rdmaException.add(e);
         }
       });
-      responses.add(response);
+      commandDone = true;
+      responseDone = true;
     }
 
-    final Namespace namespace = controller.getActiveNamespaces().get(0);
-    LbaFormat lbaFormat = namespace.getIdentifyNamespaceData().getFormattedLbaSize();
-    final int sectorSize = lbaFormat.getLbaDataSize().toInt();
-    final int sectorCount = transferSize / sectorSize;
-    final long totalSizeSector = namespace.getIdentifyNamespaceData().getNamespaceCapacity();
+    NvmIoCommand<?> prepare(boolean read, int size) {
+      NvmIoCommand<?> command;
+      if (read) {
+        command = readCommand;
+      } else {
+        command = writeCommand;
+      }
+      if (!read && incapsuleData) {
+        incapsuleBuffer.limit(size);
+        writeCommand.setIncapsuleData(incapsuleBuffer);
+        incapsuleBuffer.clear();
+      } else {
+        buffer.limit(size);
+        command.getCommandCapsule().setSglDescriptor(buffer);
+        buffer.clear();
+      }
+      commandDone = false;
+      responseDone = false;
+      return command;
+    }
 
-    NamespaceIdentifier namespaceIdentifier = new NamespaceIdentifier(0x1);
+    void free() throws IOException {
+      if (buffer != null) {
+        buffer.free();
+      }
+      if (readCommand != null) {
+        readCommand.getCommandCapsule().free();
+      }
+      if (writeCommand != null) {
+        writeCommand.getCommandCapsule().free();
+      }
+    }
+  }
 
-    long intervalNs = TimeUnit.NANOSECONDS.convert(interval, TimeUnit.SECONDS);
-    for (int r = 0; r < runs; r++) {
-      // start at random offset
-      long lba = random.nextLong(totalSizeSector - sectorCount);
-      lba -= lba % align;
+  /* the queue pairs of a worker are only used by the worker's thread */
+  private class QueueState {
+
+    private final IoQueuePair queuePair;
+    private final Slot[] slots;
+    private final Queue<RdmaException> rdmaException;
+    private final Queue<Slot> freeSlots;
+    private final Histogram histogram;
+    private long lba;
+
+    QueueState(IoQueuePair queuePair, Histogram histogram) throws IOException {
+      this.queuePair = queuePair;
+      this.histogram = histogram;
+      this.rdmaException = new ArrayDeque<>(queueDepth);
+      this.freeSlots = new ArrayDeque<>(queueDepth);
+      this.slots = new Slot[queueDepth];
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      for (int i = 0; i < queueDepth; i++) {
+        slots[i] = new Slot(queuePair, this, random);
+        freeSlots.add(slots[i]);
+      }
+    }
 
+    void free() throws IOException {
+      for (Slot slot : slots) {
+        slot.free();
+      }
+    }
+  }
+
+  private class Worker {
+
+    private final QueueState[] queues;
+    private final IoQueuePair[] queuePairs;
+    /* LBA range [rangeStart, rangeStart + rangeSize) of this worker */
+    private final long rangeStart;
+    private final long rangeSize;
+    private final Histogram histogram;
+    private ZipfGenerator zipfGenerator;
+
+    Worker(IoQueuePair[] queuePairs, long rangeStart, long rangeSize) {
+      this.queuePairs = queuePairs;
+      this.queues = new QueueState[queuePairs.length];
+      this.rangeStart = rangeStart;
+      this.rangeSize = rangeSize;
+      this.histogram = newHistogram();
+    }
+
+    void init() throws IOException {
+      for (int i = 0; i < queuePairs.length; i++) {
+        queues[i] = new QueueState(queuePairs[i], histogram);
+      }
+      if (accessPattern == AccessPattern.ZIPF) {
+        /* rank 1 (the hottest block) is at the start of the range */
+        zipfGenerator = new ZipfGenerator(rangeSize / align, zipfTheta);
+      }
+    }
+
+    long align(long lba) {
+      return lba - (lba - rangeStart) % align;
+    }
+
+    long nextLba(QueueState queue, int sectorCount, ThreadLocalRandom random) {
+      long lba;
+      switch (accessPattern) {
+        case SEQUENTIAL:
+          lba = queue.lba;
+          if (lba > rangeStart + rangeSize - sectorCount) {
+            lba = rangeStart;
+          }
+          queue.lba = align(lba + sectorCount + align - 1);
+          return lba;
+        case RANDOM:
+          return align(rangeStart + random.nextLong(rangeSize - sectorCount + 1));
+        case ZIPF:
+          lba = rangeStart + (zipfGenerator.next(random) - 1) * align;
+          return Math.min(lba, align(rangeStart + rangeSize - sectorCount));
+        default:
+          return queue.lba;
+      }
+    }
+
+    /* returns {operations, bytes, time[ns]} */
+    long[] run(long intervalNs, int sectorSize, CyclicBarrier barrier) throws Exception {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      NamespaceIdentifier namespaceIdentifier = namespace.getIdentifier();
+      histogram.reset();
+      for (QueueState queue : queues) {
+        // start at random offset
+        queue.lba = align(rangeStart + random.nextLong(rangeSize - transferSize / sectorSize));
+      }
+      final long ratePeriodNs = rate > 0
+          ? TimeUnit.NANOSECONDS.convert(1, TimeUnit.SECONDS) * threads / rate : 0;
+      barrier.await();
       long actualTime;
       long operations = 0;
-      stats.clear();
-      long nextTime = System.nanoTime() + intervalNs;
+      long bytes = 0;
+      final long startTime = System.nanoTime();
+      long nextIssueTime = startTime;
+      long nextTime = startTime + intervalNs;
       outer:
       while (true) {
-        for (int i = 0; i < Math.min(commands.size(), responses.size()); i++) {
-          actualTime = System.nanoTime();
-          if (actualTime > nextTime) {
-            break outer;
-          }
-          Response<NvmResponseCapsule> response = responses.remove();
-          NvmCompletionQueueEntry cqe = response.getResponseCapsule().getCompletionQueueEntry();
-          StatusCode.Value statusCode = cqe.getStatusCode();
-          if (statusCode != null) {
-            if (!statusCode.equals(GenericStatusCode.getInstance().SUCCESS)) {
+        for (QueueState queue : queues) {
+          while (!queue.freeSlots.isEmpty()) {
+            actualTime = System.nanoTime();
+            if (actualTime > nextTime) {
+              break outer;
+            }
+            if (ratePeriodNs > 0 && actualTime < nextIssueTime) {
+              break;
+            }
+            Slot slot = queue.freeSlots.remove();
+            NvmCompletionQueueEntry cqe = slot.response.getResponseCapsule()
+                .getCompletionQueueEntry();
+            if (!cqe.isSuccess()) {
               throw new UnsuccessfulComandException(cqe);
             }
-          }
 
-          NvmIoCommand<?> command = (NvmIoCommand) commands.remove();
-          NvmIoCommandCapsule commandCapsule = command.getCommandCapsule();
-          NvmIoCommandSqe sqe = commandCapsule.getSubmissionQueueEntry();
-          sqe.setStartingLba(lba);
-          sqe.setNumberOfLogicalBlocks(sectorCount);
-          sqe.setNamespaceIdentifier(namespaceIdentifier);
-          command.execute(response);
-          switch (accessPattern) {
-            case SEQUENTIAL:
-              lba += sectorCount;
-              lba = lba % (totalSizeSector - sectorCount);
-              break;
-            case RANDOM:
-              lba = random.nextLong(totalSizeSector - sectorCount);
-              break;
+            boolean read = readPercent == 100
+                || (readPercent > 0 && random.nextInt(100) < readPercent);
+            int size = blockSizeSplit.next(random);
+            int sectorCount = size / sectorSize;
+            NvmIoCommand<?> command = slot.prepare(read, size);
+            NvmIoCommandSqe sqe = command.getCommandCapsule().getSubmissionQueueEntry();
+            sqe.setStartingLba(nextLba(queue, sectorCount, random));
+            sqe.setNumberOfLogicalBlocks(sectorCount);
+            sqe.setNamespaceIdentifier(namespaceIdentifier);
+            if (ratePeriodNs > 0) {
+              /* open loop: latency is measured from the scheduled start */
+              slot.startTime = nextIssueTime;
+              nextIssueTime += ratePeriodNs;
+            } else {
+              slot.startTime = actualTime;
+            }
+            command.execute(slot.response);
+            operations++;
+            bytes += size;
+          }
+        }
+        for (QueueState queue : queues) {
+          if (queues.length == 1 && ratePeriodNs == 0) {
+            queue.queuePair.waitForCompletions();
+          } else {
+            /* we cannot block on one of several queues or past the next issue time */
+            queue.queuePair.poll();
+          }
+          if (!queue.rdmaException.isEmpty()) {
+            throw queue.rdmaException.remove();
           }
-          lba -= lba % align;
-          operations++;
         }
-        do {
-          queuePair.poll();
-        } while ((commands.isEmpty() || responses.isEmpty()) && !rdmaException.isEmpty());
-        if (!rdmaException.isEmpty()) {
-          throw rdmaException.remove();
+      }
+      return new long[]{operations, bytes, actualTime - nextTime + intervalNs};
+    }
+
+    void free() throws IOException {
+      for (QueueState queue : queues) {
+        if (queue != null) {
+          queue.free();
         }
       }
-      printRunStats(operations, actualTime - nextTime + intervalNs);
     }
+  }
 
-    if (!incapsuleData) {
-      for (KeyedNativeBuffer buffer : buffers) {
-        buffer.free();
+  void run() throws IOException, ExecutionException, InterruptedException, RdmaException {
+    LbaFormat lbaFormat = namespace.getIdentifyNamespaceData().getFormattedLbaSize();
+    final int sectorSize = lbaFormat.getLbaDataSize().toInt();
+    for (int size : blockSizeSplit.getSizes()) {
+      if (size <= 0 || size % sectorSize != 0) {
+        throw new IllegalArgumentException("Size " + size + " is not a multiple of the sector size "
+            + sectorSize);
       }
     }
-    for (Command command : commands) {
-      command.getCommandCapsule().free();
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Void>> initFutures = new ArrayList<>(threads);
+      for (Worker worker : workers) {
+        initFutures.add(executor.submit(() -> {
+          worker.init();
+          return null;
+        }));
+      }
+      for (Future<Void> future : initFutures) {
+        future.get();
+      }
+
+      long intervalNs = TimeUnit.NANOSECONDS.convert(interval, TimeUnit.SECONDS);
+      for (int r = 0; r < runs; r++) {
+        CyclicBarrier barrier = new CyclicBarrier(threads);
+        List<Future<long[]>> runFutures = new ArrayList<>(threads);
+        for (Worker worker : workers) {
+          runFutures.add(executor.submit(() -> worker.run(intervalNs, sectorSize, barrier)));
+        }
+        long operations = 0;
+        long bytes = 0;
+        long actualTime = 0;
+        for (Future<long[]> future : runFutures) {
+          long[] result = future.get();
+          operations += result[0];
+          bytes += result[1];
+          actualTime = Math.max(actualTime, result[2]);
+        }
+        long runEnd = System.currentTimeMillis();
+        histogram.reset();
+        for (Worker worker : workers) {
+          histogram.add(worker.histogram);
+        }
+        histogram.setStartTimeStamp(runEnd - TimeUnit.MILLISECONDS.convert(actualTime,
+            TimeUnit.NANOSECONDS));
+        histogram.setEndTimeStamp(runEnd);
+        cumulativeHistogram.add(histogram);
+        printRunStats(operations, bytes, actualTime);
+        if (histogramLogWriter != null) {
+          histogramLogWriter.outputIntervalHistogram(histogram);
+        }
+      }
+      if (doStats && runs > 1) {
+        System.out.print("cumulative: #ops " + cumulativeHistogram.getTotalCount()
+            + ", mean[ns] " + (long) cumulativeHistogram.getMean());
+        printPercentiles(cumulativeHistogram);
+        System.out.println();
+      }
+
+      List<Future<Void>> freeFutures = new ArrayList<>(threads);
+      for (Worker worker : workers) {
+        freeFutures.add(executor.submit(() -> {
+          worker.free();
+          return null;
+        }));
+      }
+      for (Future<Void> future : freeFutures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
     }
   }
 
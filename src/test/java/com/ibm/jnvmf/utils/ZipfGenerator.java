@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2018, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ibm.jnvmf.utils;
+
+import java.util.Random;
+
+/*
+ * Zipf distributed ranks 1..n with exponent theta using rejection-inversion
+ * sampling (Hörmann and Derflinger, "Rejection-inversion to generate variates
+ * from monotone discrete distributions"). Constant setup time, so it can be used
+ * for the number of blocks of a whole namespace.
+ */
+class ZipfGenerator {
+
+  private final long numberOfElements;
+  private final double exponent;
+  private final double hIntegralX1;
+  private final double hIntegralNumberOfElements;
+  private final double s;
+
+  ZipfGenerator(long numberOfElements, double exponent) {
+    if (numberOfElements <= 0) {
+      throw new IllegalArgumentException("Number of elements must be positive");
+    }
+    if (exponent <= 0) {
+      throw new IllegalArgumentException("Exponent must be positive");
+    }
+    this.numberOfElements = numberOfElements;
+    this.exponent = exponent;
+    this.hIntegralX1 = hIntegral(1.5) - 1d;
+    this.hIntegralNumberOfElements = hIntegral(numberOfElements + 0.5);
+    this.s = 2d - hIntegralInverse(hIntegral(2.5) - h(2));
+  }
+
+  long next(Random random) {
+    while (true) {
+      double u = hIntegralNumberOfElements
+          + random.nextDouble() * (hIntegralX1 - hIntegralNumberOfElements);
+      double x = hIntegralInverse(u);
+      long k = (long) (x + 0.5);
+      if (k < 1) {
+        k = 1;
+      } else if (k > numberOfElements) {
+        k = numberOfElements;
+      }
+      if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+        return k;
+      }
+    }
+  }
+
+  private double hIntegral(double x) {
+    double logX = Math.log(x);
+    return helper2((1d - exponent) * logX) * logX;
+  }
+
+  private double h(double x) {
+    return Math.exp(-exponent * Math.log(x));
+  }
+
+  private double hIntegralInverse(double x) {
+    double t = x * (1d - exponent);
+    if (t < -1d) {
+      t = -1d;
+    }
+    return Math.exp(helper1(t) * x);
+  }
+
+  /* log(1 + x) / x */
+  private static double helper1(double x) {
+    if (Math.abs(x) > 1e-8) {
+      return Math.log1p(x) / x;
+    }
+    return 1d - x * (0.5 - x * (1d / 3d - 0.25 * x));
+  }
+
+  /* (exp(x) - 1) / x */
+  private static double helper2(double x) {
+    if (Math.abs(x) > 1e-8) {
+      return Math.expm1(x) / x;
+    }
+    return 1d + x * 0.5 * (1d + x * 1d / 3d * (1d + 0.25 * x));
+  }
+}